@@ -0,0 +1,19 @@
+package nl.knaw.dans.rs.aggregator.discover;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * A {@link ResultIndex} that can be shared between threads. Results are kept in a {@link ConcurrentHashMap},
+ * ordinals are assigned atomically and {@link #containsOrReserve(String)} lets concurrent explorers claim a URI
+ * without a global lock.
+ * <p>
+ * Results that are added to a ConcurrentResultIndex should have a URI.
+ * </p>
+ */
+public class ConcurrentResultIndex extends ResultIndex {
+
+    public ConcurrentResultIndex() {
+        super(new ConcurrentHashMap<>(), new ConcurrentSkipListSet<>(), ConcurrentHashMap.newKeySet());
+    }
+}
@@ -6,18 +6,35 @@ import nl.knaw.dans.rs.aggregator.http.Result;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An index on explored URI's and their Result.
+ * <p>
+ * Instances of this class are not thread-safe. See {@link ConcurrentResultIndex} for an index that can be shared
+ * between threads.
+ * </p>
  */
 public class ResultIndex {
 
-    private Map<URI, Result<?>> resultMap = new HashMap<>();
-    private Set<String> invalidUris = new TreeSet<>();
-    private int count;
+    private final Map<URI, Result<?>> resultMap;
+    private final Set<String> invalidUris;
+    private final Set<String> reservedUris;
+    private final AtomicInteger count = new AtomicInteger();
+
+    public ResultIndex() {
+        this(new HashMap<>(), new TreeSet<>(), new HashSet<>());
+    }
+
+    protected ResultIndex(Map<URI, Result<?>> resultMap, Set<String> invalidUris, Set<String> reservedUris) {
+        this.resultMap = resultMap;
+        this.invalidUris = invalidUris;
+        this.reservedUris = reservedUris;
+    }
 
     public boolean contains(URI uri) {
         return resultMap.containsKey(uri);
@@ -37,6 +54,18 @@ public class ResultIndex {
         return present;
     }
 
+    /**
+     * Tell whether the given uriString was already indexed or claimed by a caller, and claim it if it was not.
+     * A caller that gets <code>false</code> is the only one that should fetch the uriString.
+     *
+     * @param uriString the uri to claim
+     * @return <code>true</code> if the uriString was already indexed or claimed, <code>false</code> if the caller
+     * claimed it with this call
+     */
+    public boolean containsOrReserve(String uriString) {
+        return contains(uriString) || !reservedUris.add(uriString);
+    }
+
     /**
      * Merge the given ResultIndex with this ResultIndex. If equal URI's are present the entry of this ResultIndex
      * has precedence, unless the Result of the given ResultIndex has content.
@@ -54,7 +83,7 @@ public class ResultIndex {
             }
         }
         invalidUris.addAll(other.invalidUris);
-        count = -1;
+        count.set(-1);
         return this;
     }
 
@@ -67,25 +96,26 @@ public class ResultIndex {
     }
 
     public int getCount() {
-        return count;
+        return count.get();
     }
 
     public void add(Result result) throws IllegalStateException {
-        if (count == -1) {
-            throw new IllegalStateException(
-              "This " + getClass().getSimpleName() + " has been merged. Modification not allowed.");
-        }
-        result.setOrdinal(count++);
+        result.setOrdinal(nextOrdinal());
         resultMap.put(result.getUri(), result);
     }
 
     public void addInvalidUri(String invalid) throws IllegalStateException {
-        if (count == -1) {
+        nextOrdinal();
+        invalidUris.add(invalid);
+    }
+
+    private int nextOrdinal() throws IllegalStateException {
+        int ordinal = count.getAndUpdate(c -> c == -1 ? -1 : c + 1);
+        if (ordinal == -1) {
             throw new IllegalStateException(
               "This " + getClass().getSimpleName() + " has been merged. Modification not allowed.");
         }
-        count++;
-        invalidUris.add(invalid);
+        return ordinal;
     }
 
 }
@@ -2,6 +2,8 @@ package nl.knaw.dans.rs.aggregator.discover;
 
 import nl.knaw.dans.rs.aggregator.http.RemoteResourceSyncFrameworkException;
 import nl.knaw.dans.rs.aggregator.http.Result;
+import nl.knaw.dans.rs.aggregator.http.RetryPolicy;
+import nl.knaw.dans.rs.aggregator.util.ExecutorMode;
 import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
 import nl.knaw.dans.rs.aggregator.xml.Capability;
 import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
@@ -11,15 +13,23 @@ import nl.knaw.dans.rs.aggregator.xml.RsMd;
 import nl.knaw.dans.rs.aggregator.xml.RsRoot;
 import nl.knaw.dans.rs.aggregator.xml.Sitemapindex;
 import nl.knaw.dans.rs.aggregator.xml.Urlset;
+import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Download ResourceSync Framework documents.
@@ -36,6 +46,18 @@ import java.util.List;
  * There are three switches to influence the path the RsExplorer will take through the sitemap tree:
  * {@link #followParentLinks}, {@link #followChildLinks} and {@link #followIndexLinks}.
  * </p>
+ * <p>
+ * By default RsExplorer explores the tree depth-first, one document at a time. With a parallelism greater
+ * than 1 (see {@link #withParallelism(int)}) the tree is explored breadth-first: all documents of one level
+ * of the tree are fetched concurrently, and the relations between documents are verified after all documents
+ * are in. Documents are fetched by platform threads or by virtual threads, see
+ * {@link #withExecutorMode(ExecutorMode)}.
+ * </p>
+ * <p>
+ * A listener set with {@link #withResultListener(Consumer)} gets each result as soon as it is indexed, so that
+ * documents can be processed while the exploration is still going on. A filter set with
+ * {@link #withChildFilter(Predicate)} prunes child documents before they are fetched.
+ * </p>
  */
 public class RsExplorer extends AbstractUriExplorer {
 
@@ -43,6 +65,10 @@ public class RsExplorer extends AbstractUriExplorer {
     public boolean followParentLinks = true;
     public boolean followIndexLinks = true;
     public boolean followChildLinks = true;
+    private int parallelism = 1;
+    private ExecutorMode executorMode;
+    private Consumer<Result<RsRoot>> resultListener;
+    private Predicate<RsItem> childFilter;
     private LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception> converter;
     private LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception> rsConverter =
       (uri, response) -> {
@@ -84,21 +110,117 @@ public class RsExplorer extends AbstractUriExplorer {
         return this;
     }
 
+    public RsExplorer withRequestPreparer(BiConsumer<URI, HttpRequest> requestPreparer) {
+        setRequestPreparer(requestPreparer);
+        return this;
+    }
+
+    public RsExplorer withRetryPolicy(RetryPolicy retryPolicy) {
+        setRetryPolicy(retryPolicy);
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of documents that are fetched concurrently. Default is 1, which explores the tree
+     * depth-first, one document at a time. A greater value explores the tree breadth-first.
+     *
+     * @param parallelism number of concurrently fetched documents
+     * @return <code>this</code> to enable method chaining
+     */
+    public RsExplorer withParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism cannot be less then 1.");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        if (executorMode == null) {
+            executorMode = ExecutorMode.PLATFORM;
+        }
+        return executorMode;
+    }
+
+    /**
+     * Set the kind of threads that fetch documents concurrently. Default is {@link ExecutorMode#PLATFORM}.
+     * Only used if parallelism is greater than 1.
+     *
+     * @param executorMode kind of threads
+     * @return <code>this</code> to enable method chaining
+     */
+    public RsExplorer withExecutorMode(ExecutorMode executorMode) {
+        this.executorMode = executorMode;
+        return this;
+    }
+
+    public Consumer<Result<RsRoot>> getResultListener() {
+        return resultListener;
+    }
+
+    /**
+     * Set a listener that gets each result as soon as it is indexed. The listener is called by the thread that
+     * called {@link #explore(URI, ResultIndex)}, one result at a time, after the links of the result were
+     * collected and before they are followed. Errors on the relation of a result to its parent or its children
+     * may be added to the result after the listener was called.
+     * <p>
+     * Links to child documents are taken from the items of sitemapindexes and of documents with a capability
+     * above resourcelist. A listener may drop the items of other documents.
+     * </p>
+     *
+     * @param resultListener listener on indexed results, may be <code>null</code>
+     * @return <code>this</code> to enable method chaining
+     */
+    public RsExplorer withResultListener(Consumer<Result<RsRoot>> resultListener) {
+        this.resultListener = resultListener;
+        return this;
+    }
+
+    public Predicate<RsItem> getChildFilter() {
+        return childFilter;
+    }
+
+    /**
+     * Set a filter on the items that link to child documents. Child documents of items that do not pass the
+     * filter are not fetched. The filter can use the metadata of the item, like <code>rs:md until</code> on the
+     * entries of a changelist index. The filter is called by the thread that called
+     * {@link #explore(URI, ResultIndex)}. Default is <code>null</code>: all child documents are fetched.
+     *
+     * @param childFilter filter on items that link to child documents, may be <code>null</code>
+     * @return <code>this</code> to enable method chaining
+     */
+    public RsExplorer withChildFilter(Predicate<RsItem> childFilter) {
+        this.childFilter = childFilter;
+        return this;
+    }
+
     public ResultIndex explore(URI uri) {
         ResultIndex index = new ResultIndex();
         explore(uri, index);
         return index;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public Result<RsRoot> explore(URI uri, ResultIndex index) {
+        if (parallelism > 1) {
+            return exploreBreadthFirst(uri, index);
+        }
+        return exploreDepthFirst(uri, index);
+    }
+
+    private Result<RsRoot> exploreDepthFirst(URI uri, ResultIndex index) {
         Result<RsRoot> result = execute(uri, getConverter());
         index.add(result);
         if (result.hasErrors()) {
+            notifyListener(result);
             return result;
         }
         Capability capability = extractCapability(result);
+        notifyListener(result);
 
         if (followParentLinks) {
             // rs:ln rel="up" -> points to parent document, a urlset.
@@ -106,7 +228,7 @@ public class RsExplorer extends AbstractUriExplorer {
             if (parentLink != null && !index.contains(parentLink)) {
                 try {
                     URI parentUri = new URI(parentLink);
-                    Result<RsRoot> parentResult = explore(parentUri, index);
+                    Result<RsRoot> parentResult = exploreDepthFirst(parentUri, index);
                     result.addParent(parentResult);
                     verifyUpRelation(result, parentResult, capability);
                 } catch (URISyntaxException e) {
@@ -123,7 +245,7 @@ public class RsExplorer extends AbstractUriExplorer {
             if (indexLink != null && !index.contains(indexLink)) {
                 try {
                     URI indexUri = new URI(indexLink);
-                    Result<RsRoot> indexResult = explore(indexUri, index);
+                    Result<RsRoot> indexResult = exploreDepthFirst(indexUri, index);
                     result.addParent(indexResult);
                     verifyIndexRelation(result, indexResult, capability);
                 } catch (URISyntaxException e) {
@@ -147,10 +269,10 @@ public class RsExplorer extends AbstractUriExplorer {
                 List<RsItem> itemList = result.getContent().map(RsRoot::getItemList).orElse(Collections.emptyList());
                 for (RsItem item : itemList) {
                     String childLink = item.getLoc();
-                    if (childLink != null && !index.contains(childLink)) {
+                    if (childLink != null && !index.contains(childLink) && acceptChild(item)) {
                         try {
                             URI childUri = new URI(childLink);
-                            Result<RsRoot> childResult = explore(childUri, index);
+                            Result<RsRoot> childResult = exploreDepthFirst(childUri, index);
                             result.addChild(childResult);
                             verifyChildRelation(result, childResult, capability);
                         } catch (URISyntaxException e) {
@@ -166,6 +288,124 @@ public class RsExplorer extends AbstractUriExplorer {
         return result;
     }
 
+    /**
+     * Explore the tree level by level. Documents of one level are fetched concurrently by at most
+     * {@link #getParallelism()} threads of the kind given by {@link #getExecutorMode()}. Only the calling thread
+     * changes the index and the results, so the index need not be thread-safe. Links are claimed with
+     * {@link ResultIndex#containsOrReserve(String)}, so explorers that share a {@link ConcurrentResultIndex} do not
+     * fetch the same document twice. The ordinals of results follow the order of the levels.
+     */
+    private Result<RsRoot> exploreBreadthFirst(URI uri, ResultIndex index) {
+        ExecutorService executor = getExecutorMode().newExecutor(parallelism);
+        List<Relation> relations = new ArrayList<>();
+        Result<RsRoot> startResult = null;
+        try {
+            List<Link> level = Collections.singletonList(new Link(uri, null, null, null));
+            index.containsOrReserve(uri.toString());
+            while (!level.isEmpty()) {
+                List<Future<Result<RsRoot>>> futures = new ArrayList<>(level.size());
+                for (Link link : level) {
+                    futures.add(executor.submit(() -> execute(link.uri, getConverter())));
+                }
+                List<Link> nextLevel = new ArrayList<>();
+                for (int i = 0; i < level.size(); i++) {
+                    Link link = level.get(i);
+                    Result<RsRoot> result = getResult(link.uri, futures.get(i));
+                    index.add(result);
+                    if (startResult == null) {
+                        startResult = result;
+                    }
+                    if (link.source != null) {
+                        relations.add(new Relation(link, result));
+                    }
+                    if (!result.hasErrors()) {
+                        collectLinks(result, index, nextLevel);
+                    }
+                    notifyListener(result);
+                }
+                level = nextLevel;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (Relation relation : relations) {
+            Link link = relation.link;
+            if (REL_UP.equals(link.rel)) {
+                link.source.addParent(relation.target);
+                verifyUpRelation(link.source, relation.target, link.sourceCapability);
+            } else if (REL_INDEX.equals(link.rel)) {
+                link.source.addParent(relation.target);
+                verifyIndexRelation(link.source, relation.target, link.sourceCapability);
+            } else {
+                link.source.addChild(relation.target);
+                verifyChildRelation(link.source, relation.target, link.sourceCapability);
+            }
+        }
+        return startResult;
+    }
+
+    private boolean acceptChild(RsItem item) {
+        return childFilter == null || childFilter.test(item);
+    }
+
+    private void notifyListener(Result<RsRoot> result) {
+        if (resultListener != null) {
+            resultListener.accept(result);
+        }
+    }
+
+    private Result<RsRoot> getResult(URI uri, Future<Result<RsRoot>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while exploring " + uri, e);
+        } catch (ExecutionException e) {
+            Result<RsRoot> result = new Result<>(uri);
+            result.addError(e.getCause());
+            return result;
+        }
+    }
+
+    private void collectLinks(Result<RsRoot> result, ResultIndex index, List<Link> nextLevel) {
+        Capability capability = extractCapability(result);
+        if (followParentLinks) {
+            String parentLink = result.getContent().map(rsRoot -> rsRoot.getHref(REL_UP)).orElse(null);
+            claimLink(result, capability, parentLink, REL_UP, index, nextLevel);
+        }
+        if (followIndexLinks) {
+            String indexLink = result.getContent().map(rsRoot -> rsRoot.getHref(REL_INDEX)).orElse(null);
+            claimLink(result, capability, indexLink, REL_INDEX, index, nextLevel);
+        }
+        if (followChildLinks) {
+            String xmlString = result.getContent()
+                                     .map(RsRoot::getMetadata).flatMap(RsMd::getCapability).orElse("invalid");
+            boolean isSitemapindex = result.getContent().map(rsRoot -> rsRoot instanceof Sitemapindex).orElse(false);
+            if (Capability.levelfor(xmlString) > Capability.RESOURCELIST.level || isSitemapindex) {
+                List<RsItem> itemList = result.getContent().map(RsRoot::getItemList).orElse(Collections.emptyList());
+                for (RsItem item : itemList) {
+                    if (acceptChild(item)) {
+                        claimLink(result, capability, item.getLoc(), REL_CHILD, index, nextLevel);
+                    }
+                }
+            }
+        }
+    }
+
+    private void claimLink(Result<RsRoot> result, Capability capability, String link, String rel, ResultIndex index,
+                           List<Link> nextLevel) {
+        if (link == null || index.containsOrReserve(link)) {
+            return;
+        }
+        try {
+            nextLevel.add(new Link(new URI(link), result, capability, rel));
+        } catch (URISyntaxException e) {
+            index.addInvalidUri(link);
+            result.addError(e);
+            result.addInvalidUri(link);
+        }
+    }
+
     private Capability extractCapability(Result<RsRoot> result) {
         String xmlString = result.getContent()
                                  .map(RsRoot::getMetadata).flatMap(RsMd::getCapability).orElse("");
@@ -240,6 +480,34 @@ public class RsExplorer extends AbstractUriExplorer {
         }
     }
 
+    private static final String REL_UP = "up";
+    private static final String REL_INDEX = "index";
+    private static final String REL_CHILD = "child";
+
+    private static class Link {
+        private final URI uri;
+        private final Result<RsRoot> source;
+        private final Capability sourceCapability;
+        private final String rel;
+
+        Link(URI uri, Result<RsRoot> source, Capability sourceCapability, String rel) {
+            this.uri = uri;
+            this.source = source;
+            this.sourceCapability = sourceCapability;
+            this.rel = rel;
+        }
+    }
+
+    private static class Relation {
+        private final Link link;
+        private final Result<RsRoot> target;
+
+        Relation(Link link, Result<RsRoot> target) {
+            this.link = link;
+            this.target = target;
+        }
+    }
+
     private ResourceSyncContext getRsContext() {
         return rsContext;
     }
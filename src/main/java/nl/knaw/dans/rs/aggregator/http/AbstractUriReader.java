@@ -2,7 +2,10 @@ package nl.knaw.dans.rs.aggregator.http;
 
 import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
 import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.entity.ContentType;
@@ -12,6 +15,7 @@ import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.util.function.BiConsumer;
 
 /**
  * Execute requests and store response in a {@link Result}.
@@ -20,7 +24,9 @@ public class AbstractUriReader {
     final static Logger logger = LoggerFactory.getLogger(AbstractUriReader.class);
     private final CloseableHttpClient httpClient;
     private boolean keepingHeaders = false;
-    private URI currentUri;
+    private volatile URI currentUri;
+    private BiConsumer<URI, HttpRequest> requestPreparer;
+    private RetryPolicy retryPolicy;
 
     public AbstractUriReader(CloseableHttpClient httpClient) {
         this.httpClient = httpClient;
@@ -40,6 +46,35 @@ public class AbstractUriReader {
         this.keepingHeaders = keepingHeaders;
     }
 
+    public BiConsumer<URI, HttpRequest> getRequestPreparer() {
+        return requestPreparer;
+    }
+
+    /**
+     * Set a function that prepares each request before it is executed, for instance by adding headers for a
+     * conditional request. A response with status code 304 (Not Modified) to a request with an If-None-Match or
+     * If-Modified-Since header is handed to the response function, which should know how to handle it.
+     *
+     * @param requestPreparer function that prepares requests, may be <code>null</code>
+     */
+    public void setRequestPreparer(BiConsumer<URI, HttpRequest> requestPreparer) {
+        this.requestPreparer = requestPreparer;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set the policy that decides whether failed requests are tried again. If no retryPolicy is set, failed
+     * requests are not tried again.
+     *
+     * @param retryPolicy policy for retries, may be <code>null</code>
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
     protected CloseableHttpClient getHttpClient() {
         return httpClient;
     }
@@ -48,11 +83,77 @@ public class AbstractUriReader {
         return currentUri;
     }
 
+    /**
+     * Execute a GET request on the given <code>uri</code> and hand a successful response to <code>func</code>.
+     * If a {@link RetryPolicy} is set, failed requests are tried again as the policy decides. A request whose
+     * partial content was rejected with a {@link RangeMismatchException} is repeated once right away, whether or
+     * not a policy is set. The Result is the Result of the last attempt; the number of retries is recorded in
+     * {@link Result#getRetryCount()}.
+     *
+     * @param uri  the uri to request
+     * @param func function that converts the response
+     * @param <R>  type of the content of the Result
+     * @return Result of the request
+     */
     public <R> Result<R> execute(URI uri, LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, R, ?> func) {
+        return execute(uri, null, func);
+    }
+
+    /**
+     * Execute a GET request on the given <code>uri</code>, with a <code>preparer</code> that prepares the request
+     * of each attempt for this call only. The preparer is applied after the {@link #getRequestPreparer()} of this
+     * reader. See {@link #execute(URI, LambdaUtil.BiFunction_WithExceptions)}.
+     *
+     * @param uri      the uri to request
+     * @param preparer function that prepares the request of each attempt, may be <code>null</code>
+     * @param func     function that converts the response
+     * @param <R>      type of the content of the Result
+     * @return Result of the request
+     */
+    protected <R> Result<R> execute(URI uri, BiConsumer<URI, HttpRequest> preparer,
+                                    LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, R, ?> func) {
+        RetryPolicy policy = retryPolicy;
+        int attempt = 1;
+        boolean rangeRepeated = false;
+        Result<R> result = executeOnce(uri, preparer, func);
+        while (true) {
+            long delay;
+            if (!rangeRepeated && result.lastError() instanceof RangeMismatchException) {
+                rangeRepeated = true;
+                delay = 0L;
+                logger.info("Repeating GET on uri {}, because the partial content of attempt {} did not match", uri,
+                  attempt);
+            } else if (policy != null && (delay = policy.retryDelay(uri, result, attempt)) >= 0) {
+                logger.info("Retrying GET on uri {} in {} ms, after attempt {} failed with {}", uri, delay, attempt,
+                  result.lastError().toString());
+            } else {
+                break;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            attempt++;
+            result = executeOnce(uri, preparer, func);
+        }
+        result.setRetryCount(attempt - 1);
+        return result;
+    }
+
+    private <R> Result<R> executeOnce(URI uri, BiConsumer<URI, HttpRequest> preparer,
+                                      LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, R, ?> func) {
         logger.debug("Executing GET on uri {}", uri);
         currentUri = uri;
         Result<R> result = new Result<R>(uri);
         HttpGet request = new HttpGet(uri);
+        if (requestPreparer != null) {
+            requestPreparer.accept(uri, request);
+        }
+        if (preparer != null) {
+            preparer.accept(uri, request);
+        }
         try (CloseableHttpResponse response = httpClient.execute(request)) {
             int statusCode = response.getStatusLine().getStatusCode();
             result.setStatusLine(response.getStatusLine().toString());
@@ -63,11 +164,16 @@ public class AbstractUriReader {
                     result.getHeaders().put(header.getName(), header.getValue());
                 }
             }
-            if (statusCode < 200 || statusCode > 299) {
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED && isConditional(request)) {
+                result.accept(func.apply(uri, response));
+            } else if (statusCode < 200 || statusCode > 299) {
                 result.addError(new RemoteException(statusCode, response.getStatusLine().getReasonPhrase(), uri));
             } else {
                 result.accept(func.apply(uri, response));
             }
+        } catch (RangeMismatchException e) {
+            logger.info("Rejected partial content of GET on uri {}: {}", uri, e.getMessage());
+            result.addError(e);
         } catch (Exception e) {
             logger.error("Error executing GET on uri {}", uri, e);
             result.addError(e);
@@ -75,4 +181,15 @@ public class AbstractUriReader {
         return result;
     }
 
+    /**
+     * Is the given request conditional. Only a conditional request can be answered with 304 Not Modified.
+     *
+     * @param request the request
+     * @return <code>true</code> if the request has an If-None-Match or If-Modified-Since header
+     */
+    private static boolean isConditional(HttpRequest request) {
+        return request.containsHeader(HttpHeaders.IF_NONE_MATCH)
+          || request.containsHeader(HttpHeaders.IF_MODIFIED_SINCE);
+    }
+
 }
@@ -0,0 +1,245 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import nl.knaw.dans.rs.aggregator.util.AtomicFileUtil;
+import nl.knaw.dans.rs.aggregator.util.HashUtil;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.AsyncByteConsumer;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * Reads resources without blocking a thread for the duration of the transfer. Response bodies are written to their
+ * destination files as they come in, by the I/O threads of the {@link CloseableHttpAsyncClient}, so a few threads
+ * can keep many transfers in flight.
+ * <p>
+ * The Result of a read is the same as the Result of {@link ResourceReader#read(URI, File, Collection)}: the file
+ * as content, status, optional headers, the number of bytes written and the digests that were asked for.
+ * Completion is signalled through a {@link CompletableFuture}; errors are recorded in the Result, the future
+ * itself does not complete exceptionally.
+ * </p>
+ * <p>
+ * The httpAsyncClient should be started before reading. See {@link HttpClientPool#getHttpAsyncClient()}.
+ * </p>
+ * <p>
+ * This class is experimental and not used by {@link nl.knaw.dans.rs.aggregator.sync.SyncWorker}. Unlike
+ * {@link ResourceReader#read(URI, File, Collection, Predicate)} it does not try failed requests again and does
+ * not resume broken downloads. A verifier can keep a download that does not match its metadata out of place.
+ * </p>
+ */
+public class AsyncResourceReader {
+
+    private static Logger logger = LoggerFactory.getLogger(AsyncResourceReader.class);
+
+    private final CloseableHttpAsyncClient httpAsyncClient;
+    private boolean keepingHeaders = false;
+
+    public AsyncResourceReader(CloseableHttpAsyncClient httpAsyncClient) {
+        this.httpAsyncClient = httpAsyncClient;
+    }
+
+    public boolean isKeepingHeaders() {
+        return keepingHeaders;
+    }
+
+    public void setKeepingHeaders(boolean keepingHeaders) {
+        this.keepingHeaders = keepingHeaders;
+    }
+
+    public CompletableFuture<Result<File>> read(URI uri, File file) {
+        return read(uri, file, Collections.emptySet());
+    }
+
+    public CompletableFuture<Result<File>> read(URI uri, File file, Collection<String> algorithms) {
+        return read(uri, file, algorithms, result -> true);
+    }
+
+    /**
+     * Read the resource at the given <code>uri</code> and write it to <code>file</code>, while computing digests
+     * of the content with the given algorithms. The content is written to a temporary file that is moved into place
+     * only if the <code>verifier</code> accepts the Result of the download, with its length and digests. If the
+     * verifier rejects the download, <code>file</code> is left as it was and an error is added to the Result.
+     *
+     * @param uri        location of the resource
+     * @param file       the file to write to
+     * @param algorithms algorithms to compute digests with, for instance <code>md5</code>, <code>sha-256</code>
+     * @param verifier   decides whether a complete download is moved into place
+     * @return future that completes with the Result of the read
+     */
+    public CompletableFuture<Result<File>> read(URI uri, File file, Collection<String> algorithms,
+                                                Predicate<Result<File>> verifier) {
+        logger.debug("Executing asynchronous GET on uri {}", uri);
+        Result<File> result = new Result<>(uri);
+        CompletableFuture<Result<File>> future = new CompletableFuture<>();
+        FileConsumer consumer = new FileConsumer(uri, file, result, algorithms, verifier);
+        httpAsyncClient.execute(HttpAsyncMethods.createGet(uri), consumer, new FutureCallback<File>() {
+            @Override
+            public void completed(File content) {
+                result.accept(content);
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                logger.error("Error executing asynchronous GET on uri {}", uri, e);
+                result.addError(e);
+                future.complete(result);
+            }
+
+            @Override
+            public void cancelled() {
+                result.addError(new IOException("Request cancelled: " + uri));
+                future.complete(result);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Writes the body of a 2xx response to a temporary file that is moved to file when complete. Other responses
+     * are recorded as {@link RemoteException} and leave the file untouched.
+     */
+    private class FileConsumer extends AsyncByteConsumer<File> {
+
+        private final URI uri;
+        private final File file;
+        private final File tempFile;
+        private final Result<File> result;
+        private final Predicate<Result<File>> verifier;
+        private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+        private HttpResponse response;
+        private FileOutputStream outstream;
+        private FileChannel channel;
+        private long byteCount;
+
+        FileConsumer(URI uri, File file, Result<File> result, Collection<String> algorithms,
+                     Predicate<Result<File>> verifier) {
+            this.uri = uri;
+            this.file = file;
+            this.tempFile = AtomicFileUtil.getTempFile(file);
+            this.result = result;
+            this.verifier = verifier;
+            for (String algorithm : algorithms) {
+                try {
+                    digests.put(algorithm.toLowerCase(), MessageDigest.getInstance(algorithm));
+                } catch (NoSuchAlgorithmException e) {
+                    logger.warn("Unknown hash algorithm: '{}': {}", algorithm, uri);
+                }
+            }
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) throws IOException {
+            this.response = response;
+            int statusCode = response.getStatusLine().getStatusCode();
+            result.setStatusLine(response.getStatusLine().toString());
+            result.setStatusCode(statusCode);
+            logger.debug("Received {} from {}", response.getStatusLine(), uri);
+            if (keepingHeaders) {
+                for (Header header : response.getAllHeaders()) {
+                    result.getHeaders().put(header.getName(), header.getValue());
+                }
+            }
+            if (isSuccess() && response.getEntity() != null) {
+                file.getParentFile().mkdirs();
+                outstream = new FileOutputStream(tempFile);
+                channel = outstream.getChannel();
+            }
+        }
+
+        @Override
+        protected void onByteReceived(ByteBuffer buf, IOControl ioctrl) throws IOException {
+            if (channel == null) {
+                buf.position(buf.limit());
+                return;
+            }
+            for (MessageDigest digest : digests.values()) {
+                digest.update(buf.duplicate());
+            }
+            while (buf.hasRemaining()) {
+                byteCount += channel.write(buf);
+            }
+        }
+
+        @Override
+        protected File buildResult(HttpContext context) throws Exception {
+            if (!isSuccess()) {
+                result.addError(new RemoteException(response.getStatusLine().getStatusCode(),
+                  response.getStatusLine().getReasonPhrase(), uri));
+                return null;
+            }
+            if (channel == null) {
+                return null;
+            }
+            closeFile();
+            result.setContentLength(byteCount);
+            for (Map.Entry<String, MessageDigest> entry : digests.entrySet()) {
+                result.getDigests().put(entry.getKey(), HashUtil.toHex(entry.getValue().digest()));
+            }
+            result.accept(tempFile);
+            if (!verifier.test(result)) {
+                result.addError(new IOException("Download did not pass verification: " + uri));
+                return null;
+            }
+            AtomicFileUtil.moveIntoPlace(tempFile, file, false);
+            Header lmh = response.getFirstHeader("Last-Modified");
+            if (lmh != null) {
+                Date date = DateUtils.parseDate(lmh.getValue());
+                if (date != null) {
+                    file.setLastModified(date.getTime());
+                }
+            }
+            return file;
+        }
+
+        @Override
+        protected void releaseResources() {
+            try {
+                closeFile();
+            } catch (IOException e) {
+                logger.warn("Could not close {}", tempFile, e);
+            }
+            // left behind by a failed transfer
+            if (tempFile.exists() && !tempFile.delete()) {
+                logger.warn("Could not delete {}", tempFile);
+            }
+        }
+
+        private boolean isSuccess() {
+            int statusCode = response.getStatusLine().getStatusCode();
+            return statusCode >= 200 && statusCode <= 299;
+        }
+
+        private void closeFile() throws IOException {
+            if (outstream != null) {
+                try {
+                    outstream.close();
+                } finally {
+                    outstream = null;
+                }
+            }
+        }
+    }
+}
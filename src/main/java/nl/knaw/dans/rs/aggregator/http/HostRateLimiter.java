@@ -0,0 +1,335 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the rate of requests per host and adapts that rate to the response of the host.
+ * <p>
+ * Each host has a token bucket that is refilled at the current rate of the host and holds at most
+ * {@link #getBurst()} tokens. A request waits for a token before it is sent. The rate is adapted with additive
+ * increase, multiplicative decrease (AIMD):
+ * </p>
+ * <ul>
+ *     <li>each successful response increases the rate, by about {@link #getIncrease()} requests per second for
+ *     every second of successful requests, up to {@link #getMaxRate()};</li>
+ *     <li>a response with status 429 (Too Many Requests) or 503 (Service Unavailable), a failed request and a
+ *     response time that rises above {@link #getLatencyFactor()} times the usual response time of the host
+ *     multiply the rate by {@link #getDecreaseFactor()}, down to {@link #getMinRate()}. The rate of a host is
+ *     decreased at most once per {@link #getDecreaseInterval()} milliseconds, so that a burst of bad responses
+ *     counts as one.</li>
+ * </ul>
+ * <p>
+ * A <code>Retry-After</code> header, in seconds or as http-date, holds back all requests to the host until the
+ * given time, at most {@link #getMaxRetryAfter()} milliseconds. Rates are in requests per second, time values
+ * in milliseconds. Instances of this class are thread-safe and are meant to be shared by all readers, see
+ * {@link HttpClientPool#setRateLimiter(HostRateLimiter)}.
+ * </p>
+ */
+public class HostRateLimiter {
+
+    private static Logger logger = LoggerFactory.getLogger(HostRateLimiter.class);
+
+    // weight of the last response time in the moving average
+    private static final double EWMA_WEIGHT = 0.2;
+    // speed at which the usual response time follows a rising average
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private double initialRate = 10.0;
+    private double minRate = 0.5;
+    private double maxRate = 100.0;
+    private double increase = 1.0;
+    private double decreaseFactor = 0.5;
+    private double latencyFactor = 3.0;
+    private int burst = 5;
+    private long decreaseInterval = 1000;
+    private long maxRetryAfter = 300000;
+
+    private final ConcurrentMap<String, HostState> hosts = new ConcurrentHashMap<>();
+
+    public double getInitialRate() {
+        return initialRate;
+    }
+
+    /**
+     * Set the rate at which requests to a host start. Default is 10 requests per second.
+     *
+     * @param initialRate requests per second
+     */
+    public void setInitialRate(double initialRate) {
+        this.initialRate = initialRate;
+    }
+
+    public double getMinRate() {
+        return minRate;
+    }
+
+    /**
+     * Set the minimum rate of requests to a host. Default is 0.5 requests per second.
+     *
+     * @param minRate requests per second
+     */
+    public void setMinRate(double minRate) {
+        if (minRate <= 0) {
+            throw new IllegalArgumentException("Minimum rate should be greater than 0.");
+        }
+        this.minRate = minRate;
+    }
+
+    public double getMaxRate() {
+        return maxRate;
+    }
+
+    /**
+     * Set the maximum rate of requests to a host. Default is 100 requests per second.
+     *
+     * @param maxRate requests per second
+     */
+    public void setMaxRate(double maxRate) {
+        this.maxRate = maxRate;
+    }
+
+    public double getIncrease() {
+        return increase;
+    }
+
+    /**
+     * Set the additive increase of the rate per second of successful requests. Default is 1.
+     *
+     * @param increase requests per second
+     */
+    public void setIncrease(double increase) {
+        this.increase = increase;
+    }
+
+    public double getDecreaseFactor() {
+        return decreaseFactor;
+    }
+
+    /**
+     * Set the factor the rate is multiplied with when a host signals overload. Default is 0.5.
+     *
+     * @param decreaseFactor factor between 0 and 1
+     */
+    public void setDecreaseFactor(double decreaseFactor) {
+        if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+            throw new IllegalArgumentException("Decrease factor should be between 0 and 1.");
+        }
+        this.decreaseFactor = decreaseFactor;
+    }
+
+    public double getLatencyFactor() {
+        return latencyFactor;
+    }
+
+    /**
+     * Set how many times the usual response time of a host the average response time can rise before the rate
+     * is decreased. Default is 3.
+     *
+     * @param latencyFactor factor greater than 1
+     */
+    public void setLatencyFactor(double latencyFactor) {
+        this.latencyFactor = latencyFactor;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Set the number of requests that can be sent to a host at once, after a quiet period. Default is 5.
+     *
+     * @param burst capacity of the token bucket
+     */
+    public void setBurst(int burst) {
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst cannot be less then 1.");
+        }
+        this.burst = burst;
+    }
+
+    public long getDecreaseInterval() {
+        return decreaseInterval;
+    }
+
+    /**
+     * Set the minimum time between two decreases of the rate of a host. Default is 1000 milliseconds.
+     *
+     * @param decreaseInterval time in milliseconds
+     */
+    public void setDecreaseInterval(long decreaseInterval) {
+        this.decreaseInterval = decreaseInterval;
+    }
+
+    public long getMaxRetryAfter() {
+        return maxRetryAfter;
+    }
+
+    /**
+     * Set the maximum time a <code>Retry-After</code> header holds back requests. Default is 300000 milliseconds.
+     *
+     * @param maxRetryAfter time in milliseconds
+     */
+    public void setMaxRetryAfter(long maxRetryAfter) {
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    /**
+     * Get the current rate of requests to the given host.
+     *
+     * @param host host, as <code>hostname:port</code>
+     * @return requests per second
+     */
+    public double getRate(String host) {
+        HostState state = hosts.get(host);
+        return state == null ? initialRate : state.rate;
+    }
+
+    /**
+     * Wait until a request to the given host may be sent.
+     *
+     * @param host host, as <code>hostname:port</code>
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public void acquire(String host) throws InterruptedException {
+        long waitNanos = stateOf(host).reserve(System.nanoTime());
+        if (waitNanos > 0) {
+            logger.trace("Waiting {} ms for {}", TimeUnit.NANOSECONDS.toMillis(waitNanos), host);
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Adapt the rate of the given host to a response.
+     *
+     * @param host         host, as <code>hostname:port</code>
+     * @param statusCode   status code of the response
+     * @param retryAfter   value of the <code>Retry-After</code> header, may be <code>null</code>
+     * @param latencyNanos time between sending the request and receiving the response, in nanoseconds
+     */
+    public void onResponse(String host, int statusCode, String retryAfter, long latencyNanos) {
+        HostState state = stateOf(host);
+        long now = System.nanoTime();
+        if (retryAfter != null) {
+            long delayMillis = parseRetryAfter(retryAfter);
+            if (delayMillis > 0) {
+                state.holdUntil(now + TimeUnit.MILLISECONDS.toNanos(Math.min(delayMillis, maxRetryAfter)));
+                logger.info("Host {} asks to retry after {}", host, retryAfter);
+            }
+        }
+        if (statusCode == 429 || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+            state.decrease(now, "status " + statusCode);
+        } else {
+            state.onLatency(now, latencyNanos, statusCode < 500);
+        }
+    }
+
+    /**
+     * Adapt the rate of the given host to a request that failed without a response.
+     *
+     * @param host host, as <code>hostname:port</code>
+     */
+    public void onFailure(String host) {
+        stateOf(host).decrease(System.nanoTime(), "failed request");
+    }
+
+    private HostState stateOf(String host) {
+        return hosts.computeIfAbsent(host, HostState::new);
+    }
+
+    static long parseRetryAfter(String retryAfter) {
+        String value = retryAfter.trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? -1 : date.getTime() - System.currentTimeMillis();
+        }
+    }
+
+    private class HostState {
+
+        private final String host;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile double rate = initialRate;
+        private long nextFree = Long.MIN_VALUE;
+        private long heldUntil = Long.MIN_VALUE;
+        private long lastDecrease = Long.MIN_VALUE;
+        private double avgLatency = -1;
+        private double usualLatency = -1;
+
+        HostState(String host) {
+            this.host = host;
+        }
+
+        /**
+         * Reserve the next token and return how long to wait for it.
+         */
+        long reserve(long now) {
+            lock.lock();
+            try {
+                long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+                long earliest = now - (burst - 1) * interval;
+                long start = Math.max(Math.max(nextFree, earliest), heldUntil);
+                nextFree = start + interval;
+                return start - now;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void holdUntil(long until) {
+            lock.lock();
+            try {
+                heldUntil = Math.max(heldUntil, until);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onLatency(long now, long latencyNanos, boolean success) {
+            lock.lock();
+            try {
+                if (avgLatency < 0) {
+                    avgLatency = latencyNanos;
+                    usualLatency = latencyNanos;
+                } else {
+                    avgLatency += (latencyNanos - avgLatency) * EWMA_WEIGHT;
+                    usualLatency = Math.min(avgLatency, usualLatency + (avgLatency - usualLatency) * BASELINE_DRIFT);
+                }
+                if (avgLatency > latencyFactor * usualLatency) {
+                    decrease(now, "rising response time");
+                } else if (success) {
+                    // about 'increase' per second worth of successful requests at the current rate
+                    rate = Math.min(maxRate, rate + increase / rate);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void decrease(long now, String reason) {
+            lock.lock();
+            try {
+                if (lastDecrease != Long.MIN_VALUE
+                  && now - lastDecrease < TimeUnit.MILLISECONDS.toNanos(decreaseInterval)) {
+                    return;
+                }
+                lastDecrease = now;
+                double previous = rate;
+                rate = Math.max(minRate, rate * decreaseFactor);
+                logger.debug("Decreased rate of {} from {} to {} requests/s: {}", host, previous, rate, reason);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
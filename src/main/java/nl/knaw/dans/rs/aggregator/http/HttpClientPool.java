@@ -0,0 +1,457 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides a {@link CloseableHttpClient} on a pool of connections, to be shared by all readers.
+ * <p>
+ * The pool is configured with bean properties and built when {@link HttpClientPool#getHttpClient()} is first
+ * called. Properties set after that have no effect. Time values are in milliseconds.
+ * </p>
+ * <p>
+ * Requests of the blocking and the asynchronous client can be throttled per host with a {@link HostRateLimiter},
+ * see {@link HttpClientPool#setRateLimiter(HostRateLimiter)}.
+ * </p>
+ */
+public class HttpClientPool {
+
+    private static Logger logger = LoggerFactory.getLogger(HttpClientPool.class);
+
+    private static final String REQUEST_START = HttpClientPool.class.getName() + ".requestStart";
+
+    private int maxTotal = 100;
+    private int maxPerRoute = 20;
+    private int connectTimeout = 30000;
+    private int socketTimeout = 60000;
+    private int connectionRequestTimeout = 60000;
+    private long keepAlive = 30000;
+    private long maxIdleTime = 60000;
+    private int validateAfterInactivity = 2000;
+    private int ioThreadCount = Runtime.getRuntime().availableProcessors();
+    private HostRateLimiter rateLimiter;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private CloseableHttpAsyncClient httpAsyncClient;
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * Set the maximum number of connections in the pool. Default is 100.
+     *
+     * @param maxTotal maximum number of connections
+     */
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    /**
+     * Set the maximum number of connections per route (host). Default is 20.
+     *
+     * @param maxPerRoute maximum number of connections per route
+     */
+    public void setMaxPerRoute(int maxPerRoute) {
+        this.maxPerRoute = maxPerRoute;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Set the timeout in milliseconds until a connection is established. Default is 30000.
+     *
+     * @param connectTimeout connect timeout in milliseconds
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * Set the maximum period of inactivity in milliseconds between two consecutive data packets. Default is 60000.
+     *
+     * @param socketTimeout socket timeout in milliseconds
+     */
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    public int getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    /**
+     * Set the timeout in milliseconds for obtaining a connection from the pool. Default is 60000.
+     *
+     * @param connectionRequestTimeout connection request timeout in milliseconds
+     */
+    public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    public long getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Set the time in milliseconds a connection is kept alive if the server does not send a Keep-Alive header.
+     * Default is 30000.
+     *
+     * @param keepAlive keep alive in milliseconds
+     */
+    public void setKeepAlive(long keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Set the time in milliseconds after which idle connections are evicted from the pool. Default is 60000.
+     *
+     * @param maxIdleTime maximum idle time in milliseconds
+     */
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    public int getValidateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    /**
+     * Set the period of inactivity in milliseconds after which a connection is checked for staleness before it is
+     * leased. Default is 2000.
+     *
+     * @param validateAfterInactivity period of inactivity in milliseconds
+     */
+    public void setValidateAfterInactivity(int validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+
+    public int getIoThreadCount() {
+        return ioThreadCount;
+    }
+
+    /**
+     * Set the number of I/O threads of the asynchronous http client. Default is the number of available processors.
+     *
+     * @param ioThreadCount number of I/O threads
+     */
+    public void setIoThreadCount(int ioThreadCount) {
+        this.ioThreadCount = ioThreadCount;
+    }
+
+    public HostRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Set the limiter of the rate of requests per host. All requests of the blocking and the asynchronous http
+     * client, and so of all readers and explorers that use them, wait for the limiter and report their response
+     * to it. Requests of the asynchronous client wait on the calling thread, not on an I/O thread. Default is
+     * <code>null</code>: requests are not limited.
+     *
+     * @param rateLimiter limiter of the rate of requests per host, may be <code>null</code>
+     */
+    public void setRateLimiter(HostRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(maxTotal);
+            connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+            connectionManager.setValidateAfterInactivity(validateAfterInactivity);
+
+            RequestConfig requestConfig = RequestConfig.custom()
+              .setConnectTimeout(connectTimeout)
+              .setSocketTimeout(socketTimeout)
+              .setConnectionRequestTimeout(connectionRequestTimeout)
+              .build();
+
+            HttpClientBuilder builder = HttpClients.custom()
+              .setConnectionManager(connectionManager)
+              .setDefaultRequestConfig(requestConfig)
+              .setKeepAliveStrategy(createKeepAliveStrategy())
+              .evictExpiredConnections()
+              .evictIdleConnections(maxIdleTime, TimeUnit.MILLISECONDS);
+            if (rateLimiter != null) {
+                limitRate(builder, rateLimiter);
+            }
+            httpClient = builder.build();
+            logger.info("Created http client pool: maxTotal={}, maxPerRoute={}, connectTimeout={}, " +
+                "socketTimeout={}, connectionRequestTimeout={}, keepAlive={}, maxIdleTime={}, " +
+                "validateAfterInactivity={}, rateLimited={}", maxTotal, maxPerRoute, connectTimeout,
+              socketTimeout, connectionRequestTimeout, keepAlive, maxIdleTime, validateAfterInactivity,
+              rateLimiter != null);
+        }
+        return httpClient;
+    }
+
+    /**
+     * Get a started asynchronous http client. It has its own pool of connections, configured with the same
+     * properties as the pool of the blocking client, and {@link #getIoThreadCount()} I/O threads. It shares the
+     * rate limiter with the blocking client.
+     *
+     * @return started asynchronous http client
+     */
+    public synchronized CloseableHttpAsyncClient getHttpAsyncClient() {
+        if (httpAsyncClient == null) {
+            RequestConfig requestConfig = RequestConfig.custom()
+              .setConnectTimeout(connectTimeout)
+              .setSocketTimeout(socketTimeout)
+              .setConnectionRequestTimeout(connectionRequestTimeout)
+              .build();
+            IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+              .setIoThreadCount(ioThreadCount)
+              .setConnectTimeout(connectTimeout)
+              .setSoTimeout(socketTimeout)
+              .build();
+            HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+              .setMaxConnTotal(maxTotal)
+              .setMaxConnPerRoute(maxPerRoute)
+              .setDefaultRequestConfig(requestConfig)
+              .setDefaultIOReactorConfig(ioReactorConfig)
+              .setKeepAliveStrategy(createKeepAliveStrategy());
+            if (rateLimiter != null) {
+                limitRate(builder, rateLimiter);
+                httpAsyncClient = new RateLimitedAsyncClient(builder.build(), rateLimiter);
+            } else {
+                httpAsyncClient = builder.build();
+            }
+            httpAsyncClient.start();
+            logger.info("Created asynchronous http client: maxTotal={}, maxPerRoute={}, ioThreadCount={}, "
+              + "rateLimited={}", maxTotal, maxPerRoute, ioThreadCount, rateLimiter != null);
+        }
+        return httpAsyncClient;
+    }
+
+    /**
+     * Get the statistics of the pool as a whole.
+     *
+     * @return total statistics, or statistics of an empty pool if the pool was not yet created
+     */
+    public synchronized PoolStats getTotalStats() {
+        if (connectionManager == null) {
+            return new PoolStats(0, 0, 0, maxTotal);
+        }
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Get the statistics of the pool per route.
+     *
+     * @return statistics per route, keyed on the target host of the route
+     */
+    public synchronized Map<String, PoolStats> getRouteStats() {
+        Map<String, PoolStats> routeStats = new TreeMap<>();
+        if (connectionManager != null) {
+            for (HttpRoute route : connectionManager.getRoutes()) {
+                routeStats.put(route.getTargetHost().toURI(), connectionManager.getStats(route));
+            }
+        }
+        return routeStats;
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            if (httpClient != null) {
+                httpClient.close();
+                httpClient = null;
+                connectionManager = null;
+            }
+        } finally {
+            if (httpAsyncClient != null) {
+                httpAsyncClient.close();
+                httpAsyncClient = null;
+            }
+        }
+    }
+
+    /**
+     * Requests wait for the limiter before a connection is leased. The response time reported to the limiter is
+     * measured on the connection, so it does not include waiting for the limiter or the pool.
+     */
+    private static void limitRate(HttpClientBuilder builder, HostRateLimiter limiter) {
+        builder.addInterceptorFirst((HttpRequestInterceptor) (request, context) -> {
+            try {
+                limiter.acquire(hostOf(context));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for rate limiter");
+            }
+        });
+        builder.setRequestExecutor(new HttpRequestExecutor() {
+            @Override
+            public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context)
+              throws IOException, HttpException {
+                long start = System.nanoTime();
+                HttpResponse response;
+                try {
+                    response = super.execute(request, conn, context);
+                } catch (IOException | HttpException | RuntimeException e) {
+                    limiter.onFailure(hostOf(context));
+                    throw e;
+                }
+                Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+                limiter.onResponse(hostOf(context), response.getStatusLine().getStatusCode(),
+                  retryAfter == null ? null : retryAfter.getValue(), System.nanoTime() - start);
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Responses of the asynchronous client are reported to the limiter when their head is received. The response
+     * time is measured from the moment the request is written to the connection. Waiting for the limiter is done
+     * by {@link RateLimitedAsyncClient}, because request interceptors run on the I/O threads.
+     */
+    private static void limitRate(HttpAsyncClientBuilder builder, HostRateLimiter limiter) {
+        builder.addInterceptorFirst((HttpRequestInterceptor) (request, context) ->
+          context.setAttribute(REQUEST_START, System.nanoTime()));
+        builder.addInterceptorLast((HttpResponseInterceptor) (response, context) -> {
+            Object start = context.getAttribute(REQUEST_START);
+            long latency = start instanceof Long ? System.nanoTime() - (Long) start : 0L;
+            Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+            limiter.onResponse(hostOf(context), response.getStatusLine().getStatusCode(),
+              retryAfter == null ? null : retryAfter.getValue(), latency);
+        });
+    }
+
+    private static String hostOf(HttpContext context) {
+        return hostOf(HttpClientContext.adapt(context).getTargetHost());
+    }
+
+    private static String hostOf(HttpHost target) {
+        return target == null ? "" : target.getHostName().toLowerCase(Locale.ROOT) + ":" + target.getPort();
+    }
+
+    private ConnectionKeepAliveStrategy createKeepAliveStrategy() {
+        return new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = super.getKeepAliveDuration(response, context);
+                return duration > 0 ? duration : keepAlive;
+            }
+        };
+    }
+
+    /**
+     * Asynchronous client that waits for the rate limiter on the calling thread before a request is handed to the
+     * client, so that the I/O threads never wait. Failed requests are reported to the limiter.
+     */
+    private static class RateLimitedAsyncClient extends CloseableHttpAsyncClient {
+
+        private final CloseableHttpAsyncClient client;
+        private final HostRateLimiter limiter;
+
+        RateLimitedAsyncClient(CloseableHttpAsyncClient client, HostRateLimiter limiter) {
+            this.client = client;
+            this.limiter = limiter;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return client.isRunning();
+        }
+
+        @Override
+        public void start() {
+            client.start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            client.close();
+        }
+
+        @Override
+        public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer,
+                                     HttpAsyncResponseConsumer<T> responseConsumer, HttpContext context,
+                                     FutureCallback<T> callback) {
+            String host = hostOf(requestProducer.getTarget());
+            try {
+                limiter.acquire(host);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                BasicFuture<T> future = new BasicFuture<>(callback);
+                future.failed(new InterruptedIOException("Interrupted while waiting for rate limiter"));
+                return future;
+            }
+            return client.execute(requestProducer, responseConsumer, context, new FutureCallback<T>() {
+                @Override
+                public void completed(T result) {
+                    if (callback != null) {
+                        callback.completed(result);
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    limiter.onFailure(host);
+                    if (callback != null) {
+                        callback.failed(e);
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    if (callback != null) {
+                        callback.cancelled();
+                    }
+                }
+            });
+        }
+    }
+}
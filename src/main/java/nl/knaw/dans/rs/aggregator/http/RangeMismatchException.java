@@ -0,0 +1,23 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Thrown by a response function if a response with partial content does not fit the content it should complete.
+ * The {@link AbstractUriReader} then repeats the request once, right away. The request preparer should leave out
+ * the <code>Range</code> header of the repeated request, so that the whole content is requested.
+ */
+public class RangeMismatchException extends IOException {
+
+    private final URI uri;
+
+    public RangeMismatchException(String message, URI uri) {
+        super(message + ": " + uri.toString());
+        this.uri = uri;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+}
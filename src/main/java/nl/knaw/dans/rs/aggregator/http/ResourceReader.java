@@ -1,61 +1,353 @@
 package nl.knaw.dans.rs.aggregator.http;
 
+import nl.knaw.dans.rs.aggregator.util.AtomicFileUtil;
+import nl.knaw.dans.rs.aggregator.util.HashUtil;
 import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
+import nl.knaw.dans.rs.aggregator.util.TransferUtil;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.utils.DateUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 /**
  * Created on 2017-04-11 16:15.
  */
 public class ResourceReader extends AbstractUriReader {
 
-    private File currentFile;
-    private LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, File, Exception> fileWriter = (uri, response) -> {
-        HttpEntity entity = response.getEntity();
-        if (entity != null) {
-            File file = getCurrentFile();
-            file.getParentFile().mkdirs();
-            byte[] buffer = new byte[8 * 1024];
-            int bytesRead;
-            try (InputStream instream = entity.getContent(); OutputStream outstream = new FileOutputStream(file)) {
-                while ((bytesRead = instream.read(buffer)) != -1) {
-                    outstream.write(buffer, 0, bytesRead);
+    public static final String PART_EXTENSION = ".rsa-part";
+    public static final String VALIDATOR_EXTENSION = PART_EXTENSION + ".validator";
+
+    private volatile File currentFile;
+    private boolean fsync;
+
+    public ResourceReader(CloseableHttpClient httpClient) {
+        super(httpClient);
+    }
+
+    public boolean isFsync() {
+        return fsync;
+    }
+
+    /**
+     * Set whether downloaded files are forced to disk before they are moved into place. Default is
+     * <code>false</code>.
+     *
+     * @param fsync <code>true</code> to force downloaded files to disk
+     */
+    public void setFsync(boolean fsync) {
+        this.fsync = fsync;
+    }
+
+    public Result<File> read(String url, File file) throws URISyntaxException {
+        URI uri = new URI(url);
+        return read(uri, file);
+    }
+
+    /**
+     * Read the resource at the given <code>uri</code> and write it to <code>file</code>. This method can be
+     * called concurrently on the same ResourceReader.
+     *
+     * @param uri location of the resource
+     * @param file the file to write to
+     * @return Result with the written file
+     */
+    public Result<File> read(URI uri, File file) {
+        return read(uri, file, Collections.emptySet());
+    }
+
+    /**
+     * Read the resource at the given <code>uri</code> and write it to <code>file</code>, while computing
+     * digests of the content with the given algorithms. The number of bytes written and the digests are
+     * recorded in the Result, see {@link Result#getContentLength()} and {@link Result#getDigests()}.
+     * This method can be called concurrently on the same ResourceReader.
+     *
+     * @param uri location of the resource
+     * @param file the file to write to
+     * @param algorithms algorithms to compute digests with, for instance <code>md5</code>, <code>sha-256</code>
+     * @return Result with the written file
+     */
+    public Result<File> read(URI uri, File file, Collection<String> algorithms) {
+        return read(uri, file, algorithms, result -> true);
+    }
+
+    /**
+     * Read the resource at the given <code>uri</code> and write it to <code>file</code>, while computing
+     * digests of the content with the given algorithms. The content is written to a partial file, see
+     * {@link #getPartFile(File)}, that is moved into place only if the <code>verifier</code> accepts the Result
+     * of the download. If the verifier rejects the download, the partial file is deleted, <code>file</code> is left
+     * as it was and an error is added to the Result.
+     * <p>
+     * If a download breaks off and the response carried a validator (a strong <code>ETag</code> or a
+     * <code>Last-Modified</code> date), the partial file is kept, with the validator in a file next to it, see
+     * {@link #getValidatorFile(File)}. The next attempt, by the {@link RetryPolicy} or by a later call of this
+     * method, also on another ResourceReader or after a restart, asks for the remaining bytes with a
+     * <code>Range</code> and <code>If-Range</code> request. A server that does not support ranges or has a changed
+     * resource answers with the whole body, which is then written from the start.
+     * </p>
+     * This method can be called concurrently on the same ResourceReader, for different files.
+     *
+     * @param uri location of the resource
+     * @param file the file to write to
+     * @param algorithms algorithms to compute digests with, for instance <code>md5</code>, <code>sha-256</code>
+     * @param verifier decides whether a complete download is moved into place
+     * @return Result with the written file
+     */
+    public Result<File> read(URI uri, File file, Collection<String> algorithms, Predicate<Result<File>> verifier) {
+        currentFile = file;
+        File partFile = getPartFile(file);
+        Map<String, MessageDigest> digests = new LinkedHashMap<>();
+        for (String algorithm : algorithms) {
+            try {
+                digests.put(algorithm.toLowerCase(), MessageDigest.getInstance(algorithm));
+            } catch (NoSuchAlgorithmException e) {
+                logger.warn("Unknown hash algorithm: '{}': {}", algorithm, uri);
+            }
+        }
+        long[] offset = {0L};
+        long[] byteCount = {-1L};
+        Result<File> result = execute(uri, rangeRequest(partFile, offset),
+          fileWriter(partFile, digests.values(), offset, byteCount));
+        if (result.getStatusCode() == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && offset[0] > 0) {
+            logger.info("Range not satisfiable, downloading {} from the start", uri);
+            discardPart(partFile);
+            result = execute(uri, rangeRequest(partFile, offset),
+              fileWriter(partFile, digests.values(), offset, byteCount));
+        }
+        if (result.getContent().isPresent()) {
+            result.setContentLength(byteCount[0]);
+            for (Map.Entry<String, MessageDigest> entry : digests.entrySet()) {
+                result.getDigests().put(entry.getKey(), HashUtil.toHex(entry.getValue().digest()));
+            }
+            if (verifier.test(result)) {
+                try {
+                    AtomicFileUtil.moveIntoPlace(partFile, file, fsync);
+                    result.accept(file);
+                } catch (IOException e) {
+                    logger.error("Could not move {} to {}", partFile, file, e);
+                    result.addError(e);
+                    result.accept(null);
                 }
+            } else {
+                discardPart(partFile);
+                result.addError(new IOException("Download did not pass verification: " + uri));
+                result.accept(null);
+            }
+        } else if (!getValidatorFile(partFile).exists()) {
+            // nothing to resume
+            partFile.delete();
+        }
+        return result;
+    }
+
+    /**
+     * Get the partial file that a download to <code>file</code> is written to before it is moved into place.
+     *
+     * @param file the file to write to
+     * @return the partial file, next to <code>file</code>
+     */
+    public static File getPartFile(File file) {
+        return new File(file.getParentFile(), file.getName() + PART_EXTENSION);
+    }
+
+    /**
+     * Get the file that keeps the validator of a partial file, as long as the partial file can be resumed.
+     *
+     * @param partFile a partial file
+     * @return the validator file, next to <code>partFile</code>
+     */
+    public static File getValidatorFile(File partFile) {
+        return new File(partFile.getParentFile(), partFile.getName() + ".validator");
+    }
+
+    /**
+     * Can the given partial file or validator file be used to resume a download. A partial file can be resumed
+     * if it has a validator file; a validator file is of use as long as its partial file exists.
+     *
+     * @param file a partial file or a validator file
+     * @return <code>true</code> if the file is part of a download that can be resumed
+     */
+    public static boolean isResumable(File file) {
+        String name = file.getName();
+        if (name.endsWith(VALIDATOR_EXTENSION)) {
+            return new File(file.getParentFile(),
+              name.substring(0, name.length() - ".validator".length())).exists();
+        }
+        return name.endsWith(PART_EXTENSION) && getValidatorFile(file).exists();
+    }
+
+    private BiConsumer<URI, HttpRequest> rangeRequest(File partFile, long[] offset) {
+        return (uri, request) -> {
+            offset[0] = 0L;
+            String validator = readValidator(partFile);
+            long length = partFile.length();
+            if (validator != null && length > 0) {
+                offset[0] = length;
+                request.setHeader(HttpHeaders.RANGE, "bytes=" + length + "-");
+                request.setHeader(HttpHeaders.IF_RANGE, validator);
+                logger.debug("Resuming download of {} at byte {}", uri, length);
+            }
+        };
+    }
+
+    private LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, File, Exception> fileWriter(
+      File file, Collection<MessageDigest> digests, long[] offset, long[] byteCount) {
+        return (uri, response) -> {
+            HttpEntity entity = response.getEntity();
+            // a retry starts with fresh digests
+            for (MessageDigest digest : digests) {
+                digest.reset();
+            }
+            if (entity != null) {
+                long start = 0L;
+                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT) {
+                    start = getRangeStart(response);
+                    if (start != offset[0]) {
+                        discardPart(file);
+                        throw new IOException("Unexpected Content-Range, requested from byte " + offset[0]
+                          + ", received from byte " + start + ": " + uri);
+                    }
+                    updateDigests(file, start, digests);
+                }
+                file.getParentFile().mkdirs();
+                rememberValidator(file, response);
+                long total;
+                try (InputStream instream = entity.getContent();
+                     FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                       StandardOpenOption.WRITE)) {
+                    channel.truncate(start);
+                    try {
+                        total = start + TransferUtil.copy(instream, channel, start, digests);
+                    } finally {
+                        // a broken transfer keeps what was copied, to be resumed
+                        channel.truncate(channel.position());
+                    }
+                }
+                byteCount[0] = total;
+                forgetValidator(file);
                 Header lmh = response.getFirstHeader("Last-Modified");
                 if (lmh != null) {
                     Date date = DateUtils.parseDate(lmh.getValue());
                     file.setLastModified(date.getTime());
                 }
+                return file;
+            } else {
+                return null;
             }
-            return file;
+        };
+    }
+
+    private void rememberValidator(File partFile, HttpResponse response) {
+        Header acceptRanges = response.getFirstHeader(HttpHeaders.ACCEPT_RANGES);
+        Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        if (acceptRanges != null && "none".equalsIgnoreCase(acceptRanges.getValue().trim())) {
+            forgetValidator(partFile);
+        } else if (etag != null && !etag.getValue().startsWith("W/")) {
+            // If-Range only works with strong validators
+            saveValidator(partFile, etag.getValue());
+        } else if (lastModified != null) {
+            saveValidator(partFile, lastModified.getValue());
         } else {
+            forgetValidator(partFile);
+        }
+    }
+
+    private String readValidator(File partFile) {
+        File validatorFile = getValidatorFile(partFile);
+        if (!validatorFile.exists()) {
+            return null;
+        }
+        try {
+            String validator = new String(Files.readAllBytes(validatorFile.toPath()), StandardCharsets.UTF_8).trim();
+            return validator.isEmpty() ? null : validator;
+        } catch (IOException e) {
+            logger.warn("Could not read validator {}", validatorFile, e);
             return null;
         }
-    };
+    }
 
-    public ResourceReader(CloseableHttpClient httpClient) {
-        super(httpClient);
+    private void saveValidator(File partFile, String validator) {
+        File validatorFile = getValidatorFile(partFile);
+        try {
+            Files.write(validatorFile.toPath(), validator.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warn("Could not save validator {}, download cannot be resumed", validatorFile, e);
+            validatorFile.delete();
+        }
     }
 
-    public Result<File> read(String url, File file) throws URISyntaxException {
-        URI uri = new URI(url);
-        return read(uri, file);
+    private static void forgetValidator(File partFile) {
+        getValidatorFile(partFile).delete();
     }
 
-    public Result<File> read(URI uri, File file) {
-        currentFile = file;
-        return execute(uri, fileWriter);
+    private void discardPart(File partFile) {
+        forgetValidator(partFile);
+        partFile.delete();
+    }
+
+    /**
+     * Get the position of the first byte in the body of a response with status 206 (Partial Content).
+     *
+     * @param response a partial response
+     * @return the start of the range in the <code>Content-Range</code> header
+     * @throws IOException if the response has no valid <code>Content-Range</code> header
+     */
+    public static long getRangeStart(HttpResponse response) throws IOException {
+        // Content-Range: bytes 21010-47021/47022
+        Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+        if (contentRange != null) {
+            String value = contentRange.getValue().trim();
+            int dash = value.indexOf('-');
+            if (value.startsWith("bytes ") && dash > 6) {
+                try {
+                    return Long.parseLong(value.substring(6, dash).trim());
+                } catch (NumberFormatException e) {
+                    // fall through
+                }
+            }
+        }
+        throw new IOException("Missing or invalid Content-Range in partial response: " + contentRange);
+    }
+
+    private static void updateDigests(File file, long length, Collection<MessageDigest> digests) throws IOException {
+        if (digests.isEmpty()) {
+            return;
+        }
+        byte[] buffer = new byte[8 * 1024];
+        long left = length;
+        try (InputStream instream = new FileInputStream(file)) {
+            int bytesRead;
+            while (left > 0 && (bytesRead = instream.read(buffer, 0, (int) Math.min(buffer.length, left))) != -1) {
+                for (MessageDigest digest : digests) {
+                    digest.update(buffer, 0, bytesRead);
+                }
+                left -= bytesRead;
+            }
+        }
     }
 
     public File getCurrentFile() {
@@ -5,18 +5,22 @@ import nl.knaw.dans.rs.aggregator.util.NormURI;
 
 import javax.annotation.Nullable;
 import java.net.URI;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+/**
+ * The result of a request to a URI. Errors, invalid URIs and the relations to parent and child results can be added
+ * from several threads.
+ */
 public class Result<T> implements Consumer<T>, Comparable<Result> {
 
     private URI uri;
@@ -24,11 +28,14 @@ public class Result<T> implements Consumer<T>, Comparable<Result> {
     private String statusLine;
     private int statusCode;
     private T content;
-    private List<Throwable> errors = new ArrayList<>();
+    private List<Throwable> errors = new CopyOnWriteArrayList<>();
     private Map<String, String> headers = new HashMap<>();
-    private Map<URI, Result<?>> parents = new HashMap<>();
-    private Map<URI, Result<?>> children = new HashMap<>();
-    private Set<String> invalidUris = new TreeSet<>();
+    private long contentLength = -1L;
+    private int retryCount;
+    private Map<String, String> digests = new HashMap<>();
+    private Map<URI, Result<?>> parents = Collections.synchronizedMap(new HashMap<>());
+    private Map<URI, Result<?>> children = Collections.synchronizedMap(new HashMap<>());
+    private Set<String> invalidUris = new ConcurrentSkipListSet<>();
 
     public Result(URI uri) {
         if (uri != null) {
@@ -68,6 +75,42 @@ public class Result<T> implements Consumer<T>, Comparable<Result> {
         return headers;
     }
 
+    /**
+     * Get the number of bytes of the response body that were read, if the reader counted them.
+     *
+     * @return number of bytes read, or -1 if not known
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public void setContentLength(long contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Get the digests that were computed while the response body was read, keyed on algorithm. The values are
+     * hexadecimal strings in lower case.
+     *
+     * @return digests of the response body, may be empty
+     */
+    public Map<String, String> getDigests() {
+        return digests;
+    }
+
+    /**
+     * Get the number of times the request was tried again before this Result was obtained.
+     *
+     * @return number of retries
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public void setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+    }
+
     public Optional<T> getContent() {
         return Optional.ofNullable(content);
     }
@@ -117,6 +160,9 @@ public class Result<T> implements Consumer<T>, Comparable<Result> {
         Result<R> copy = new Result<R>(uri);
 
         copy.statusCode = statusCode;
+        copy.contentLength = contentLength;
+        copy.retryCount = retryCount;
+        copy.digests.putAll(digests);
         copy.ordinal = ordinal;
         copy.errors.addAll(errors);
         copy.invalidUris.addAll(invalidUris);
@@ -131,15 +177,13 @@ public class Result<T> implements Consumer<T>, Comparable<Result> {
     }
 
     public void addParent(Result<?> parent) {
-        if (!parents.containsKey(parent.getUri())) {
-            parents.put(parent.getUri(), parent);
+        if (parents.putIfAbsent(parent.getUri(), parent) == null) {
             parent.addChild(this);
         }
     }
 
     public void addChild(Result<?> child) {
-        if (!children.containsKey(child.getUri())) {
-            children.put(child.getUri(), child);
+        if (children.putIfAbsent(child.getUri(), child) == null) {
             child.addParent(this);
         }
     }
@@ -0,0 +1,229 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether a failed request is tried again, and when.
+ * <p>
+ * A request is tried again if its response has one of the {@link #getRetryableStatusCodes()} or if it failed
+ * with one of the {@link #getRetryableExceptions()}, as long as the number of attempts for the request stays
+ * within {@link #getMaxAttempts()} and the retry budget of the run is not spent. The delay before the next attempt
+ * grows exponentially from {@link #getBaseDelay()} up to {@link #getMaxDelay()}, with full jitter: the actual
+ * delay is a random value between 0 and the exponential delay.
+ * </p>
+ * <p>
+ * The retry budget and the number of retries per URI are kept per run. Call {@link #newRun()} to get a policy
+ * with the same settings for a new run. Instances of this class are thread-safe. Time values are in milliseconds.
+ * </p>
+ */
+public class RetryPolicy {
+
+    private static Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+    private int maxAttempts = 3;
+    private long baseDelay = 500;
+    private long maxDelay = 30000;
+    private int retryBudget = 100;
+    private Set<Integer> retryableStatusCodes = new LinkedHashSet<>(Arrays.asList(502, 503, 504));
+    private List<Class<? extends Exception>> retryableExceptions = Arrays.asList(
+      SocketTimeoutException.class,
+      ConnectTimeoutException.class,
+      SocketException.class,
+      NoHttpResponseException.class,
+      ConnectionClosedException.class);
+
+    private final AtomicInteger retriesLeft = new AtomicInteger(retryBudget);
+    private final Map<URI, Integer> retries = new ConcurrentHashMap<>();
+
+    /**
+     * Get a policy with the same settings as this one, with a full retry budget and no retries recorded.
+     *
+     * @return a new policy for a new run
+     */
+    public RetryPolicy newRun() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(maxAttempts);
+        policy.setBaseDelay(baseDelay);
+        policy.setMaxDelay(maxDelay);
+        policy.setRetryBudget(retryBudget);
+        policy.setRetryableStatusCodes(retryableStatusCodes);
+        policy.setRetryableExceptions(retryableExceptions);
+        return policy;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Set the maximum number of attempts for one request, the first attempt included. Default is 3.
+     *
+     * @param maxAttempts maximum number of attempts, 1 for no retries
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts cannot be less then 1.");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * Set the delay before the first retry, before jitter. The delay doubles with each next retry. Default is 500.
+     *
+     * @param baseDelay delay in milliseconds
+     */
+    public void setBaseDelay(long baseDelay) {
+        this.baseDelay = baseDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Set the maximum delay before a retry, before jitter. Default is 30000.
+     *
+     * @param maxDelay delay in milliseconds
+     */
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    public int getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Set the maximum number of retries in one run, for all requests together. Default is 100.
+     *
+     * @param retryBudget maximum number of retries per run
+     */
+    public void setRetryBudget(int retryBudget) {
+        this.retryBudget = retryBudget;
+        retriesLeft.set(retryBudget);
+    }
+
+    public Set<Integer> getRetryableStatusCodes() {
+        return retryableStatusCodes;
+    }
+
+    /**
+     * Set the status codes of responses that are tried again. Default is 502, 503 and 504.
+     *
+     * @param retryableStatusCodes status codes
+     */
+    public void setRetryableStatusCodes(Set<Integer> retryableStatusCodes) {
+        this.retryableStatusCodes = new LinkedHashSet<>(retryableStatusCodes);
+    }
+
+    public List<Class<? extends Exception>> getRetryableExceptions() {
+        return retryableExceptions;
+    }
+
+    /**
+     * Set the exceptions of failed requests that are tried again. Subclasses of these exceptions are tried again
+     * too. Default are {@link SocketTimeoutException}, {@link ConnectTimeoutException}, {@link SocketException}
+     * (which includes connection reset), {@link NoHttpResponseException} and {@link ConnectionClosedException}.
+     *
+     * @param retryableExceptions exception classes
+     */
+    public void setRetryableExceptions(List<Class<? extends Exception>> retryableExceptions) {
+        this.retryableExceptions = Collections.unmodifiableList(retryableExceptions);
+    }
+
+    /**
+     * Get the number of retries left in the budget of this run.
+     *
+     * @return number of retries left
+     */
+    public int getRetriesLeft() {
+        return Math.max(0, retriesLeft.get());
+    }
+
+    /**
+     * Get the number of retries per URI in this run, for URIs that were tried again.
+     *
+     * @return retries per URI, sorted on URI
+     */
+    public Map<URI, Integer> getRetries() {
+        return new TreeMap<>(retries);
+    }
+
+    /**
+     * Get the total number of retries in this run.
+     *
+     * @return total number of retries
+     */
+    public int getTotalRetries() {
+        return retries.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * Decide whether the request that led to the given result is tried again. If so, a retry is taken from the
+     * budget and recorded for the uri.
+     *
+     * @param uri     the requested uri
+     * @param result  result of the last attempt
+     * @param attempt number of the last attempt, starting at 1
+     * @return delay in milliseconds before the next attempt, or -1 if the request is not tried again
+     */
+    public long retryDelay(URI uri, Result<?> result, int attempt) {
+        if (attempt >= maxAttempts || !isRetryable(result)) {
+            return -1;
+        }
+        if (retriesLeft.getAndDecrement() <= 0) {
+            logger.warn("Retry budget of {} spent, not retrying {}", retryBudget, uri);
+            return -1;
+        }
+        retries.merge(uri, 1, Integer::sum);
+        long exponential = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        return exponential <= 0 ? 0 : ThreadLocalRandom.current().nextLong(exponential + 1);
+    }
+
+    /**
+     * Is the given result of a failed request that can be tried again.
+     *
+     * @param result result of a request
+     * @return <code>true</code> if the request can be tried again, <code>false</code> otherwise
+     */
+    public boolean isRetryable(Result<?> result) {
+        if (!result.hasErrors()) {
+            return false;
+        }
+        if (retryableStatusCodes.contains(result.getStatusCode())) {
+            return true;
+        }
+        for (Throwable error : result.getErrors()) {
+            for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+                for (Class<? extends Exception> retryable : retryableExceptions) {
+                    if (retryable.isInstance(cause)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,340 @@
+package nl.knaw.dans.rs.aggregator.schedule;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link JobScheduler} that polls each source of a {@link PollingJob} on an interval of its own, with second
+ * precision.
+ * <p>
+ * All sources are polled once when the scheduler starts. After each poll the interval of the source follows the
+ * rate of change of the source: the number of changes the poll found, divided by the time since the start of the
+ * previous poll. The next interval is the time in which the source makes {@link #getTargetChanges()} changes at
+ * that rate. Per poll the interval changes by at most {@link #getSpeedUpFactor()} and
+ * {@link #getSlowDownFactor()}, so that a single burst or lull does not throw it far off. A poll without changes,
+ * or a failed poll, multiplies the interval by the slow down factor. Intervals stay between
+ * {@link #getMinInterval()} and {@link #getMaxInterval()} seconds. Busy sources are thus polled often, quiet
+ * sources seldom. The interval runs from the start of a poll to the start of the next poll of the same source.
+ * The next poll of a source is planned when the previous poll of that source has ended, so a source is never
+ * polled twice at the same time: a poll that takes longer than the interval is followed by the next poll right
+ * away. Up to {@link #getPoolSize()} sources are polled at the same time.
+ * </p>
+ * <p>
+ * Example: Poll each source every 5 seconds to every 30 minutes.
+ * </p>
+ * <pre>
+ *     AdaptivePollingScheduler scheduler = new AdaptivePollingScheduler();
+ *     scheduler.setMinInterval(5);
+ *     scheduler.setMaxInterval(30 * 60);
+ *     scheduler.schedule(myPollingJob);
+ *   </pre>
+ * <p>
+ * After maxErrorCount successive failed polls of one source the application stops. The scheduler can be stopped
+ * gracefully by creating a file 'cfg/stop', relative to the working directory. Upon detection, currently
+ * executing polls will be left to finish first, after which the scheduler will stop.
+ * </p>
+ */
+public class AdaptivePollingScheduler implements JobScheduler {
+
+    private static Logger logger = LoggerFactory.getLogger(AdaptivePollingScheduler.class);
+
+    private int maxErrorCount = 3;
+    private int minInterval = 10;
+    private int maxInterval = 3600;
+    private int initialInterval = 60;
+    private int targetChanges = 10;
+    private double speedUpFactor = 0.5;
+    private double slowDownFactor = 2.0;
+    private int poolSize = 2;
+
+    private volatile boolean stop;
+    private final AtomicInteger runCounter = new AtomicInteger();
+    private final Map<URI, Source> sources = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private ScheduledExecutorService watch;
+    // source of time in nanoseconds, for measuring the duration of polls
+    LongSupplier ticker = System::nanoTime;
+
+    public int getMaxErrorCount() {
+        return maxErrorCount;
+    }
+
+    public void setMaxErrorCount(int maxErrorCount) {
+        this.maxErrorCount = maxErrorCount;
+    }
+
+    public int getMinInterval() {
+        return minInterval;
+    }
+
+    /**
+     * Set the minimum time between the start of a poll and the start of the next poll of the same source.
+     * Default is 10 seconds.
+     *
+     * @param minInterval time in seconds
+     */
+    public void setMinInterval(int minInterval) {
+        if (minInterval < 1) {
+            throw new IllegalArgumentException("Minimum interval cannot be less then 1 second.");
+        }
+        this.minInterval = minInterval;
+    }
+
+    public int getMaxInterval() {
+        return maxInterval;
+    }
+
+    /**
+     * Set the maximum time between the start of a poll and the start of the next poll of the same source.
+     * Default is 3600 seconds.
+     *
+     * @param maxInterval time in seconds
+     */
+    public void setMaxInterval(int maxInterval) {
+        if (maxInterval < 1) {
+            throw new IllegalArgumentException("Maximum interval cannot be less then 1 second.");
+        }
+        this.maxInterval = maxInterval;
+    }
+
+    public int getInitialInterval() {
+        return initialInterval;
+    }
+
+    /**
+     * Set the interval of each source before its first poll. Default is 60 seconds.
+     *
+     * @param initialInterval time in seconds
+     */
+    public void setInitialInterval(int initialInterval) {
+        this.initialInterval = initialInterval;
+    }
+
+    public int getTargetChanges() {
+        return targetChanges;
+    }
+
+    /**
+     * Set the number of changes a poll should find. The interval of a source is set to the time in which the
+     * source makes this number of changes. Default is 10.
+     *
+     * @param targetChanges number of changes per poll
+     */
+    public void setTargetChanges(int targetChanges) {
+        if (targetChanges < 1) {
+            throw new IllegalArgumentException("Target changes cannot be less then 1.");
+        }
+        this.targetChanges = targetChanges;
+    }
+
+    public double getSpeedUpFactor() {
+        return speedUpFactor;
+    }
+
+    /**
+     * Set the smallest factor the interval of a source is multiplied with after a poll. Default is 0.5.
+     *
+     * @param speedUpFactor factor between 0 and 1
+     */
+    public void setSpeedUpFactor(double speedUpFactor) {
+        if (speedUpFactor <= 0 || speedUpFactor > 1) {
+            throw new IllegalArgumentException("Speed up factor should be between 0 and 1.");
+        }
+        this.speedUpFactor = speedUpFactor;
+    }
+
+    public double getSlowDownFactor() {
+        return slowDownFactor;
+    }
+
+    /**
+     * Set the largest factor the interval of a source is multiplied with after a poll. The interval is multiplied
+     * by this factor after a poll that found no changes or failed. Default is 2.
+     *
+     * @param slowDownFactor factor of at least 1
+     */
+    public void setSlowDownFactor(double slowDownFactor) {
+        if (slowDownFactor < 1) {
+            throw new IllegalArgumentException("Slow down factor cannot be less then 1.");
+        }
+        this.slowDownFactor = slowDownFactor;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Set the maximum number of sources that are polled at the same time. Default is 2.
+     *
+     * @param poolSize maximum number of concurrent polls
+     */
+    public void setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size cannot be less then 1.");
+        }
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Get the current interval of the given source.
+     *
+     * @param source a source of the scheduled job
+     * @return the current interval, or <code>null</code> if the source is not scheduled
+     */
+    public Duration getInterval(URI source) {
+        Source state = sources.get(source);
+        return state == null ? null : Duration.ofMillis(state.interval);
+    }
+
+    @Override
+    public void schedule(Job job) throws Exception {
+        if (!(job instanceof PollingJob)) {
+            throw new IllegalArgumentException(getClass().getSimpleName() + " can only schedule a "
+              + PollingJob.class.getSimpleName() + ", not " + job.getClass().getName());
+        }
+        if (minInterval > maxInterval) {
+            throw new IllegalStateException("Minimum interval " + minInterval + " is greater than maximum interval "
+              + maxInterval);
+        }
+        PollingJob pollingJob = (PollingJob) job;
+        List<URI> uriList = pollingJob.getSources();
+        logger.info("Polling {} sources every {} to {} seconds, job={}", uriList.size(), minInterval, maxInterval,
+          job.getClass().getName());
+
+        long interval = clamp(TimeUnit.SECONDS.toMillis(initialInterval));
+        scheduler = newScheduler();
+        for (URI uri : uriList) {
+            Source source = new Source(uri, interval);
+            sources.put(uri, source);
+            scheduler.execute(() -> poll(pollingJob, source));
+        }
+
+        // Watch the file system for a file named 'stop'
+        watch = Executors.newScheduledThreadPool(1);
+        Runnable watcher = () -> {
+            if (new File("cfg/stop").exists()) {
+                logger.info("Stopping scheduler after poll #{}, because file named 'cfg/stop' was found.",
+                  runCounter.get());
+                shutdown();
+            }
+        };
+        watch.scheduleWithFixedDelay(watcher, 0, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop planning polls. Polls that are executing are left to finish.
+     */
+    public void shutdown() {
+        stop = true;
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        if (watch != null) {
+            watch.shutdown();
+        }
+    }
+
+    /**
+     * Compute the interval after a poll.
+     *
+     * @param interval the interval before the poll, in milliseconds
+     * @param elapsed  the time from the start of the previous poll to the start of this poll, in milliseconds
+     * @param changes  the number of changes the poll found
+     * @return the next interval, in milliseconds
+     */
+    long nextInterval(long interval, long elapsed, int changes) {
+        double next;
+        if (changes > 0) {
+            double target = (double) elapsed * targetChanges / changes;
+            next = Math.max(interval * speedUpFactor, Math.min(interval * slowDownFactor, target));
+        } else {
+            next = interval * slowDownFactor;
+        }
+        return clamp((long) next);
+    }
+
+    /**
+     * Compute the delay between the end of a poll and the start of the next poll.
+     *
+     * @param interval the interval after the poll, in milliseconds
+     * @param elapsed  the duration of the poll, in milliseconds
+     * @return the delay, in milliseconds
+     */
+    long nextDelay(long interval, long elapsed) {
+        return Math.max(0L, interval - elapsed);
+    }
+
+    ScheduledExecutorService newScheduler() {
+        return Executors.newScheduledThreadPool(poolSize);
+    }
+
+    private long clamp(long interval) {
+        return Math.max(TimeUnit.SECONDS.toMillis(minInterval), Math.min(TimeUnit.SECONDS.toMillis(maxInterval),
+          interval));
+    }
+
+    private void poll(PollingJob job, Source source) {
+        if (stop) {
+            return;
+        }
+        long started = ticker.getAsLong();
+        int run = runCounter.incrementAndGet();
+        logger.info(">>>>>>>>>> Starting poll #{} of {}", run, source.uri);
+        int changes = 0;
+        try {
+            changes = job.poll(source.uri);
+            source.errorCount = 0;
+        } catch (Exception e) {
+            source.errorCount++;
+            logger.error("Premature end of poll #{} of {}. error count={}", run, source.uri, source.errorCount, e);
+            if (source.errorCount >= maxErrorCount) {
+                logger.info("Stopping application because errorCount >= {} for {}", maxErrorCount, source.uri);
+                System.exit(-1);
+            }
+        }
+        // the first poll finds the changes since the last run, for which the interval is the best guess
+        long elapsed = source.started == null ? source.interval
+          : TimeUnit.NANOSECONDS.toMillis(started - source.started);
+        source.started = started;
+        source.interval = nextInterval(source.interval, elapsed, changes);
+        long delay = nextDelay(source.interval, TimeUnit.NANOSECONDS.toMillis(ticker.getAsLong() - started));
+        if (stop) {
+            logger.info("<<<<<<<<<< End of poll #{} of {}. Stopped because file named 'cfg/stop' was found.", run,
+              source.uri);
+            return;
+        }
+        logger.info("<<<<<<<<<< End of poll #{} of {}: {} changes, next poll in {} seconds", run, source.uri,
+          changes, TimeUnit.MILLISECONDS.toSeconds(delay));
+        try {
+            scheduler.schedule(() -> poll(job, source), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // scheduler was stopped while polling
+        }
+    }
+
+    private static class Source {
+        private final URI uri;
+        private volatile long interval;
+        private volatile int errorCount;
+        private volatile Long started;
+
+        Source(URI uri, long interval) {
+            this.uri = uri;
+            this.interval = interval;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package nl.knaw.dans.rs.aggregator.schedule;
+
+import java.net.URI;
+import java.util.List;
+
+/**
+ * A {@link Job} that can also poll its sources one at a time, so that a {@link JobScheduler} can give each source
+ * a schedule of its own. See {@link AdaptivePollingScheduler}.
+ */
+public interface PollingJob extends Job {
+
+    /**
+     * Get the sources of this job. Called once, before the first poll.
+     *
+     * @return the sources to poll
+     * @throws Exception if the sources cannot be found
+     */
+    List<URI> getSources() throws Exception;
+
+    /**
+     * Poll one source. Different sources may be polled at the same time.
+     *
+     * @param source the source to poll
+     * @return the number of changes found at the source
+     * @throws Exception if polling failed
+     */
+    int poll(URI source) throws Exception;
+
+}
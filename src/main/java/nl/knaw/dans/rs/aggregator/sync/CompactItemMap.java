@@ -0,0 +1,245 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.xml.RsLn;
+import nl.knaw.dans.rs.aggregator.xml.RsMd;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+
+import java.net.URI;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A Map of normalized URIs to {@link UrlItem}s that keeps its values in a compact encoding.
+ * <p>
+ * Keys are held as Strings, date-times as epoch seconds, nano of second and offset, and frequently repeated
+ * strings, like change, type and capability, are interned. A UrlItem is only created when a value is
+ * read from the map. Because of this, values read from the map are copies: changing them does not change the map.
+ * </p>
+ * <p>
+ * Date-times keep their instant, at nanosecond precision, and their offset. Time-zone ids are not kept;
+ * date-times come back with a {@link ZoneOffset}. This does not change the outcome of <code>UrlItem::latest</code>,
+ * which compares instants.
+ * </p>
+ * <p>
+ * Instances of this class are not thread-safe.
+ * </p>
+ */
+public class CompactItemMap extends AbstractMap<URI, UrlItem> {
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+    private static final long NO_LENGTH = -1L;
+
+    private final Map<String, CompactItem> items = new HashMap<>();
+    private Set<Entry<URI, UrlItem>> entrySet;
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof URI && items.containsKey(key.toString());
+    }
+
+    @Override
+    public UrlItem get(Object key) {
+        if (!(key instanceof URI)) {
+            return null;
+        }
+        CompactItem compactItem = items.get(key.toString());
+        return compactItem == null ? null : compactItem.toUrlItem(key.toString());
+    }
+
+    @Override
+    public UrlItem put(URI key, UrlItem value) {
+        String keyString = key.toString();
+        CompactItem previous = items.put(keyString, new CompactItem(keyString, value));
+        return previous == null ? null : previous.toUrlItem(keyString);
+    }
+
+    @Override
+    public UrlItem remove(Object key) {
+        if (!(key instanceof URI)) {
+            return null;
+        }
+        CompactItem previous = items.remove(key.toString());
+        return previous == null ? null : previous.toUrlItem(key.toString());
+    }
+
+    @Override
+    public void clear() {
+        items.clear();
+    }
+
+    @Override
+    public Set<Entry<URI, UrlItem>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<URI, UrlItem>>() {
+                @Override
+                public Iterator<Entry<URI, UrlItem>> iterator() {
+                    Iterator<Entry<String, CompactItem>> iterator = items.entrySet().iterator();
+                    return new Iterator<Entry<URI, UrlItem>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Entry<URI, UrlItem> next() {
+                            Entry<String, CompactItem> entry = iterator.next();
+                            return new SimpleImmutableEntry<>(URI.create(entry.getKey()),
+                              entry.getValue().toUrlItem(entry.getKey()));
+                        }
+
+                        @Override
+                        public void remove() {
+                            iterator.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return items.size();
+                }
+
+                @Override
+                public void clear() {
+                    items.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private static String intern(String s) {
+        return s == null ? null : s.intern();
+    }
+
+    private static long toSeconds(ZonedDateTime zdt) {
+        return zdt == null ? NO_TIME : zdt.toEpochSecond();
+    }
+
+    private static int toNanos(ZonedDateTime zdt) {
+        return zdt == null ? 0 : zdt.getNano();
+    }
+
+    private static int toOffset(ZonedDateTime zdt) {
+        return zdt == null ? 0 : zdt.getOffset().getTotalSeconds();
+    }
+
+    private static ZonedDateTime toZonedDateTime(long seconds, int nanos, int offset) {
+        return seconds == NO_TIME ? null :
+          ZonedDateTime.ofInstant(Instant.ofEpochSecond(seconds, nanos), ZoneOffset.ofTotalSeconds(offset));
+    }
+
+    private static class CompactItem {
+
+        // null if loc is equal to the key
+        private final String loc;
+        private final long lastmod;
+        private final int lastmodNanos;
+        private final int lastmodOffset;
+        private final String changefreq;
+        private final RsLn[] links;
+        private final CompactMd md;
+
+        CompactItem(String key, UrlItem item) {
+            loc = key.equals(item.getLoc()) ? null : item.getLoc();
+            ZonedDateTime zdt = item.getLastmod().orElse(null);
+            lastmod = toSeconds(zdt);
+            lastmodNanos = toNanos(zdt);
+            lastmodOffset = toOffset(zdt);
+            changefreq = intern(item.getChangefreq().orElse(null));
+            links = item.getLinkList().isEmpty() ? null : item.getLinkList().toArray(new RsLn[0]);
+            md = item.getMetadata().map(CompactMd::new).orElse(null);
+        }
+
+        UrlItem toUrlItem(String key) {
+            UrlItem item = new UrlItem(loc == null ? key : loc)
+              .withLastmod(toZonedDateTime(lastmod, lastmodNanos, lastmodOffset))
+              .withChangefreq(changefreq)
+              .withMetadata(md == null ? null : md.toRsMd());
+            if (links != null) {
+                for (RsLn link : links) {
+                    item.addLink(link);
+                }
+            }
+            return item;
+        }
+    }
+
+    private static class CompactMd {
+
+        private final String capability;
+        private final String change;
+        private final String encoding;
+        private final String hash;
+        private final String path;
+        private final String type;
+        private final long length;
+        // at, completed, from, until, datetime
+        private final long[] times;
+        private final int[] nanos;
+        private final int[] offsets;
+
+        CompactMd(RsMd rsMd) {
+            capability = intern(rsMd.getCapability().orElse(null));
+            change = intern(rsMd.getChange().orElse(null));
+            encoding = intern(rsMd.getEncoding().orElse(null));
+            hash = rsMd.getHash().orElse(null);
+            path = rsMd.getPath().orElse(null);
+            type = intern(rsMd.getType().orElse(null));
+            length = rsMd.getLength().orElse(NO_LENGTH);
+            ZonedDateTime[] zdts = {rsMd.getAt().orElse(null), rsMd.getCompleted().orElse(null),
+              rsMd.getFrom().orElse(null), rsMd.getUntil().orElse(null), rsMd.getDateTime().orElse(null)};
+            long[] seconds = null;
+            int[] nanoss = null;
+            int[] offs = null;
+            for (int i = 0; i < zdts.length; i++) {
+                if (zdts[i] != null) {
+                    if (seconds == null) {
+                        seconds = new long[zdts.length];
+                        nanoss = new int[zdts.length];
+                        offs = new int[zdts.length];
+                        Arrays.fill(seconds, NO_TIME);
+                    }
+                    seconds[i] = toSeconds(zdts[i]);
+                    nanoss[i] = toNanos(zdts[i]);
+                    offs[i] = toOffset(zdts[i]);
+                }
+            }
+            times = seconds;
+            nanos = nanoss;
+            offsets = offs;
+        }
+
+        RsMd toRsMd() {
+            RsMd rsMd = new RsMd()
+              .withCapability(capability)
+              .withChange(change)
+              .withEncoding(encoding)
+              .withHash(hash)
+              .withPath(path)
+              .withType(type)
+              .withLength(length == NO_LENGTH ? null : length);
+            if (times != null) {
+                rsMd.withAt(toZonedDateTime(times[0], nanos[0], offsets[0]))
+                  .withCompleted(toZonedDateTime(times[1], nanos[1], offsets[1]))
+                  .withFrom(toZonedDateTime(times[2], nanos[2], offsets[2]))
+                  .withUntil(toZonedDateTime(times[3], nanos[3], offsets[3]))
+                  .withDateTime(toZonedDateTime(times[4], nanos[4], offsets[4]));
+            }
+            return rsMd;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.util.AtomicFileUtil;
+import nl.knaw.dans.rs.aggregator.util.HashUtil;
+import nl.knaw.dans.rs.aggregator.util.NormURI;
+import nl.knaw.dans.rs.aggregator.util.TransferUtil;
+import nl.knaw.dans.rs.aggregator.util.ZonedDateTimeUtil;
+import nl.knaw.dans.rs.aggregator.xml.Capability;
+import nl.knaw.dans.rs.aggregator.xml.RsMd;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+import nl.knaw.dans.rs.aggregator.xml.Urlset;
+import nl.knaw.dans.rs.aggregator.xml.UrlsetReader;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts the resources of a ResourceDump or ChangeDump package, a ZIP file with a manifest, from a stream.
+ * <p>
+ * The manifest, <code>manifest.xml</code> at the top level of the package, is a urlset with capability
+ * <code>resourcedump-manifest</code> or <code>changedump-manifest</code>. The <code>rs:md path</code> of each
+ * item in the manifest is the name of its bitstream in the package. Bitstreams are written straight to the file
+ * of the resource, as given by the <code>resourceFileFinder</code>, via a temporary file that is only moved into
+ * place if length and hashes of the bitstream equal those in the manifest. Bitstreams that precede the manifest in
+ * the package are kept in temporary files in the staging directory until the manifest is read.
+ * </p>
+ */
+public class DumpPackageExtractor {
+
+    public static final String MANIFEST = "manifest.xml";
+
+    private static Logger logger = LoggerFactory.getLogger(DumpPackageExtractor.class);
+
+    private final Function<URI, File> resourceFileFinder;
+    private Collection<String> hashAlgorithms = Collections.emptyList();
+    private boolean fsync;
+    private File stagingDirectory;
+
+    public DumpPackageExtractor(@Nonnull Function<URI, File> resourceFileFinder) {
+        this.resourceFileFinder = resourceFileFinder;
+    }
+
+    /**
+     * Set the algorithms of the digests that are computed for each extracted resource, next to the algorithms of
+     * the hashes in the manifest. Default is an empty list.
+     *
+     * @param hashAlgorithms algorithms to compute, for instance <code>md5</code>, <code>sha-256</code>
+     * @return <code>this</code> to enable method chaining
+     */
+    public DumpPackageExtractor withHashAlgorithms(@Nonnull Collection<String> hashAlgorithms) {
+        this.hashAlgorithms = hashAlgorithms;
+        return this;
+    }
+
+    /**
+     * Set whether extracted resources are forced to disk before they are moved into place. Default is
+     * <code>false</code>.
+     *
+     * @param fsync <code>true</code> to force extracted resources to disk
+     * @return <code>this</code> to enable method chaining
+     */
+    public DumpPackageExtractor withFsync(boolean fsync) {
+        this.fsync = fsync;
+        return this;
+    }
+
+    public File getStagingDirectory() {
+        if (stagingDirectory == null) {
+            stagingDirectory = new File(System.getProperty("java.io.tmpdir"));
+        }
+        return stagingDirectory;
+    }
+
+    /**
+     * Set the directory for bitstreams that precede the manifest in the package. A directory on the same file
+     * system as the resources avoids copying. Default is the directory of <code>java.io.tmpdir</code>.
+     *
+     * @param stagingDirectory directory for temporary files
+     * @return <code>this</code> to enable method chaining
+     */
+    public DumpPackageExtractor withStagingDirectory(File stagingDirectory) {
+        this.stagingDirectory = stagingDirectory;
+        return this;
+    }
+
+    /**
+     * Extract the resources of the package in <code>instream</code>. Every item of the manifest is handed to the
+     * <code>itemFilter</code>; only the bitstreams of items that pass the filter are extracted. The
+     * <code>extractedConsumer</code> receives the normalized URI and the computed digests of each resource that
+     * was extracted and moved into place. Bitstreams that are not in the manifest, or that do not match their
+     * manifest item, are skipped. The stream is not closed.
+     *
+     * @param instream          stream with the ZIP package
+     * @param itemFilter        decides which items of the manifest are extracted
+     * @param extractedConsumer receives the normalized URI and digests of extracted resources
+     * @return the number of extracted resources
+     * @throws IOException if the package could not be read or has no valid manifest
+     */
+    public int extract(@Nonnull InputStream instream, @Nonnull Predicate<UrlItem> itemFilter,
+                       @Nonnull BiConsumer<URI, Map<String, String>> extractedConsumer) throws IOException {
+        ZipInputStream zin = new ZipInputStream(new BufferedInputStream(instream));
+        Map<String, UrlItem> manifest = null;
+        Map<String, File> staged = new LinkedHashMap<>();
+        int extracted = 0;
+        try {
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String name = stripSlash(entry.getName());
+                if (MANIFEST.equals(name) && manifest == null) {
+                    manifest = readManifest(zin, itemFilter);
+                    for (Map.Entry<String, File> stagedEntry : staged.entrySet()) {
+                        UrlItem item = manifest.remove(stagedEntry.getKey());
+                        if (item != null && moveStaged(stagedEntry.getValue(), item, extractedConsumer)) {
+                            extracted++;
+                        }
+                        // staged bitstreams that were not moved into place are not needed anymore
+                        stagedEntry.getValue().delete();
+                    }
+                    staged.clear();
+                } else if (manifest == null) {
+                    getStagingDirectory().mkdirs();
+                    File stagedFile = File.createTempFile("dump-", AtomicFileUtil.TEMP_EXTENSION,
+                      getStagingDirectory());
+                    staged.put(name, stagedFile);
+                    write(zin, stagedFile, Collections.emptyList());
+                } else {
+                    UrlItem item = manifest.remove(name);
+                    if (item == null) {
+                        logger.debug("Skipping bitstream that is not selected in manifest: {}", name);
+                    } else if (extractEntry(zin, item, extractedConsumer)) {
+                        extracted++;
+                    }
+                }
+            }
+        } finally {
+            for (File stagedFile : staged.values()) {
+                stagedFile.delete();
+            }
+        }
+        if (manifest == null) {
+            throw new IOException("No " + MANIFEST + " in dump package");
+        }
+        for (String path : manifest.keySet()) {
+            logger.warn("Bitstream {} in manifest was not found in dump package", path);
+        }
+        return extracted;
+    }
+
+    private Map<String, UrlItem> readManifest(InputStream zin, Predicate<UrlItem> itemFilter) throws IOException {
+        Map<String, UrlItem> manifest = new HashMap<>();
+        // the reader should not close the package
+        try (UrlsetReader reader = new UrlsetReader(new CloseShieldInputStream(zin))) {
+            String capability = reader.getUrlset().map(Urlset::getMetadata).flatMap(RsMd::getCapability).orElse("");
+            if (!Capability.RESOURCEDUMP_MANIFEST.xmlValue.equals(capability)
+              && !Capability.CHANGEDUMP_MANIFEST.xmlValue.equals(capability)) {
+                throw new IOException("Unexpected capability on " + MANIFEST + ": '" + capability + "'");
+            }
+            UrlItem item;
+            while ((item = reader.readItem()) != null) {
+                Optional<String> maybePath = item.getMetadata().flatMap(RsMd::getPath);
+                if (itemFilter.test(item) && maybePath.isPresent()) {
+                    manifest.put(stripSlash(maybePath.get()), item);
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not read " + MANIFEST + " in dump package", e);
+        }
+        return manifest;
+    }
+
+    private boolean extractEntry(InputStream zin, UrlItem item, BiConsumer<URI, Map<String, String>> consumer)
+      throws IOException {
+        Optional<URI> maybeUri = NormURI.normalize(item.getLoc());
+        if (!maybeUri.isPresent()) {
+            logger.warn("Missing required loc element on manifest item: {}", item);
+            return false;
+        }
+        URI normalizedURI = maybeUri.get();
+        File file = resourceFileFinder.apply(normalizedURI);
+        file.getParentFile().mkdirs();
+        File tempFile = AtomicFileUtil.getTempFile(file);
+        Map<String, MessageDigest> digests = createDigests(item);
+        try {
+            long length = write(zin, tempFile, digests.values());
+            return moveIntoPlace(normalizedURI, tempFile, file, item, length, toHex(digests), consumer);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private boolean moveStaged(File stagedFile, UrlItem item, BiConsumer<URI, Map<String, String>> consumer)
+      throws IOException {
+        Optional<URI> maybeUri = NormURI.normalize(item.getLoc());
+        if (!maybeUri.isPresent()) {
+            logger.warn("Missing required loc element on manifest item: {}", item);
+            return false;
+        }
+        URI normalizedURI = maybeUri.get();
+        File file = resourceFileFinder.apply(normalizedURI);
+        file.getParentFile().mkdirs();
+        Map<String, String> digests;
+        try {
+            digests = HashUtil.computeHashes(createDigests(item).keySet(), stagedFile);
+        } catch (NoSuchAlgorithmException e) {
+            // algorithms were checked in createDigests
+            throw new IllegalStateException(e);
+        }
+        return moveIntoPlace(normalizedURI, stagedFile, file, item, stagedFile.length(), digests, consumer);
+    }
+
+    private boolean moveIntoPlace(URI normalizedURI, File source, File file, UrlItem item, long length,
+                                  Map<String, String> digests, BiConsumer<URI, Map<String, String>> consumer)
+      throws IOException {
+        if (!FsResourceManager.verifyTransfer(normalizedURI, item, length, digests)) {
+            return false;
+        }
+        Optional<ZonedDateTime> maybeLastModified = item.getLastmod();
+        if (maybeLastModified.isPresent()) {
+            source.setLastModified(ZonedDateTimeUtil.toLong(maybeLastModified.get()));
+        }
+        AtomicFileUtil.moveIntoPlace(source, file, fsync);
+        consumer.accept(normalizedURI, digests);
+        logger.debug("Extracted {} --> {}", normalizedURI, file);
+        return true;
+    }
+
+    private Map<String, MessageDigest> createDigests(UrlItem item) {
+        Set<String> algorithms = new LinkedHashSet<>(FsResourceManager.getHashes(item).keySet());
+        algorithms.addAll(hashAlgorithms);
+        Map<String, MessageDigest> digests = new LinkedHashMap<>();
+        for (String algorithm : algorithms) {
+            try {
+                digests.put(algorithm.toLowerCase(), MessageDigest.getInstance(algorithm));
+            } catch (NoSuchAlgorithmException e) {
+                logger.warn("Unknown hash algorithm: '{}': {}", algorithm, item.getLoc());
+            }
+        }
+        return digests;
+    }
+
+    private static long write(InputStream zin, File file, Collection<MessageDigest> digests) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // the copy ends at the end of the current entry
+            return TransferUtil.copy(new CloseShieldInputStream(zin), channel, 0L, digests);
+        }
+    }
+
+    private static Map<String, String> toHex(Map<String, MessageDigest> digests) {
+        Map<String, String> hexDigests = new LinkedHashMap<>();
+        for (Map.Entry<String, MessageDigest> entry : digests.entrySet()) {
+            hexDigests.put(entry.getKey(), HashUtil.toHex(entry.getValue().digest()));
+        }
+        return hexDigests;
+    }
+
+    private static String stripSlash(String path) {
+        String stripped = path;
+        while (stripped.startsWith("/")) {
+            stripped = stripped.substring(1);
+        }
+        return stripped;
+    }
+}
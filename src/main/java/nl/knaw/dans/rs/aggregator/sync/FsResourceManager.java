@@ -1,31 +1,63 @@
 package nl.knaw.dans.rs.aggregator.sync;
 
+import nl.knaw.dans.rs.aggregator.http.HttpClientPool;
 import nl.knaw.dans.rs.aggregator.http.ResourceReader;
 import nl.knaw.dans.rs.aggregator.http.Result;
+import nl.knaw.dans.rs.aggregator.http.RetryPolicy;
 import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
 import nl.knaw.dans.rs.aggregator.syncore.ResourceManager;
 import nl.knaw.dans.rs.aggregator.syncore.VerificationStatus;
 import nl.knaw.dans.rs.aggregator.util.FileCleaner;
 import nl.knaw.dans.rs.aggregator.util.HashUtil;
 import nl.knaw.dans.rs.aggregator.util.ZonedDateTimeUtil;
+import nl.knaw.dans.rs.aggregator.xml.RsMd;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+import org.apache.http.HttpEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.security.NoSuchAlgorithmException;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
- *
+ * ResourceManager that keeps resources on the file system, at the location given by
+ * {@link PathFinder#findResourceFilePath(URI)}.
+ * <p>
+ * By default the state of local resources (size, last modified time and computed hashes) is kept in a
+ * {@link LocalResourceIndex} that is saved in the sync state directory of the resource set. Before an entry of
+ * the index is used, size, last modified time and file key of the file are checked with one file stat. Hashes of
+ * unchanged files are then answered from the index instead of being computed again. If no other process writes
+ * to the resource directory, {@link #setTrustResourceIndex(boolean)} can skip the file stat.
+ * </p>
+ * <p>
+ * Downloads are written to a partial file and moved into place only after their length and hashes were verified
+ * against the metadata of the item. A broken download is resumed where it stopped, if the server allows it. See
+ * {@link ResourceReader#read(URI, File, java.util.Collection, java.util.function.Predicate)}.
+ * </p>
+ * <p>
+ * Resources in ResourceDump and ChangeDump packages are extracted from the package stream, straight into the
+ * resource directory, by a {@link DumpPackageExtractor}.
+ * </p>
  */
 public class FsResourceManager implements ResourceManager {
 
@@ -34,6 +66,12 @@ public class FsResourceManager implements ResourceManager {
     private PathFinder pathFinder;
     private ResourceReader resourceReader;
     private CloseableHttpClient httpClient;
+    private RetryPolicy retryPolicy;
+    private boolean resourceIndexEnabled = true;
+    private boolean trustResourceIndex;
+    private boolean fsync;
+    private LocalResourceIndex resourceIndex;
+    private List<String> hashAlgorithms;
 
     private PathFinder getPathFinder() {
         if (pathFinder == null) {
@@ -42,13 +80,160 @@ public class FsResourceManager implements ResourceManager {
         return pathFinder;
     }
 
-    public void setPathFinder(PathFinder pathFinder) {
+    public synchronized void setPathFinder(PathFinder pathFinder) {
         this.pathFinder = pathFinder;
+        resourceIndex = null;
+    }
+
+    @Override
+    public synchronized void finish() {
+        if (resourceIndex != null) {
+            File indexFile = getPathFinder().getResourceIndexFile();
+            try {
+                resourceIndex.save(indexFile);
+            } catch (IOException e) {
+                logger.error("Could not save resource index to {}", indexFile, e);
+            }
+            resourceIndex = null;
+        }
+    }
+
+    public boolean isResourceIndexEnabled() {
+        return resourceIndexEnabled;
+    }
+
+    /**
+     * Set whether the state of local resources is kept in a {@link LocalResourceIndex}. Default is
+     * <code>true</code>.
+     *
+     * @param resourceIndexEnabled <code>true</code> to keep a resource index
+     */
+    public void setResourceIndexEnabled(boolean resourceIndexEnabled) {
+        this.resourceIndexEnabled = resourceIndexEnabled;
+    }
+
+    public boolean isTrustResourceIndex() {
+        return trustResourceIndex;
+    }
+
+    /**
+     * Set whether entries of the resource index are used without checking size, last modified time and file key
+     * (inode) of the file on disk. This saves one file stat per resource. Files that are deleted, truncated or
+     * changed by another process then go unnoticed: they are reported as existing and their size and last
+     * modified time as verified. Cached hashes are always checked against the file on disk. Only set this for
+     * resource directories that no other process writes to. Default is <code>false</code>.
+     *
+     * @param trustResourceIndex <code>true</code> to use index entries without checking the file on disk
+     */
+    public void setTrustResourceIndex(boolean trustResourceIndex) {
+        this.trustResourceIndex = trustResourceIndex;
+    }
+
+    public boolean isFsync() {
+        return fsync;
+    }
+
+    /**
+     * Set whether downloaded resources are forced to disk before they are moved into place. This makes resources
+     * survive a crash of the operating system, at the cost of slower downloads. Default is <code>false</code>.
+     *
+     * @param fsync <code>true</code> to force downloaded resources to disk
+     */
+    public synchronized void setFsync(boolean fsync) {
+        this.fsync = fsync;
+        if (resourceReader != null) {
+            resourceReader.setFsync(fsync);
+        }
+    }
+
+    public List<String> getHashAlgorithms() {
+        if (hashAlgorithms == null) {
+            hashAlgorithms = Collections.emptyList();
+        }
+        return hashAlgorithms;
+    }
+
+    /**
+     * Set the algorithms that are computed, in the same pass over the file, whenever the hash of a local resource
+     * is computed for verification. Hashes are kept in the resource index, so a later run that needs one of them
+     * does not read the file again. Default is an empty list: only the requested algorithm is computed.
+     *
+     * @param hashAlgorithms algorithms to compute, for instance <code>md5</code>, <code>sha-256</code>
+     */
+    public void setHashAlgorithms(List<String> hashAlgorithms) {
+        this.hashAlgorithms = hashAlgorithms;
+    }
+
+    private synchronized LocalResourceIndex getResourceIndex() {
+        if (resourceIndex == null && resourceIndexEnabled) {
+            resourceIndex = LocalResourceIndex.load(getPathFinder().getResourceIndexFile());
+        }
+        return resourceIndex;
+    }
+
+    private LocalResourceIndex.Entry findIndexEntry(URI normalizedURI) {
+        LocalResourceIndex index = getResourceIndex();
+        File file = getPathFinder().findResourceFilePath(normalizedURI);
+        if (!trustResourceIndex) {
+            return index.getCurrent(normalizedURI, file);
+        }
+        LocalResourceIndex.Entry entry = index.get(normalizedURI);
+        if (entry == null) {
+            entry = index.update(normalizedURI, file);
+        }
+        return entry;
+    }
+
+    static Map<String, String> getHashes(UrlItem item) {
+        Map<String, String> hashes = new LinkedHashMap<>();
+        Optional<String> maybeHash = item == null ? Optional.empty() : item.getMetadata().flatMap(RsMd::getHash);
+        if (maybeHash.isPresent()) {
+            for (String hash : maybeHash.get().trim().split("\\s+")) {
+                String[] splitHash = hash.split(":");
+                if (splitHash.length > 1) {
+                    hashes.put(splitHash[0].toLowerCase(), splitHash[1]);
+                } else {
+                    hashes.put("md5", splitHash[0]);
+                }
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Verify a complete download against length and hashes in the metadata of the item, before it is moved into
+     * place. Digests are computed during the download, so this does not read the file.
+     */
+    private static boolean verifyDownload(Result<File> result, UrlItem item) {
+        return verifyTransfer(result.getUri(), item, result.getContentLength(), result.getDigests());
+    }
+
+    /**
+     * Verify the length and digests of transferred content against length and hashes in the metadata of the item.
+     */
+    static boolean verifyTransfer(URI uri, UrlItem item, long length, Map<String, String> digests) {
+        Optional<Long> maybeLength = item == null ? Optional.empty() : item.getMetadata().flatMap(RsMd::getLength);
+        if (maybeLength.isPresent() && maybeLength.get() != length) {
+            logger.info("Length of download not equal. remote={}, downloaded={}, uri={}",
+              maybeLength.get(), length, uri);
+            return false;
+        }
+        for (Map.Entry<String, String> hash : getHashes(item).entrySet()) {
+            String digest = digests.get(hash.getKey());
+            if (digest != null && !digest.equalsIgnoreCase(hash.getValue())) {
+                logger.info("Hash of download not equal. algorithm={}, remote={}, downloaded={}, uri={}",
+                  hash.getKey(), hash.getValue(), digest, uri);
+                return false;
+            }
+        }
+        return true;
     }
 
     private CloseableHttpClient getHttpClient() {
         if (httpClient == null) {
-            httpClient = HttpClients.createDefault();
+            logger.warn("No http client was set on {}. Using an http client of its own, without rate limiting.",
+              getClass().getSimpleName());
+            httpClient = new HttpClientPool().getHttpClient();
         }
         return httpClient;
     }
@@ -58,9 +243,24 @@ public class FsResourceManager implements ResourceManager {
         return this;
     }
 
-    private ResourceReader getResourceReader() {
+    @Override
+    public void setHttpClient(CloseableHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    public synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        if (resourceReader != null) {
+            resourceReader.setRetryPolicy(retryPolicy);
+        }
+    }
+
+    private synchronized ResourceReader getResourceReader() {
         if (resourceReader == null) {
             resourceReader = new ResourceReader(getHttpClient());
+            resourceReader.setRetryPolicy(retryPolicy);
+            resourceReader.setFsync(fsync);
         }
         return resourceReader;
     }
@@ -72,6 +272,9 @@ public class FsResourceManager implements ResourceManager {
 
     @Override
     public boolean exists(@Nonnull URI normalizedURI) {
+        if (getResourceIndex() != null) {
+            return findIndexEntry(normalizedURI) != null;
+        }
         return getPathFinder().findResourceFilePath(normalizedURI).exists();
     }
 
@@ -79,8 +282,7 @@ public class FsResourceManager implements ResourceManager {
     public VerificationStatus verifyHash(@Nonnull URI normalizedURI, @Nonnull String algorithm, @Nonnull String hash) {
         VerificationStatus status = VerificationStatus.not_verified;
         try {
-            String localHash = HashUtil.computeHash(algorithm,
-              new FileInputStream(getPathFinder().findResourceFilePath(normalizedURI)));
+            String localHash = computeLocalHash(normalizedURI, algorithm);
             if (hash.equalsIgnoreCase(localHash)) {
                 status = VerificationStatus.verification_success;
                 //logger.debug("Verified {} hash of {}.", algorithm, normalizedURI);
@@ -99,10 +301,34 @@ public class FsResourceManager implements ResourceManager {
         return status;
     }
 
+    private String computeLocalHash(URI normalizedURI, String algorithm) throws IOException, NoSuchAlgorithmException {
+        File file = getPathFinder().findResourceFilePath(normalizedURI);
+        if (getResourceIndex() == null) {
+            return HashUtil.computeHash(algorithm, new FileInputStream(file));
+        }
+        // a cached hash is only used if size, last modified time and file key of the file did not change,
+        // also if the index is trusted.
+        LocalResourceIndex.Entry entry = getResourceIndex().getCurrent(normalizedURI, file);
+        if (entry == null) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        String localHash = entry.getHash(algorithm);
+        if (localHash == null) {
+            Set<String> algorithms = new LinkedHashSet<>();
+            algorithms.add(algorithm);
+            algorithms.addAll(getHashAlgorithms());
+            for (Map.Entry<String, String> hash : HashUtil.computeHashes(algorithms, file).entrySet()) {
+                getResourceIndex().putHash(entry, hash.getKey(), hash.getValue());
+            }
+            localHash = entry.getHash(algorithm);
+        }
+        return localHash;
+    }
+
     @Override
     public VerificationStatus verifyLastModified(@Nonnull URI normalizedURI, @Nonnull ZonedDateTime lastModified) {
         VerificationStatus status = VerificationStatus.not_verified;
-        long localLm = getPathFinder().findResourceFilePath(normalizedURI).lastModified();
+        long localLm = localLastModified(normalizedURI);
         long remoteLm = ZonedDateTimeUtil.toLong(lastModified);
         if (remoteLm == localLm) {
             status = VerificationStatus.verification_success;
@@ -119,7 +345,7 @@ public class FsResourceManager implements ResourceManager {
     @Override
     public VerificationStatus verifySize(@Nonnull URI normalizedURI, long size) {
         VerificationStatus status = VerificationStatus.not_verified;
-        long localSize = getPathFinder().findResourceFilePath(normalizedURI).length();
+        long localSize = localSize(normalizedURI);
         if (size == localSize) {
             status = VerificationStatus.verification_success;
             //logger.debug("Verified Length of {}", normalizedURI);
@@ -130,10 +356,35 @@ public class FsResourceManager implements ResourceManager {
         return status;
     }
 
+    private long localLastModified(URI normalizedURI) {
+        if (getResourceIndex() == null) {
+            return getPathFinder().findResourceFilePath(normalizedURI).lastModified();
+        }
+        LocalResourceIndex.Entry entry = findIndexEntry(normalizedURI);
+        return entry == null ? 0L : entry.getLastModified();
+    }
+
+    private long localSize(URI normalizedURI) {
+        if (getResourceIndex() == null) {
+            return getPathFinder().findResourceFilePath(normalizedURI).length();
+        }
+        LocalResourceIndex.Entry entry = findIndexEntry(normalizedURI);
+        return entry == null ? 0L : entry.getLength();
+    }
+
     @Override
     public boolean keepOnly(@Nonnull Set<URI> normalizedURIs) {
-        Set<File> fileSet = getPathFinder().findResourceFilePaths(normalizedURIs);
+        Set<File> fileSet = new HashSet<>(getPathFinder().findResourceFilePaths(normalizedURIs));
+        // broken downloads of kept resources can still be resumed
+        for (File file : new ArrayList<>(fileSet)) {
+            File partFile = ResourceReader.getPartFile(file);
+            fileSet.add(partFile);
+            fileSet.add(ResourceReader.getValidatorFile(partFile));
+        }
         FileCleaner fileCleaner = new FileCleaner(fileSet);
+        if (getResourceIndex() != null) {
+            getResourceIndex().retainAll(normalizedURIs);
+        }
         File resourceDirectory = getPathFinder().getResourceDirectory();
         if (!resourceDirectory.exists()) {
             return true;
@@ -156,28 +407,91 @@ public class FsResourceManager implements ResourceManager {
 
     @Override
     public boolean create(@Nonnull URI normalizedURI) {
-        return download(normalizedURI);
+        return download(normalizedURI, null);
+    }
+
+    @Override
+    public boolean create(@Nonnull URI normalizedURI, @Nonnull UrlItem item) {
+        return download(normalizedURI, item);
     }
 
     @Override
     public boolean update(@Nonnull URI normalizedURI) {
-        return download(normalizedURI);
+        return download(normalizedURI, null);
+    }
+
+    @Override
+    public boolean update(@Nonnull URI normalizedURI, @Nonnull UrlItem item) {
+        return download(normalizedURI, item);
     }
 
     @Override
     public boolean delete(@Nonnull URI normalizedURI) {
         File resourcePath = getPathFinder().findResourceFilePath(normalizedURI);
         boolean deleted = resourcePath.delete();
+        if (getResourceIndex() != null) {
+            getResourceIndex().remove(normalizedURI);
+        }
         if (deleted) {
             logger.debug("Deleted {} --> {}", normalizedURI, resourcePath);
         }
         return true;
     }
 
-    private boolean download(@Nonnull URI normalizedURI) {
+    @Override
+    public boolean ingest(@Nonnull URI packageUri, @Nonnull UrlItem packageItem,
+                          @Nonnull Predicate<UrlItem> itemFilter) {
+        LocalResourceIndex index = getResourceIndex();
+        DumpPackageExtractor extractor = new DumpPackageExtractor(getPathFinder()::findResourceFilePath)
+          .withHashAlgorithms(index == null ? Collections.emptyList() : getHashAlgorithms())
+          .withFsync(fsync)
+          .withStagingDirectory(getPathFinder().getResourceDirectory());
+        Result<Integer> result = getResourceReader().execute(packageUri, (uri, response) -> {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new IOException("Empty response for dump package " + uri);
+            }
+            try (InputStream instream = entity.getContent()) {
+                return extractor.extract(instream, itemFilter, (normalizedURI, digests) -> {
+                    LocalResourceIndex.Entry entry = index == null ? null
+                      : index.update(normalizedURI, getPathFinder().findResourceFilePath(normalizedURI));
+                    if (entry != null) {
+                        for (Map.Entry<String, String> digest : digests.entrySet()) {
+                            index.putHash(entry, digest.getKey(), digest.getValue());
+                        }
+                    }
+                });
+            }
+        });
+        if (result.getContent().isPresent()) {
+            logger.info("Ingested {} resources from dump package {}", result.getContent().get(), packageUri);
+            return true;
+        } else {
+            logger.warn("Failed ingestion of dump package {}: ", packageUri, result.lastError());
+            return false;
+        }
+    }
+
+    private boolean download(@Nonnull URI normalizedURI, UrlItem item) {
         boolean downloaded = false;
         File resourcePath = getPathFinder().findResourceFilePath(normalizedURI);
-        Result<File> result = getResourceReader().read(normalizedURI, resourcePath);
+        LocalResourceIndex index = getResourceIndex();
+        // digests computed during download verify the download before it is moved into place.
+        Set<String> algorithms = new LinkedHashSet<>(getHashes(item).keySet());
+        if (index != null) {
+            // they are also kept in the index, so verification need not read the file.
+            algorithms.addAll(getHashAlgorithms());
+        }
+        Result<File> result = getResourceReader()
+          .read(normalizedURI, resourcePath, algorithms, partResult -> verifyDownload(partResult, item));
+        if (index != null) {
+            LocalResourceIndex.Entry entry = index.update(normalizedURI, resourcePath);
+            if (entry != null && result.getContent().isPresent() && entry.getLength() == result.getContentLength()) {
+                for (Map.Entry<String, String> digest : result.getDigests().entrySet()) {
+                    index.putHash(entry, digest.getKey(), digest.getValue());
+                }
+            }
+        }
         if (result.getContent().isPresent()) {
             downloaded = true;
             logger.debug("Downloaded {} --> {}", normalizedURI, resourcePath);
@@ -1,65 +1,149 @@
 package nl.knaw.dans.rs.aggregator.sync;
 
+import nl.knaw.dans.rs.aggregator.http.RangeMismatchException;
+import nl.knaw.dans.rs.aggregator.http.ResourceReader;
 import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
 import nl.knaw.dans.rs.aggregator.syncore.SitemapConverterProvider;
+import nl.knaw.dans.rs.aggregator.util.AtomicFileUtil;
 import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
+import nl.knaw.dans.rs.aggregator.util.RsProperties;
+import nl.knaw.dans.rs.aggregator.util.TransferUtil;
+import nl.knaw.dans.rs.aggregator.xml.Capability;
 import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
 import nl.knaw.dans.rs.aggregator.xml.RsBuilder;
 import nl.knaw.dans.rs.aggregator.xml.RsRoot;
+import nl.knaw.dans.rs.aggregator.xml.Urlset;
+import nl.knaw.dans.rs.aggregator.xml.UrlsetReader;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.utils.DateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.xml.bind.JAXBException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 /**
  * A {@link SitemapConverterProvider} that provides a converter that both stores the response on disk and
  * returns the response unmarshalled as {@link RsRoot}. The file location of the sitemap is decided by
  * calling {@link PathFinder#findMetadataFilePath(URI)} for the given URI on the current PathFinder.
+ * <p>
+ * The validators (ETag, Last-Modified) of each response are kept in the sync state directory. If conditionalRequests
+ * is <code>true</code> (the default) and the sitemap is still on disk, requests are made conditional on these
+ * validators. A response with status 304 (Not Modified) is answered with the sitemap on disk.
+ * </p>
+ * <p>
+ * Urlsets that list resources (resourcelist, changelist, resourcedump and changedump) are returned as
+ * header-only {@link Urlset}s. Their items can be streamed from the file on disk with a {@link UrlsetReader}.
+ * </p>
+ * <p>
+ * Sources append new items to their open changelist, the changelist without <code>rs:md until</code>. If
+ * tailRequests is <code>true</code> (the default), a conditional request on the open changelist also asks with a
+ * <code>Range</code> header for the bytes after the last item on disk. A response with status 206 (Partial
+ * Content) is only accepted if it starts with the last bytes of that item; the new items are then spliced into
+ * the sitemap on disk. A server that does not support ranges answers with the whole sitemap. If the response
+ * does not match the sitemap on disk, for instance because the source closed the changelist, the converter
+ * throws a {@link RangeMismatchException} and the reader repeats the request. That request, and later requests
+ * on the sitemap, are made without a <code>Range</code> header until the whole sitemap has been received.
+ * </p>
+ * <p>
+ * Sitemaps are written to a temporary file that is moved into place when complete, so a broken transfer never
+ * leaves a truncated sitemap on disk. See {@link AtomicFileUtil}.
+ * </p>
  */
 public class FsSitemapConverterProvider implements SitemapConverterProvider {
 
     private static Logger logger = LoggerFactory.getLogger(FsSitemapConverterProvider.class);
 
+    private static final String VALIDATORS_EXTENSION = ".validators.xml";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "last.modified";
+    private static final String TAIL_PENDING = "tail.pending";
+    // number of bytes before the closing tag of the urlset that a tail response should repeat
+    private static final int TAIL_OVERLAP = 64;
+    private static final int TAIL_SEARCH = 1024;
+
     private ResourceSyncContext rsContext;
     private PathFinder currentPathFinder;
+    private boolean conditionalRequests = true;
+    private boolean fsync;
+    private boolean tailRequests = true;
+    private final Map<URI, Tail> tails = new ConcurrentHashMap<>();
+
+    private BiConsumer<URI, HttpRequest> conditionalRequestPreparer = (uri, request) -> {
+        File file = getCurrentPathFinder().findMetadataFilePath(uri);
+        RsProperties validators = loadValidators(uri);
+        if (file.exists() && validators != null) {
+            String etag = validators.getProperty(ETAG);
+            if (etag != null) {
+                request.setHeader("If-None-Match", etag);
+            }
+            String lastModified = validators.getProperty(LAST_MODIFIED);
+            if (lastModified != null) {
+                request.setHeader("If-Modified-Since", lastModified);
+            }
+            if (tailRequests) {
+                prepareTailRequest(uri, request, file, validators);
+            }
+        }
+    };
+
     private LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception>
       fileSavingConverter = (uri, response) -> {
 
         HttpEntity entity = response.getEntity();
         RsRoot rsRoot = null;
-        if (entity != null) {
+        Tail tail = tails.remove(uri);
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+            File file = getCurrentPathFinder().findMetadataFilePath(uri);
+            clearTailPending(uri);
+            rsRoot = parse(file);
+            logger.debug("Not modified {}, using {}", uri, file);
+        } else if (entity != null) {
             File file = getCurrentPathFinder().findMetadataFilePath(uri);
             File directoryPath = file.getParentFile();
             if (directoryPath.mkdirs()) {
                 logger.debug("Created directory path {}", directoryPath);
             }
             InputStream instream = entity.getContent();
-            boolean saved = saveFile(instream, file);
-            if (saved) {
-                logger.debug("Saved {} --> {}", uri, file);
-                Header lmh = response.getFirstHeader("Last-Modified");
-                if (lmh != null) {
-                    Date date = DateUtils.parseDate(lmh.getValue());
-                    if (file.setLastModified(date.getTime())) {
-                        logger.debug("Last modified from remote: {} on {}", date, file);
-                    }
-                }
-                rsRoot = new RsBuilder(getRsContext()).setFile(file).build().orElse(null);
-                if (rsRoot != null) {
-                    logger.debug("Collected sitemap with capability {} from {}", rsRoot.getCapability(), uri);
+            if (statusCode == HttpStatus.SC_PARTIAL_CONTENT) {
+                saveTail(instream, file, tail, response, uri);
+            } else {
+                saveFile(instream, file);
+            }
+            logger.debug("Saved {} --> {}", uri, file);
+            Header lmh = response.getFirstHeader("Last-Modified");
+            if (lmh != null) {
+                Date date = DateUtils.parseDate(lmh.getValue());
+                if (file.setLastModified(date.getTime())) {
+                    logger.debug("Last modified from remote: {} on {}", date, file);
                 }
             }
+            saveValidators(uri, response);
+            rsRoot = parse(file);
+            if (rsRoot != null) {
+                logger.debug("Collected sitemap with capability {} from {}", rsRoot.getCapability(), uri);
+            }
         }
         return rsRoot;
     };
@@ -69,17 +153,221 @@ public class FsSitemapConverterProvider implements SitemapConverterProvider {
         return fileSavingConverter;
     }
 
-    private boolean saveFile(InputStream instream, File file) throws IOException {
-        boolean saved = false;
-        byte[] buffer = new byte[8 * 1024];
-        int bytesRead;
-        try (OutputStream outstream = new FileOutputStream(file); InputStream ins = instream) {
-            while ((bytesRead = ins.read(buffer)) != -1) {
-                outstream.write(buffer, 0, bytesRead);
+    private RsRoot parse(File file) throws Exception {
+        Optional<Urlset> maybeHeader = UrlsetReader.readHeader(file);
+        if (maybeHeader.isPresent()) {
+            Urlset header = maybeHeader.get();
+            String capability = header.getMetadata().getCapability().orElse("");
+            if (Capability.levelfor(capability) == Capability.RESOURCELIST.level) {
+                return header.withHeaderOnly(true);
+            }
+        }
+        return new RsBuilder(getRsContext()).setFile(file).build().orElse(null);
+    }
+
+    @Override
+    public BiConsumer<URI, HttpRequest> getRequestPreparer() {
+        return conditionalRequests ? conditionalRequestPreparer : null;
+    }
+
+    public boolean isConditionalRequests() {
+        return conditionalRequests;
+    }
+
+    /**
+     * Make requests on sitemaps conditional on the validators of the previous response. Default is <code>true</code>.
+     *
+     * @param conditionalRequests <code>true</code> for conditional requests, <code>false</code> otherwise
+     */
+    public void setConditionalRequests(boolean conditionalRequests) {
+        this.conditionalRequests = conditionalRequests;
+    }
+
+    public boolean isFsync() {
+        return fsync;
+    }
+
+    /**
+     * Set whether sitemaps are forced to disk before they are moved into place. Default is <code>false</code>.
+     *
+     * @param fsync <code>true</code> to force sitemaps to disk
+     */
+    public void setFsync(boolean fsync) {
+        this.fsync = fsync;
+    }
+
+    private RsProperties loadValidators(URI uri) {
+        File file = getValidatorsFile(uri);
+        RsProperties validators = null;
+        if (file.exists()) {
+            validators = new RsProperties();
+            try {
+                validators.loadFromXML(file);
+            } catch (IOException e) {
+                logger.warn("Could not read validators from {}", file, e);
+                validators = null;
+            }
+        }
+        return validators;
+    }
+
+    private void saveValidators(URI uri, HttpResponse response) throws IOException {
+        File file = getValidatorsFile(uri);
+        RsProperties validators = new RsProperties();
+        Header etag = response.getFirstHeader("ETag");
+        if (etag != null) {
+            validators.setProperty(ETAG, etag.getValue());
+        }
+        Header lastModified = response.getFirstHeader("Last-Modified");
+        if (lastModified != null) {
+            validators.setProperty(LAST_MODIFIED, lastModified.getValue());
+        }
+        if (validators.isEmpty()) {
+            if (file.exists() && !file.delete()) {
+                logger.warn("Could not delete stale validators {}", file);
+            }
+        } else {
+            validators.storeToXML(file, uri.toString());
+        }
+    }
+
+    private File getValidatorsFile(URI uri) {
+        return new File(getCurrentPathFinder().findSyncStateFilePath(uri).getPath() + VALIDATORS_EXTENSION);
+    }
+
+    public boolean isTailRequests() {
+        return tailRequests;
+    }
+
+    /**
+     * Ask for the new bytes at the end of the open changelist only. Default is <code>true</code>. Only used if
+     * conditionalRequests is <code>true</code>.
+     *
+     * @param tailRequests <code>true</code> for tail requests, <code>false</code> otherwise
+     */
+    public void setTailRequests(boolean tailRequests) {
+        this.tailRequests = tailRequests;
+    }
+
+    private void prepareTailRequest(URI uri, HttpRequest request, File file, RsProperties validators) {
+        tails.remove(uri);
+        if (validators.getProperty(TAIL_PENDING) != null) {
+            logger.debug("Previous tail did not match, requesting all of {}", uri);
+            return;
+        }
+        try {
+            Optional<Urlset> maybeHeader = UrlsetReader.readHeader(file);
+            boolean openChangeList = maybeHeader
+              .map(Urlset::getMetadata)
+              .filter(rsMd -> Capability.CHANGELIST.xmlValue.equals(rsMd.getCapability().orElse(null)))
+              .filter(rsMd -> !rsMd.getUntil().isPresent())
+              .isPresent();
+            if (!openChangeList) {
+                return;
+            }
+            Tail tail = findTail(file);
+            if (tail == null) {
+                return;
+            }
+            tails.put(uri, tail);
+            request.setHeader(HttpHeaders.RANGE, "bytes=" + tail.start + "-");
+            logger.debug("Requesting {} from byte {}", uri, tail.start);
+        } catch (Exception e) {
+            logger.warn("Could not prepare tail request for {}", uri, e);
+        }
+    }
+
+    /**
+     * Find the closing tag of the urlset in the given file. The tail starts {@link #TAIL_OVERLAP} bytes before it.
+     */
+    private static Tail findTail(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            int size = (int) Math.min(length, TAIL_SEARCH);
+            byte[] end = new byte[size];
+            raf.seek(length - size);
+            raf.readFully(end);
+            String text = new String(end, StandardCharsets.ISO_8859_1);
+            int close = text.lastIndexOf("</");
+            if (close < 0 || !text.substring(close).trim().matches("</([\\w.-]+:)?urlset\\s*>")) {
+                return null;
+            }
+            long closeOffset = length - size + close;
+            int overlap = (int) Math.min(closeOffset, TAIL_OVERLAP);
+            byte[] overlapBytes = new byte[overlap];
+            raf.seek(closeOffset - overlap);
+            raf.readFully(overlapBytes);
+            return new Tail(closeOffset - overlap, overlapBytes);
+        }
+    }
+
+    /**
+     * Splice the tail in the response into the sitemap on disk. A tail that does not match the sitemap on disk is
+     * rejected with a {@link RangeMismatchException}. The next requests on the sitemap are then made without a
+     * <code>Range</code> header, until the whole sitemap has been received.
+     */
+    private void saveTail(InputStream instream, File file, Tail tail, HttpResponse response, URI uri)
+      throws IOException {
+        try (InputStream ins = instream) {
+            if (tail == null || ResourceReader.getRangeStart(response) != tail.start) {
+                setTailPending(uri);
+                throw new RangeMismatchException("Unexpected partial content", uri);
+            }
+            byte[] overlap = new byte[tail.overlap.length];
+            IOUtils.readFully(ins, overlap);
+            if (!Arrays.equals(overlap, tail.overlap)) {
+                setTailPending(uri);
+                throw new RangeMismatchException("Partial content does not match the sitemap on disk", uri);
             }
-            saved = true;
+            AtomicFileUtil.write(file, fsync, outstream -> {
+                FileChannel channel = outstream.getChannel();
+                try (FileChannel old = FileChannel.open(file.toPath())) {
+                    long position = 0L;
+                    while (position < tail.start) {
+                        position += old.transferTo(position, tail.start - position, channel);
+                    }
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(overlap);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                TransferUtil.copy(ins, channel, channel.position(), Collections.emptyList());
+            });
+        }
+        logger.debug("Appended tail of {} from byte {}", uri, tail.start);
+    }
+
+    private void setTailPending(URI uri) throws IOException {
+        RsProperties validators = loadValidators(uri);
+        if (validators == null) {
+            validators = new RsProperties();
+        }
+        validators.setProperty(TAIL_PENDING, "true");
+        validators.storeToXML(getValidatorsFile(uri), uri.toString());
+    }
+
+    private void clearTailPending(URI uri) throws IOException {
+        RsProperties validators = loadValidators(uri);
+        if (validators != null && validators.remove(TAIL_PENDING) != null) {
+            validators.storeToXML(getValidatorsFile(uri), uri.toString());
+        }
+    }
+
+    private void saveFile(InputStream instream, File file) throws IOException {
+        try (InputStream ins = instream) {
+            AtomicFileUtil.write(file, fsync,
+              outstream -> TransferUtil.copy(ins, outstream.getChannel(), 0L, Collections.emptyList()));
+        }
+    }
+
+    private static class Tail {
+        private final long start;
+        private final byte[] overlap;
+
+        Tail(long start, byte[] overlap) {
+            this.start = start;
+            this.overlap = overlap;
         }
-        return saved;
     }
 
     @Override
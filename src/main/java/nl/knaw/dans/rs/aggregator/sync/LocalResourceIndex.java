@@ -0,0 +1,245 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.util.AtomicFileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Persistent index of the local state of the resources of one resource set. For each normalized URI the index
+ * records size, last modified time and, if the file system provides one, the file key (inode) of the local file,
+ * together with the hashes that were computed over it. Verification of unchanged resources therefore does not have
+ * to read the file system, and hashes are only computed again if the file changed.
+ * <p>
+ * The index is loaded from and saved to a single file. Instances of this class are thread-safe.
+ * </p>
+ */
+public class LocalResourceIndex {
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static Logger logger = LoggerFactory.getLogger(LocalResourceIndex.class);
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    /**
+     * Load a LocalResourceIndex from the given file. If the file does not exist or cannot be read, an empty
+     * index is returned.
+     *
+     * @param file file with a saved index
+     * @return the loaded index
+     */
+    public static LocalResourceIndex load(@Nonnull File file) {
+        LocalResourceIndex index = new LocalResourceIndex();
+        if (!file.exists()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version < 1 || version > FORMAT_VERSION) {
+                logger.warn("Unknown version {} of resource index {}. Starting with empty index.", version, file);
+                return index;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String key = in.readUTF();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                String fileKey = version > 1 ? in.readUTF() : "";
+                Entry entry = new Entry(length, lastModified, fileKey.isEmpty() ? null : fileKey);
+                int hashCount = in.readByte();
+                for (int h = 0; h < hashCount; h++) {
+                    entry.hashes.put(in.readUTF(), in.readUTF());
+                }
+                index.entries.put(key, entry);
+            }
+            logger.debug("Loaded resource index with {} entries from {}", size, file);
+        } catch (IOException e) {
+            logger.warn("Could not read resource index {}. Starting with empty index.", file, e);
+            index.entries.clear();
+        }
+        return index;
+    }
+
+    /**
+     * Save this index to the given file, if it changed since it was loaded or last saved. The index is written to
+     * a temporary file first, which is then moved to the given file.
+     *
+     * @param file file to save to
+     * @throws IOException if the index could not be saved
+     */
+    public void save(@Nonnull File file) throws IOException {
+        if (!dirty && file.exists()) {
+            return;
+        }
+        Map<String, Entry> snapshot = new HashMap<>(entries);
+        AtomicFileUtil.write(file, false, outstream -> {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outstream));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+                Entry entry = e.getValue();
+                Map<String, String> hashes = entry.hashes;
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.length);
+                out.writeLong(entry.lastModified);
+                out.writeUTF(entry.fileKey == null ? "" : entry.fileKey);
+                out.writeByte(hashes.size());
+                for (Map.Entry<String, String> hash : hashes.entrySet()) {
+                    out.writeUTF(hash.getKey());
+                    out.writeUTF(hash.getValue());
+                }
+            }
+            out.flush();
+        });
+        dirty = false;
+        logger.debug("Saved resource index with {} entries to {}", snapshot.size(), file);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Entry get(@Nonnull URI normalizedURI) {
+        return entries.get(normalizedURI.toString());
+    }
+
+    /**
+     * Record the current state of the given file under the given normalizedURI. Previously recorded hashes
+     * are discarded.
+     *
+     * @param normalizedURI identifies the resource
+     * @param file          the local file of the resource
+     * @return the new entry, or <code>null</code> if the file does not exist
+     */
+    public Entry update(@Nonnull URI normalizedURI, @Nonnull File file) {
+        Entry entry = Entry.of(file);
+        if (entry == null) {
+            remove(normalizedURI);
+        } else {
+            entries.put(normalizedURI.toString(), entry);
+            dirty = true;
+        }
+        return entry;
+    }
+
+    /**
+     * Get the entry for the given normalizedURI if the given file is still in the recorded state. Otherwise
+     * record the current state of the file, without hashes.
+     *
+     * @param normalizedURI identifies the resource
+     * @param file          the local file of the resource
+     * @return the current entry, or <code>null</code> if the file does not exist
+     */
+    public Entry getCurrent(@Nonnull URI normalizedURI, @Nonnull File file) {
+        Entry entry = get(normalizedURI);
+        Entry onDisk = Entry.of(file);
+        if (entry != null && entry.isSameFile(onDisk)) {
+            return entry;
+        }
+        if (onDisk == null) {
+            remove(normalizedURI);
+        } else {
+            entries.put(normalizedURI.toString(), onDisk);
+            dirty = true;
+        }
+        return onDisk;
+    }
+
+    /**
+     * Record a hash in the given entry.
+     *
+     * @param entry     the entry of the resource
+     * @param algorithm algorithm that computed the hash
+     * @param hash      the computed hash
+     */
+    public void putHash(@Nonnull Entry entry, @Nonnull String algorithm, @Nonnull String hash) {
+        entry.hashes.put(algorithm.toLowerCase(), hash);
+        dirty = true;
+    }
+
+    public void remove(@Nonnull URI normalizedURI) {
+        if (entries.remove(normalizedURI.toString()) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Only keep entries for the given normalizedURIs.
+     *
+     * @param normalizedURIs identify the resources of which entries should be kept
+     */
+    public void retainAll(@Nonnull Collection<URI> normalizedURIs) {
+        Set<String> keys = normalizedURIs.stream().map(URI::toString).collect(Collectors.toSet());
+        if (entries.keySet().retainAll(keys)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Recorded state of a local resource.
+     */
+    public static class Entry {
+
+        private final long length;
+        private final long lastModified;
+        private final String fileKey;
+        private final Map<String, String> hashes = new ConcurrentHashMap<>(2);
+
+        Entry(long length, long lastModified, String fileKey) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+
+        static Entry of(File file) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            } catch (IOException e) {
+                return null;
+            }
+            Object key = attrs.fileKey();
+            return new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), key == null ? null : key.toString());
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getHash(@Nonnull String algorithm) {
+            return hashes.get(algorithm.toLowerCase());
+        }
+
+        public String getFileKey() {
+            return fileKey;
+        }
+
+        private boolean isSameFile(Entry other) {
+            return other != null && length == other.length && lastModified == other.lastModified
+              && (fileKey == null || other.fileKey == null || fileKey.equals(other.fileKey));
+        }
+    }
+}
@@ -2,11 +2,14 @@ package nl.knaw.dans.rs.aggregator.sync;
 
 import nl.knaw.dans.rs.aggregator.discover.ResultIndex;
 import nl.knaw.dans.rs.aggregator.discover.RsExplorer;
+import nl.knaw.dans.rs.aggregator.http.HttpClientPool;
 import nl.knaw.dans.rs.aggregator.http.RemoteResourceSyncFrameworkException;
 import nl.knaw.dans.rs.aggregator.http.ResourceReader;
 import nl.knaw.dans.rs.aggregator.http.Result;
+import nl.knaw.dans.rs.aggregator.http.RetryPolicy;
 import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
 import nl.knaw.dans.rs.aggregator.syncore.Sync;
+import nl.knaw.dans.rs.aggregator.util.ExecutorMode;
 import nl.knaw.dans.rs.aggregator.util.HashUtil;
 import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
 import nl.knaw.dans.rs.aggregator.util.NormURI;
@@ -14,19 +17,23 @@ import nl.knaw.dans.rs.aggregator.util.RsProperties;
 import nl.knaw.dans.rs.aggregator.xml.Capability;
 import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
 import nl.knaw.dans.rs.aggregator.xml.RsConstants;
+import nl.knaw.dans.rs.aggregator.xml.RsItem;
 import nl.knaw.dans.rs.aggregator.xml.RsLn;
 import nl.knaw.dans.rs.aggregator.xml.RsMd;
 import nl.knaw.dans.rs.aggregator.xml.RsRoot;
 import nl.knaw.dans.rs.aggregator.xml.Sitemapindex;
 import nl.knaw.dans.rs.aggregator.xml.UrlItem;
 import nl.knaw.dans.rs.aggregator.xml.Urlset;
+import nl.knaw.dans.rs.aggregator.xml.UrlsetReader;
+import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
@@ -35,10 +42,14 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  *
@@ -52,14 +63,22 @@ public class SitemapCollector implements RsConstants {
 
     private ZonedDateTime asOfDateTime;
     private LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception> converter;
+    private BiConsumer<URI, HttpRequest> requestPreparer;
+    private int explorerParallelism = 1;
+    private ExecutorMode executorMode;
     private ResourceReader resourceReader;
+    private RetryPolicy retryPolicy;
 
     private ResultIndex currentIndex;
     private Set<String> invalidUris;
     private List<Result<?>> errorResults;
     private List<Result<?>> unhandledResults;
+    private Supplier<Map<URI, UrlItem>> itemMapSupplier;
     private Map<URI, UrlItem> recentItems;
+    private Map<URI, UrlItem> resourceDumpPackages = new LinkedHashMap<>();
+    private Map<URI, UrlItem> changeDumpPackages = new LinkedHashMap<>();
     private ZonedDateTime ultimateResourceListAt;
+    private ZonedDateTime ultimateResourceDumpAt;
     private ZonedDateTime ultimateChangeListFrom;
 
     private int countCapabilityLists;
@@ -67,6 +86,10 @@ public class SitemapCollector implements RsConstants {
     private int countChangelistIndexes;
     private int countResourceLists;
     private int countChangeLists;
+    private int countResourceDumps;
+    private int countChangeDumps;
+    private int countPrunedLists;
+    private int countNotModified;
 
     private int countRemain;
     private int countCreated;
@@ -84,7 +107,9 @@ public class SitemapCollector implements RsConstants {
 
     public CloseableHttpClient getHttpClient() {
         if (httpClient == null) {
-            httpClient = HttpClients.createDefault();
+            logger.warn("No http client was set on {}. Using an http client of its own, without rate limiting.",
+              getClass().getSimpleName());
+            httpClient = new HttpClientPool().getHttpClient();
         }
         return httpClient;
     }
@@ -135,6 +160,76 @@ public class SitemapCollector implements RsConstants {
         return this;
     }
 
+    public BiConsumer<URI, HttpRequest> getRequestPreparer() {
+        return requestPreparer;
+    }
+
+    /**
+     * Set the function that prepares requests on sitemaps. See
+     * {@link nl.knaw.dans.rs.aggregator.syncore.SitemapConverterProvider#getRequestPreparer()}.
+     *
+     * @param requestPreparer function that prepares requests, may be <code>null</code>
+     * @return <code>this</code> to enable method chaining
+     */
+    public SitemapCollector withRequestPreparer(BiConsumer<URI, HttpRequest> requestPreparer) {
+        this.requestPreparer = requestPreparer;
+        return this;
+    }
+
+    public int getExplorerParallelism() {
+        return explorerParallelism;
+    }
+
+    /**
+     * Set the number of sitemaps that are fetched concurrently. Default is 1. See
+     * {@link RsExplorer#withParallelism(int)}.
+     *
+     * @param explorerParallelism number of concurrently fetched sitemaps
+     * @return <code>this</code> to enable method chaining
+     */
+    public SitemapCollector withExplorerParallelism(int explorerParallelism) {
+        this.explorerParallelism = explorerParallelism;
+        return this;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        if (executorMode == null) {
+            executorMode = ExecutorMode.PLATFORM;
+        }
+        return executorMode;
+    }
+
+    /**
+     * Set the kind of threads that fetch sitemaps concurrently. Default is {@link ExecutorMode#PLATFORM}. See
+     * {@link RsExplorer#withExecutorMode(ExecutorMode)}.
+     *
+     * @param executorMode kind of threads
+     * @return <code>this</code> to enable method chaining
+     */
+    public SitemapCollector withExecutorMode(ExecutorMode executorMode) {
+        this.executorMode = executorMode;
+        return this;
+    }
+
+    public Supplier<Map<URI, UrlItem>> getItemMapSupplier() {
+        if (itemMapSupplier == null) {
+            itemMapSupplier = HashMap::new;
+        }
+        return itemMapSupplier;
+    }
+
+    /**
+     * Set the supplier of the Map that holds the most recent items of a run. Default is a supplier of
+     * {@link HashMap}s. For large resource sets a {@link CompactItemMap} uses less memory.
+     *
+     * @param itemMapSupplier supplier of an empty Map for each run
+     * @return <code>this</code> to enable method chaining
+     */
+    public SitemapCollector withItemMapSupplier(Supplier<Map<URI, UrlItem>> itemMapSupplier) {
+        this.itemMapSupplier = itemMapSupplier;
+        return this;
+    }
+
     public SitemapCollector withResourceReader(ResourceReader resourceReader) {
         this.resourceReader = resourceReader;
         return this;
@@ -144,9 +239,26 @@ public class SitemapCollector implements RsConstants {
         if (resourceReader == null) {
             resourceReader = new ResourceReader(getHttpClient());
         }
+        resourceReader.setRetryPolicy(getRetryPolicy());
         return resourceReader;
     }
 
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set the policy for retries of failed requests for sitemaps and the description document. Default is
+     * <code>null</code>: failed requests are not tried again.
+     *
+     * @param retryPolicy policy for retries, may be <code>null</code>
+     * @return <code>this</code> to enable method chaining
+     */
+    public SitemapCollector withRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
 
     public ResultIndex getCurrentIndex() {
         return currentIndex;
@@ -192,6 +304,28 @@ public class SitemapCollector implements RsConstants {
         return countChangeLists;
     }
 
+    public int getCountResourceDumps() {
+        return countResourceDumps;
+    }
+
+    public int getCountChangeDumps() {
+        return countChangeDumps;
+    }
+
+    /**
+     * Get the number of child documents that were not fetched, because their entry in the parent document had an
+     * <code>rs:md until</code> at or before the asOfDateTime.
+     *
+     * @return number of pruned child documents
+     */
+    public int getCountPrunedLists() {
+        return countPrunedLists;
+    }
+
+    public int getCountNotModified() {
+        return countNotModified;
+    }
+
     public int getCountRemain() {
         return countRemain;
     }
@@ -228,6 +362,30 @@ public class SitemapCollector implements RsConstants {
         return recentItems;
     }
 
+    public ZonedDateTime getUltimateResourceDumpAt() {
+        return ultimateResourceDumpAt;
+    }
+
+    /**
+     * Get the packages of the most recent ResourceDump, if it is more recent than the asOfDateTime. Packages have
+     * the <code>rs:md at</code> of their dump, if they had no date of their own.
+     *
+     * @return items of dump packages, by normalized URI, in the order they were found
+     */
+    public Map<URI, UrlItem> getResourceDumpPackages() {
+        return resourceDumpPackages;
+    }
+
+    /**
+     * Get the packages of ChangeDumps with changes after the asOfDateTime. Packages have the
+     * <code>rs:md from</code> of their dump, if they had no date of their own.
+     *
+     * @return items of dump packages, by normalized URI, in the order they were found
+     */
+    public Map<URI, UrlItem> getChangeDumpPackages() {
+        return changeDumpPackages;
+    }
+
     public boolean hasNewResourceList() {
         return foundNewResourceList;
     }
@@ -236,9 +394,15 @@ public class SitemapCollector implements RsConstants {
         reset();
         RsExplorer explorer = new RsExplorer(getHttpClient(), getRsContext())
           .withConverter(getConverter())
+          .withRequestPreparer(getRequestPreparer())
+          .withParallelism(getExplorerParallelism())
+          .withExecutorMode(getExecutorMode())
+          .withRetryPolicy(getRetryPolicy())
           .withFollowChildLinks(true)
           .withFollowIndexLinks(false)
-          .withFollowParentLinks(false);
+          .withFollowParentLinks(false)
+          .withResultListener(result -> collect(result, pathFinder))
+          .withChildFilter(this::isChildOfInterest);
         currentIndex = explorer.explore(pathFinder.getCapabilityListUri());
 
         invalidUris = currentIndex.getInvalidUris();
@@ -246,15 +410,14 @@ public class SitemapCollector implements RsConstants {
             logger.warn("Found invalid URI: {}", invalidUri);
         }
 
+        // errors on relations between documents are only known after exploration
         for (Result<?> result : currentIndex.getResultMap().values()) {
-            if (result.hasErrors()) {
+            if (result.hasErrors() && !errorResults.contains(result)) {
                 errorResults.add(result);
                 for (Throwable error : result.getErrors()) {
                     logger.warn("Result has errors. URI: {}, msg: {}", pathFinder.getCapabilityListUri(),
                       error.getMessage());
                 }
-            } else {
-                analyze(result, pathFinder);
             }
         }
         setNewResourceListFound(pathFinder);
@@ -281,14 +444,20 @@ public class SitemapCollector implements RsConstants {
         syncProps.setInt(Sync.PROP_CL_COUNT_INVALID_URIS, invalidUris.size());
         syncProps.setInt(Sync.PROP_CL_COUNT_ERROR_RESULTS, errorResults.size());
         syncProps.setInt(Sync.PROP_CL_COUNT_UNHNDLED_RESULTS, unhandledResults.size());
+        syncProps.setInt(Sync.PROP_CL_COUNT_NOT_MODIFIED, countNotModified);
 
         syncProps.setInt(Sync.PROP_CL_COUNT_CAPABILITY_LISTS, countCapabilityLists);
         syncProps.setInt(Sync.PROP_CL_COUNT_RESOURCELIST_INDEXES, countResourceListIndexes);
         syncProps.setInt(Sync.PROP_CL_COUNT_CHANGELIST_INDEXES, countChangelistIndexes);
         syncProps.setInt(Sync.PROP_CL_COUNT_RESOURCELISTS, countResourceLists);
         syncProps.setInt(Sync.PROP_CL_COUNT_CHANGELISTS, countChangeLists);
+        syncProps.setInt(Sync.PROP_CL_COUNT_RESOURCEDUMPS, countResourceDumps);
+        syncProps.setInt(Sync.PROP_CL_COUNT_CHANGEDUMPS, countChangeDumps);
+        syncProps.setInt(Sync.PROP_CL_COUNT_PRUNED_LISTS, countPrunedLists);
+        syncProps.setInt(Sync.PROP_CL_COUNT_DUMP_PACKAGES, resourceDumpPackages.size() + changeDumpPackages.size());
 
         syncProps.setDateTime(Sync.PROP_CL_DATE_LATEST_RESOURCELIST, ultimateResourceListAt);
+        syncProps.setDateTime(Sync.PROP_CL_DATE_LATEST_RESOURCEDUMP, ultimateResourceDumpAt);
         syncProps.setDateTime(Sync.PROP_CL_DATE_LATEST_CHANGELIST, ultimateChangeListFrom);
         syncProps.setBool(Sync.PROP_CL_FOUND_NEW_RESOURCELIST, foundNewResourceList);
 
@@ -316,13 +485,19 @@ public class SitemapCollector implements RsConstants {
         currentIndex = null;
         errorResults = new ArrayList<>();
         unhandledResults = new ArrayList<>();
-        recentItems = new HashMap<>();
+        recentItems = getItemMapSupplier().get();
+        resourceDumpPackages = new LinkedHashMap<>();
+        changeDumpPackages = new LinkedHashMap<>();
 
         countCapabilityLists = 0;
         countResourceListIndexes = 0;
         countChangelistIndexes = 0;
         countResourceLists = 0;
         countChangeLists = 0;
+        countResourceDumps = 0;
+        countChangeDumps = 0;
+        countPrunedLists = 0;
+        countNotModified = 0;
 
         countRemain = 0;
         countCreated = 0;
@@ -330,6 +505,7 @@ public class SitemapCollector implements RsConstants {
         countDeleted = 0;
 
         ultimateResourceListAt = ZonedDateTime.parse(NULL_DATE).withZoneSameInstant(ZoneOffset.UTC);
+        ultimateResourceDumpAt = ZonedDateTime.parse(NULL_DATE).withZoneSameInstant(ZoneOffset.UTC);
         ultimateChangeListFrom = ZonedDateTime.parse(NULL_DATE).withZoneSameInstant(ZoneOffset.UTC);
 
         foundNewResourceList = true; // -> causes syncWorker to call .keepOnly on ResourceManager,
@@ -339,6 +515,54 @@ public class SitemapCollector implements RsConstants {
         descriptionType = "";
     }
 
+    /**
+     * Decide whether the child document of the given item should be fetched. A changeList or changeDump with an
+     * <code>rs:md until</code> at or before the asOfDateTime has nothing new, so it is pruned before it is
+     * fetched. The <code>rs:md from</code> of a pruned changeList still counts for the date of the latest
+     * changeList.
+     *
+     * @param item entry in a sitemapindex or capabilityList
+     * @return <code>true</code> if the child document should be fetched, <code>false</code> otherwise
+     */
+    private boolean isChildOfInterest(RsItem<?> item) {
+        Optional<RsMd> maybeMd = item.getMetadata();
+        ZonedDateTime until = maybeMd.flatMap(RsMd::getUntil).orElse(null);
+        if (until == null || until.isAfter(getAsOfDateTime())) {
+            return true;
+        }
+        String capability = maybeMd.flatMap(RsMd::getCapability).orElse(Capability.CHANGELIST.xmlValue);
+        ZonedDateTime from = maybeMd.flatMap(RsMd::getFrom).orElse(null);
+        if (Capability.CHANGELIST.xmlValue.equals(capability) && from != null && from.isAfter(ultimateChangeListFrom)) {
+            ultimateChangeListFrom = from;
+        }
+        countPrunedLists++;
+        logger.debug("Pruned {} because until date {} <= {}", item.getLoc(), until, getAsOfDateTime());
+        return false;
+    }
+
+    /**
+     * Analyze a result as soon as the explorer indexed it. The items of a list are merged with the recent items
+     * and then dropped from the result, so that only the header of the list stays in the current index.
+     *
+     * @param result     the indexed result
+     * @param pathFinder the current pathFinder
+     */
+    private void collect(Result<RsRoot> result, PathFinder pathFinder) {
+        if (result.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+            countNotModified++;
+        }
+        if (!result.hasErrors()) {
+            analyze(result, pathFinder);
+        }
+        RsRoot rsRoot = result.getContent().orElse(null);
+        if (rsRoot instanceof Urlset && !((Urlset) rsRoot).isHeaderOnly()
+          && Capability.levelfor(rsRoot.getMetadata().getCapability().orElse("")) == Capability.RESOURCELIST.level) {
+            Urlset header = new Urlset(rsRoot.getMetadata()).withHeaderOnly(true);
+            header.getLinkList().addAll(rsRoot.getLinkList());
+            result.accept(header);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private void analyze(Result<?> result, PathFinder pathFinder) {
         if (result.getContent().isPresent()) {
@@ -385,12 +609,16 @@ public class SitemapCollector implements RsConstants {
         try {
             Capability capa = Capability.forString(xmlValue);
             if (capa == Capability.RESOURCELIST) {
-                analyzeResourceList(usResult);
+                analyzeResourceList(usResult, pathFinder);
             } else if (capa == Capability.CHANGELIST) {
-                analyzeChangeList(usResult);
+                analyzeChangeList(usResult, pathFinder);
             } else if (capa == Capability.CAPABILITYLIST) {
                 analyzeCapabilityList(usResult, pathFinder);
                 countCapabilityLists++;
+            } else if (capa == Capability.RESOURCEDUMP) {
+                analyzeResourceDump(usResult, pathFinder);
+            } else if (capa == Capability.CHANGEDUMP) {
+                analyzeChangeDump(usResult, pathFinder);
             } else {
                 unhandledResults.add(usResult);
                 logger.warn("Cannot handle urlsets with capability {} : {}", xmlValue, usResult);
@@ -402,7 +630,7 @@ public class SitemapCollector implements RsConstants {
         }
     }
 
-    private void analyzeResourceList(Result<Urlset> usResult) {
+    private void analyzeResourceList(Result<Urlset> usResult, PathFinder pathFinder) {
         Urlset resourcelist = usResult.getContent().orElse(null);
         ZonedDateTime listAt;
         // ultimate date for resourceLists is in required md:at attribute
@@ -425,7 +653,7 @@ public class SitemapCollector implements RsConstants {
             countResourceLists++;
 
             // walk item list
-            for (UrlItem item : resourcelist.getItemList()) {
+            forEachItem(usResult, pathFinder, item -> {
                 countRemain++;
 
                 // set rs:at on item if not present
@@ -436,14 +664,15 @@ public class SitemapCollector implements RsConstants {
                 logger.debug("Resourcelist: at {}, {}", item.getRsMdAt(), item.getLoc());
                 // merge item with recentItems
                 mergeItem(usResult, item);
-            }
+                return true;
+            });
         } else {
             logger
               .debug("Skipping resourceList because completed date {} <= {}: {}", listAt, getAsOfDateTime(), usResult);
         }
     }
 
-    private void analyzeChangeList(Result<Urlset> usResult) {
+    private void analyzeChangeList(Result<Urlset> usResult, PathFinder pathFinder) {
         Urlset changelist = usResult.getContent().orElse(null);
         ZonedDateTime listFrom;
 
@@ -468,47 +697,161 @@ public class SitemapCollector implements RsConstants {
             countChangeLists++;
 
             // walk item list
-            for (UrlItem item : changelist.getItemList()) {
+            // items at or before asOfDateTime were handled by a previous run
+            forEachItem(usResult, pathFinder, getAsOfDateTime(),
+              item -> analyzeChangeListItem(usResult, item, listFrom));
+        } else {
+            logger.debug("Skipping changeList because until date {} <= {}: {}", listFrom, getAsOfDateTime(), usResult);
+        }
+    }
+
+    private boolean analyzeChangeListItem(Result<Urlset> usResult, UrlItem item, ZonedDateTime listFrom) {
+        // set rs:datetime on item if not present
+        Optional<ZonedDateTime> dateTime = item.getMetadata().flatMap(RsMd::getDateTime);
+        if (!dateTime.isPresent()) {
+            item.getMetadata().map(rsMd1 -> rsMd1.withFrom(listFrom));
+        }
+
+        if (item.getRsMdDateTime().isAfter(getAsOfDateTime())) {
+            // keep count of changes
+            Optional<String> maybeChange = item.getMetadata().flatMap(RsMd::getChange);
+            if (maybeChange.isPresent()) {
+                String change = maybeChange.get();
+                if (CH_CREATED.equalsIgnoreCase(change)) {
+                    countCreated++;
+                } else if (CH_UPDATED.equalsIgnoreCase(change)) {
+                    countUpdated++;
+                } else if (CH_DELETED.equalsIgnoreCase(change)) {
+                    countDeleted++;
+                } else {
+                    usResult.addError(new RemoteResourceSyncFrameworkException(
+                      "Unrecognized md:change attribute on changeList: " + change));
+                    errorResults.add(usResult);
+                    logger.warn("Unrecognized md:change attribute on changeList '{} : {}", change,
+                      usResult);
+                    return false;
+                }
+            } else {
+                usResult.addError(new RemoteResourceSyncFrameworkException(
+                  "Missing required md:change attribute on changeList"));
+                errorResults.add(usResult);
+                logger.warn("Missing required md:change attribute on changeList: {}", usResult);
+                return false;
+            }
+            logger.debug("Changelist: datetime {}, {}", item.getRsMdDateTime(), item.getLoc());
+            // merge item with recentItems
+            mergeItem(usResult, item);
+        }
+        return true;
+    }
 
-                // set rs:datetime on item if not present
-                Optional<ZonedDateTime> dateTime = item.getMetadata().flatMap(RsMd::getDateTime);
-                if (!dateTime.isPresent()) {
-                    item.getMetadata().map(rsMd1 -> rsMd1.withFrom(listFrom));
+    private void analyzeResourceDump(Result<Urlset> usResult, PathFinder pathFinder) {
+        Urlset resourceDump = usResult.getContent().orElse(null);
+        Optional<ZonedDateTime> maybeDumpAt = resourceDump.getMetadata().getAt();
+        if (!maybeDumpAt.isPresent()) {
+            usResult
+              .addError(new RemoteResourceSyncFrameworkException("Missing required md:at attribute on resourceDump"));
+            errorResults.add(usResult);
+            logger.warn("Missing required md:at attribute on resourceDump at {}", usResult);
+            return;
+        }
+        ZonedDateTime dumpAt = maybeDumpAt.get();
+        ZonedDateTime rdDate = resourceDump.getMetadata().getCompleted().orElse(dumpAt);
+        // only the packages of the most recent resourceDump are of interest
+        if (dumpAt.isBefore(ultimateResourceDumpAt)) {
+            logger.debug("Skipping resourceDump because a more recent resourceDump was found: {}", usResult);
+            return;
+        } else if (dumpAt.isAfter(ultimateResourceDumpAt)) {
+            resourceDumpPackages.clear();
+            ultimateResourceDumpAt = dumpAt;
+        }
+        if (rdDate.isAfter(getAsOfDateTime())) {
+            countResourceDumps++;
+            forEachItem(usResult, pathFinder, item -> {
+                // set rs:at on package if not present
+                if (!item.getMetadata().flatMap(RsMd::getAt).isPresent()) {
+                    item.getMetadata().map(rsMd1 -> rsMd1.withAt(dumpAt));
+                }
+                logger.debug("Resourcedump: at {}, {}", item.getRsMdAt(), item.getLoc());
+                mergePackage(usResult, item, resourceDumpPackages);
+                return true;
+            });
+        } else {
+            logger.debug("Skipping resourceDump because completed date {} <= {}: {}", rdDate, getAsOfDateTime(),
+              usResult);
+        }
+    }
+
+    private void analyzeChangeDump(Result<Urlset> usResult, PathFinder pathFinder) {
+        Urlset changeDump = usResult.getContent().orElse(null);
+        Optional<ZonedDateTime> maybeDumpFrom = changeDump.getMetadata().getFrom();
+        if (!maybeDumpFrom.isPresent()) {
+            usResult
+              .addError(new RemoteResourceSyncFrameworkException("Missing required md:from attribute on changeDump"));
+            errorResults.add(usResult);
+            logger.warn("Missing required md:from attribute on changeDump: {}", usResult);
+            return;
+        }
+        ZonedDateTime dumpFrom = maybeDumpFrom.get();
+        ZonedDateTime cdDate = changeDump.getMetadata().getUntil().orElse(dumpFrom);
+        if (cdDate.isAfter(getAsOfDateTime())) {
+            countChangeDumps++;
+            forEachItem(usResult, pathFinder, item -> {
+                // set rs:from on package if not present
+                if (!item.getMetadata().flatMap(RsMd::getFrom).isPresent()) {
+                    item.getMetadata().map(rsMd1 -> rsMd1.withFrom(dumpFrom));
                 }
+                // a package with changes until asOfDateTime has nothing new
+                ZonedDateTime packageDate = item.getMetadata().flatMap(RsMd::getUntil).orElse(null);
+                if (packageDate == null || packageDate.isAfter(getAsOfDateTime())) {
+                    logger.debug("Changedump: from {}, {}", item.getRsMdFrom(), item.getLoc());
+                    mergePackage(usResult, item, changeDumpPackages);
+                }
+                return true;
+            });
+        } else {
+            logger.debug("Skipping changeDump because until date {} <= {}: {}", cdDate, getAsOfDateTime(), usResult);
+        }
+    }
+
+    private void forEachItem(Result<Urlset> usResult, PathFinder pathFinder, Predicate<UrlItem> action) {
+        forEachItem(usResult, pathFinder, null, action);
+    }
 
-                if (item.getRsMdDateTime().isAfter(getAsOfDateTime())) {
-                    // keep count of changes
-                    Optional<String> maybeChange = item.getMetadata().flatMap(RsMd::getChange);
-                    if (maybeChange.isPresent()) {
-                        String change = maybeChange.get();
-                        if (CH_CREATED.equalsIgnoreCase(change)) {
-                            countCreated++;
-                        } else if (CH_UPDATED.equalsIgnoreCase(change)) {
-                            countUpdated++;
-                        } else if (CH_DELETED.equalsIgnoreCase(change)) {
-                            countDeleted++;
-                        } else {
-                            usResult.addError(new RemoteResourceSyncFrameworkException(
-                              "Unrecognized md:change attribute on changeList: " + change));
-                            errorResults.add(usResult);
-                            logger.warn("Unrecognized md:change attribute on changeList '{} : {}", change,
-                              usResult);
-                            return;
-                        }
-                    } else {
-                        usResult.addError(new RemoteResourceSyncFrameworkException(
-                          "Missing required md:change attribute on changeList"));
-                        errorResults.add(usResult);
-                        logger.warn("Missing required md:change attribute on changeList: {}", usResult);
-                        return;
-                    }
-                    logger.debug("Changelist: datetime {}, {}", item.getRsMdDateTime(), item.getLoc());
-                    // merge item with recentItems
-                    mergeItem(usResult, item);
+    /**
+     * Walk the items of the urlset in the given result, until the <code>action</code> returns <code>false</code>.
+     * Items of a header-only urlset are streamed from the metadata file of the urlset. Streamed items with an
+     * <code>rs:md datetime</code> at or before <code>skipUpTo</code> are skipped without being parsed.
+     *
+     * @param usResult result with a urlset
+     * @param pathFinder the current pathFinder
+     * @param skipUpTo streamed items up to and including this date are skipped, may be <code>null</code>
+     * @param action action on each item, returns <code>false</code> if the walk should stop
+     */
+    private void forEachItem(Result<Urlset> usResult, PathFinder pathFinder, ZonedDateTime skipUpTo,
+                             Predicate<UrlItem> action) {
+        Urlset urlset = usResult.getContent().orElse(null);
+        if (urlset.isHeaderOnly()) {
+            File file = pathFinder.findMetadataFilePath(usResult.getUri());
+            try (UrlsetReader reader = new UrlsetReader(file).withSkipUpTo(skipUpTo)) {
+                UrlItem item;
+                while ((item = reader.readItem()) != null && action.test(item)) {
+                    // item handled by action
+                }
+                if (reader.getSkippedCount() > 0) {
+                    logger.debug("Skipped {} items up to {} in {}", reader.getSkippedCount(), skipUpTo, file);
                 }
+            } catch (IOException | XMLStreamException e) {
+                usResult.addError(e);
+                errorResults.add(usResult);
+                logger.error("Could not read items from {} : {}", file, usResult, e);
             }
         } else {
-            logger.debug("Skipping changeList because until date {} <= {}: {}", listFrom, getAsOfDateTime(), usResult);
+            for (UrlItem item : urlset.getItemList()) {
+                if (!action.test(item)) {
+                    break;
+                }
+            }
         }
     }
 
@@ -542,6 +885,17 @@ public class SitemapCollector implements RsConstants {
         }
     }
 
+    private void mergePackage(Result<Urlset> usResult, UrlItem item, Map<URI, UrlItem> packages) {
+        Optional<URI> maybeUri = NormURI.normalize(item.getLoc());
+        if (maybeUri.isPresent()) {
+            packages.merge(maybeUri.get(), item, UrlItem::latest);
+        } else {
+            usResult.addError(new RemoteResourceSyncFrameworkException("Missing required loc element on urlItem"));
+            errorResults.add(usResult);
+            logger.warn("Missing required loc element on urlItem: {}", usResult);
+        }
+    }
+
 //  private PathFinder getCurrentPathFinder() {
 //    if (currentPathFinder == null) throw new IllegalStateException("No current PathFinder");
 //    return currentPathFinder;
@@ -1,19 +1,25 @@
 package nl.knaw.dans.rs.aggregator.sync;
 
-import nl.knaw.dans.rs.aggregator.schedule.Job;
+import nl.knaw.dans.rs.aggregator.http.HttpClientPool;
+import nl.knaw.dans.rs.aggregator.http.ResourceReader;
+import nl.knaw.dans.rs.aggregator.http.RetryPolicy;
+import nl.knaw.dans.rs.aggregator.schedule.PollingJob;
 import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
 import nl.knaw.dans.rs.aggregator.syncore.ResourceManager;
 import nl.knaw.dans.rs.aggregator.syncore.SitemapConverterProvider;
 import nl.knaw.dans.rs.aggregator.syncore.Sync;
 import nl.knaw.dans.rs.aggregator.syncore.SyncPostProcessor;
 import nl.knaw.dans.rs.aggregator.syncore.VerificationPolicy;
+import nl.knaw.dans.rs.aggregator.util.AtomicFileUtil;
+import nl.knaw.dans.rs.aggregator.util.ExecutorMode;
+import nl.knaw.dans.rs.aggregator.util.HostPermits;
 import nl.knaw.dans.rs.aggregator.util.NormURI;
 import nl.knaw.dans.rs.aggregator.util.RsProperties;
 import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
 
 import javax.xml.bind.JAXBException;
 import java.io.File;
@@ -21,17 +27,37 @@ import java.io.IOException;
 import java.net.URI;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
+ * Synchronizes the resource sets of the capability lists listed in the file at uriListLocation.
+ * <p>
+ * By default resource sets are synchronized one after the other. If maxConcurrentSets is greater than 1,
+ * up to that number of resource sets are synchronized at the same time, each with its own
+ * {@link SitemapConverterProvider}, {@link SitemapCollector}, {@link ResourceManager}, {@link SyncWorker} and
+ * {@link PathFinder}. Isolated components are new instances of the classes of the configured components,
+ * with their bean properties copied.
+ * </p>
+ * <p>
+ * As a {@link PollingJob} each resource set can also be synchronized on its own schedule, for instance by an
+ * {@link nl.knaw.dans.rs.aggregator.schedule.AdaptivePollingScheduler}. Each poll then uses isolated components.
+ * </p>
  * Created on 2017-05-03 17:05.
  */
-public class SyncJob implements Job {
+public class SyncJob implements PollingJob {
 
     private static Logger logger = LoggerFactory.getLogger(SyncJob.class);
 
+    private HttpClientPool httpClientPool;
     private CloseableHttpClient httpClient;
     private ResourceSyncContext rsContext;
 
@@ -45,6 +71,17 @@ public class SyncJob implements Job {
     private String uriListLocation;
     private String baseDirectory;
 
+    private int parallelism = 1;
+    private int permitsPerHost;
+    private int maxConcurrentSets = 1;
+    private boolean compactItemMap;
+    private boolean bootstrapFromDump = true;
+    private int explorerParallelism = 1;
+    private ExecutorMode executorMode = ExecutorMode.PLATFORM;
+    private RetryPolicy retryPolicy;
+    private boolean tempFilesDeleted;
+    private HostPermits pollHostPermits;
+
     public SitemapConverterProvider getSitemapConverterProvider() {
         if (sitemapConverterProvider == null) {
             sitemapConverterProvider = new FsSitemapConverterProvider();
@@ -93,9 +130,21 @@ public class SyncJob implements Job {
         this.syncPostProcessor = syncPostProcessor;
     }
 
+    public HttpClientPool getHttpClientPool() {
+        if (httpClientPool == null) {
+            httpClientPool = new HttpClientPool();
+        }
+        return httpClientPool;
+    }
+
+    public void setHttpClientPool(HttpClientPool httpClientPool) {
+        logger.info("Http client pool: {}", httpClientPool);
+        this.httpClientPool = httpClientPool;
+    }
+
     public CloseableHttpClient getHttpClient() {
         if (httpClient == null) {
-            httpClient = HttpClients.createDefault();
+            httpClient = getHttpClientPool().getHttpClient();
         }
         return httpClient;
     }
@@ -156,7 +205,147 @@ public class SyncJob implements Job {
         this.baseDirectory = baseDirectory;
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of resources that will be synchronized concurrently. Default is 1.
+     *
+     * @param parallelism number of concurrently synchronized resources
+     */
+    public void setParallelism(int parallelism) {
+        logger.info("Parallelism: {}", parallelism);
+        this.parallelism = parallelism;
+    }
+
+    public int getPermitsPerHost() {
+        if (permitsPerHost < 1) {
+            permitsPerHost = getParallelism();
+        }
+        return permitsPerHost;
+    }
+
+    /**
+     * Set the maximum number of resources that will be synchronized concurrently from the same host.
+     * Default is the value of parallelism.
+     *
+     * @param permitsPerHost maximum number of concurrently synchronized resources per host
+     */
+    public void setPermitsPerHost(int permitsPerHost) {
+        logger.info("Permits per host: {}", permitsPerHost);
+        this.permitsPerHost = permitsPerHost;
+    }
+
+    public int getMaxConcurrentSets() {
+        return maxConcurrentSets;
+    }
+
+    /**
+     * Set the maximum number of resource sets that will be synchronized at the same time. Default is 1.
+     *
+     * @param maxConcurrentSets maximum number of concurrently synchronized resource sets
+     */
+    public void setMaxConcurrentSets(int maxConcurrentSets) {
+        if (maxConcurrentSets < 1) {
+            throw new IllegalArgumentException("Max concurrent sets cannot be less then 1.");
+        }
+        logger.info("Max concurrent sets: {}", maxConcurrentSets);
+        this.maxConcurrentSets = maxConcurrentSets;
+    }
+
+    public int getExplorerParallelism() {
+        return explorerParallelism;
+    }
+
+    /**
+     * Set the number of sitemaps of a resource set that are fetched concurrently. With a value greater than 1
+     * the tree of sitemaps is explored breadth-first. Default is 1.
+     *
+     * @param explorerParallelism number of concurrently fetched sitemaps
+     */
+    public void setExplorerParallelism(int explorerParallelism) {
+        if (explorerParallelism < 1) {
+            throw new IllegalArgumentException("Explorer parallelism cannot be less then 1.");
+        }
+        logger.info("Explorer parallelism: {}", explorerParallelism);
+        this.explorerParallelism = explorerParallelism;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    /**
+     * Set the kind of threads that synchronize resources and fetch sitemaps concurrently, if parallelism
+     * or explorer parallelism is greater than 1. With {@link ExecutorMode#VIRTUAL} each concurrent action runs
+     * in its own virtual thread, so a high parallelism does not tie up a platform thread per waiting download.
+     * Default is {@link ExecutorMode#PLATFORM}.
+     * <p>
+     * The http client pins a virtual thread to its carrier while it waits for a pooled connection. If many
+     * virtual threads wait for a connection at the same time they can starve the threads that hold one. With
+     * {@link ExecutorMode#VIRTUAL} the maximum number of connections per route should therefore not be less
+     * than the number of concurrent requests.
+     * </p>
+     *
+     * @param executorMode kind of threads
+     */
+    public void setExecutorMode(ExecutorMode executorMode) {
+        logger.info("Executor mode: {}", executorMode);
+        this.executorMode = executorMode;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set the policy for retries of failed requests. Each resource set gets its own retry budget per run.
+     * Default is <code>null</code>: failed requests are not tried again.
+     *
+     * @param retryPolicy policy for retries, may be <code>null</code>
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        logger.info("Retry policy: {}", retryPolicy);
+        this.retryPolicy = retryPolicy;
+    }
+
+    public boolean isCompactItemMap() {
+        return compactItemMap;
+    }
+
+    /**
+     * Set whether the sitemap collector keeps the most recent items in a {@link CompactItemMap}, which uses
+     * less memory than the default HashMap at the cost of some cpu time. Default is <code>false</code>.
+     *
+     * @param compactItemMap <code>true</code> for a compact map of recent items
+     */
+    public void setCompactItemMap(boolean compactItemMap) {
+        logger.info("Compact item map: {}", compactItemMap);
+        this.compactItemMap = compactItemMap;
+    }
+
+    public boolean isBootstrapFromDump() {
+        return bootstrapFromDump;
+    }
+
+    /**
+     * Set whether a resource set that was never fully synchronized is filled from its most recent ResourceDump,
+     * instead of downloading all resources one by one. Default is <code>true</code>.
+     *
+     * @param bootstrapFromDump <code>true</code> to bootstrap resource sets from a ResourceDump
+     * @see SyncWorker#withBootstrapFromDump(boolean)
+     */
+    public void setBootstrapFromDump(boolean bootstrapFromDump) {
+        logger.info("Bootstrap from dump: {}", bootstrapFromDump);
+        this.bootstrapFromDump = bootstrapFromDump;
+    }
+
     public void readListAndSynchronize() throws Exception {
+        synchronize(readList());
+    }
+
+    private List<URI> readList() throws IOException {
         List<URI> uriList = new ArrayList<>();
         Scanner scanner = new Scanner(new File(getUriListLocation()));
         while (scanner.hasNextLine()) {
@@ -168,33 +357,142 @@ public class SyncJob implements Job {
                 logger.warn("Unable to convert {} to a URI", uriString);
             }
         }
-        synchronize(uriList);
+        return uriList;
     }
 
     public void synchronize(List<URI> uriList) throws Exception {
-        SitemapConverterProvider sitemapConverterProvider = getSitemapConverterProvider()
-          .withResourceSyncContext(getRsContext());
-        SitemapCollector sitemapCollector = getSitemapCollector()
+        deleteTempFiles();
+        HostPermits hostPermits = new HostPermits(getPermitsPerHost());
+        checkConnectionsPerRoute(uriList.size());
+        if (getMaxConcurrentSets() > 1 && uriList.size() > 1) {
+            synchronizeConcurrently(uriList, hostPermits);
+        } else {
+            SitemapConverterProvider sitemapConverterProvider = getSitemapConverterProvider();
+            SitemapCollector sitemapCollector = getSitemapCollector();
+            SyncWorker syncWorker = createSyncWorker(sitemapConverterProvider, sitemapCollector,
+              getResourceManager(), hostPermits);
+            SyncPostProcessor syncPostProcessor = getSyncPostProcessor();
+
+            for (URI uri : uriList) {
+                synchronize(uri, sitemapConverterProvider, syncWorker, syncPostProcessor);
+            }
+        }
+        if (httpClientPool != null) {
+            logger.info("Http client pool: {}", httpClientPool.getTotalStats());
+        }
+    }
+
+    private void synchronizeConcurrently(List<URI> uriList, HostPermits hostPermits) throws Exception {
+        int poolSize = Math.min(getMaxConcurrentSets(), uriList.size());
+        logger.info("Synchronizing {} resource sets, max {} at the same time", uriList.size(), poolSize);
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        Map<URI, Future<?>> futures = new LinkedHashMap<>();
+        try {
+            for (URI uri : uriList) {
+                futures.put(uri, executor.submit(() -> {
+                    SitemapConverterProvider sitemapConverterProvider = newInstance(getSitemapConverterProvider());
+                    SyncWorker syncWorker = createSyncWorker(sitemapConverterProvider,
+                      newInstance(getSitemapCollector()), newInstance(getResourceManager()), hostPermits);
+                    synchronize(uri, sitemapConverterProvider, syncWorker, newInstance(getSyncPostProcessor()));
+                    return null;
+                }));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        int failures = 0;
+        Throwable firstCause = null;
+        for (Map.Entry<URI, Future<?>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().get();
+            } catch (ExecutionException e) {
+                logger.error("Could not synchronize {}", entry.getKey(), e.getCause());
+                failures++;
+                if (firstCause == null) {
+                    firstCause = e.getCause();
+                }
+            }
+        }
+        if (failures > 0) {
+            throw new RuntimeException("Could not synchronize " + failures + " of " + uriList.size()
+              + " resource sets", firstCause);
+        }
+    }
+
+    private RsProperties synchronize(URI uri, SitemapConverterProvider sitemapConverterProvider,
+                                     SyncWorker syncWorker, SyncPostProcessor syncPostProcessor) throws Exception {
+        SitemapCollector sitemapCollector = syncWorker.getSitemapCollector();
+        PathFinder pathFinder = new PathFinder(getBaseDirectory(), uri);
+        RsProperties currentSyncProps = new RsProperties();
+        setLatestSyncRun(pathFinder, sitemapCollector);
+
+        sitemapConverterProvider.setPathFinder(pathFinder);
+        syncWorker.synchronize(pathFinder, currentSyncProps);
+        syncPostProcessor.postProcess(sitemapCollector.getCurrentIndex(), pathFinder, currentSyncProps);
+        return currentSyncProps;
+    }
+
+    private SyncWorker createSyncWorker(SitemapConverterProvider sitemapConverterProvider,
+                                        SitemapCollector sitemapCollector, ResourceManager resourceManager,
+                                        HostPermits hostPermits) {
+        sitemapConverterProvider.withResourceSyncContext(getRsContext());
+        resourceManager.setHttpClient(getHttpClient());
+        sitemapCollector
           .withHttpClient(getHttpClient())
           .withRsContext(getRsContext())
-          .withConverter(sitemapConverterProvider.getConverter());
-        SyncWorker syncWorker = new SyncWorker()
+          .withConverter(sitemapConverterProvider.getConverter())
+          .withRequestPreparer(sitemapConverterProvider.getRequestPreparer())
+          .withItemMapSupplier(isCompactItemMap() ? CompactItemMap::new : HashMap::new)
+          .withExplorerParallelism(getExplorerParallelism())
+          .withExecutorMode(getExecutorMode());
+        return new SyncWorker()
           .withSitemapCollector(sitemapCollector)
           .withVerificationPolicy(getVerificationPolicy())
-          .withResourceManager(getResourceManager());
-        SyncPostProcessor syncPostProcessor = getSyncPostProcessor();
+          .withResourceManager(resourceManager)
+          .withParallelism(getParallelism())
+          .withExecutorMode(getExecutorMode())
+          .withRetryPolicy(getRetryPolicy())
+          .withBootstrapFromDump(isBootstrapFromDump())
+          .withHostPermits(hostPermits);
+    }
 
-        for (URI uri : uriList) {
-            PathFinder pathFinder = new PathFinder(getBaseDirectory(), uri);
-            RsProperties currentSyncProps = new RsProperties();
-            setLatestSyncRun(pathFinder, sitemapCollector);
+    /**
+     * Remove temporary and partial files that an interrupted earlier run left in the base directory. This is done
+     * once, on the first run of this SyncJob.
+     */
+    private void deleteTempFiles() throws IOException {
+        if (tempFilesDeleted) {
+            return;
+        }
+        int deleted = AtomicFileUtil.deleteTempFiles(new File(getBaseDirectory()), ResourceReader::isResumable,
+          AtomicFileUtil.TEMP_EXTENSION, ResourceReader.PART_EXTENSION, ResourceReader.VALIDATOR_EXTENSION);
+        if (deleted > 0) {
+            logger.info("Deleted {} temporary files left by an earlier run from {}", deleted, getBaseDirectory());
+        }
+        tempFilesDeleted = true;
+    }
 
-            sitemapConverterProvider.setPathFinder(pathFinder);
-            syncWorker.synchronize(pathFinder, currentSyncProps);
-            syncPostProcessor.postProcess(sitemapCollector.getCurrentIndex(), pathFinder, currentSyncProps);
+    private void checkConnectionsPerRoute(int resourceSets) {
+        if (getExecutorMode() != ExecutorMode.VIRTUAL || httpClientPool == null) {
+            return;
+        }
+        int requests = Math.min(getMaxConcurrentSets(), Math.max(1, resourceSets))
+          * Math.max(getParallelism(), getExplorerParallelism());
+        if (httpClientPool.getMaxPerRoute() < requests) {
+            logger.warn("Executor mode {} with up to {} concurrent requests, but only {} connections per route. "
+              + "Virtual threads waiting for a connection may starve.", getExecutorMode(), requests,
+              httpClientPool.getMaxPerRoute());
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private static <T> T newInstance(T bean) {
+        T copy = (T) BeanUtils.instantiateClass(bean.getClass());
+        BeanUtils.copyProperties(bean, copy);
+        return copy;
+    }
+
     private void setLatestSyncRun(PathFinder pathFinder, SitemapCollector sitemapCollector) {
         File prevSyncPropFile = pathFinder.getPrevSyncPropXmlFile();
         ZonedDateTime latestSyncRun = null;
@@ -211,8 +509,48 @@ public class SyncJob implements Job {
         logger.info("only looking at item-events after {}", sitemapCollector.getAsOfDateTime());
     }
 
+    private synchronized HostPermits getPollHostPermits() {
+        if (pollHostPermits == null) {
+            pollHostPermits = new HostPermits(getPermitsPerHost());
+        }
+        return pollHostPermits;
+    }
+
     @Override
     public void execute() throws Exception {
         readListAndSynchronize();
     }
+
+    /**
+     * Read the capability lists listed in the file at uriListLocation.
+     *
+     * @return the capability lists to poll
+     * @throws Exception if the list cannot be read
+     */
+    @Override
+    public List<URI> getSources() throws Exception {
+        deleteTempFiles();
+        List<URI> uriList = readList();
+        checkConnectionsPerRoute(uriList.size());
+        return uriList;
+    }
+
+    /**
+     * Synchronize the resource set of the given capability list with isolated components. Polls of different
+     * capability lists share the permits per host.
+     *
+     * @param source a capability list
+     * @return the number of resources created, updated and deleted according to the change lists of the source
+     * @throws Exception if the resource set could not be synchronized
+     */
+    @Override
+    public int poll(URI source) throws Exception {
+        SitemapConverterProvider sitemapConverterProvider = newInstance(getSitemapConverterProvider());
+        SyncWorker syncWorker = createSyncWorker(sitemapConverterProvider, newInstance(getSitemapCollector()),
+          newInstance(getResourceManager()), getPollHostPermits());
+        RsProperties syncProps = synchronize(source, sitemapConverterProvider, syncWorker,
+          newInstance(getSyncPostProcessor()));
+        return syncProps.getInt(Sync.PROP_CL_ITEMS_CREATED) + syncProps.getInt(Sync.PROP_CL_ITEMS_UPDATED)
+          + syncProps.getInt(Sync.PROP_CL_ITEMS_DELETED);
+    }
 }
@@ -1,10 +1,14 @@
 package nl.knaw.dans.rs.aggregator.sync;
 
+import nl.knaw.dans.rs.aggregator.http.RetryPolicy;
 import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
 import nl.knaw.dans.rs.aggregator.syncore.ResourceManager;
 import nl.knaw.dans.rs.aggregator.syncore.Sync;
 import nl.knaw.dans.rs.aggregator.syncore.VerificationPolicy;
 import nl.knaw.dans.rs.aggregator.syncore.VerificationStatus;
+import nl.knaw.dans.rs.aggregator.util.ExecutorMode;
+import nl.knaw.dans.rs.aggregator.util.HostPermits;
+import nl.knaw.dans.rs.aggregator.util.NormURI;
 import nl.knaw.dans.rs.aggregator.util.RsProperties;
 import nl.knaw.dans.rs.aggregator.xml.RsConstants;
 import nl.knaw.dans.rs.aggregator.xml.RsMd;
@@ -19,9 +23,33 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 /**
- *
+ * Synchronizes the resources of a set of resources, as collected by a {@link SitemapCollector}, with the
+ * help of a {@link ResourceManager}.
+ * <p>
+ * Items are synchronized one after the other, unless a parallelism greater than 1 is set with
+ * {@link SyncWorker#withParallelism(int)}. In that case items are synchronized concurrently by a bounded pool
+ * of workers. The number of concurrent actions per host can be capped further with
+ * {@link SyncWorker#withHostPermits(HostPermits)}. The workers are platform threads or virtual threads, see
+ * {@link SyncWorker#withExecutorMode(ExecutorMode)}. In both modes the counters are exact and the number of
+ * downloads will not exceed {@link SyncWorker#getMaxDownloads()}.
+ * </p>
+ * <p>
+ * Packages of ResourceDumps and ChangeDumps are ingested by the ResourceManager before the items are synchronized,
+ * see {@link ResourceManager#ingest(URI, UrlItem, java.util.function.Predicate)}. The items in the manifests of
+ * the packages join the items of the lists, so resources that could not be ingested are downloaded one by one.
+ * Each package counts as one download. Packages of ChangeDumps are always ingested. The packages of the most
+ * recent ResourceDump are only ingested to bootstrap a resource set, see
+ * {@link SyncWorker#withBootstrapFromDump(boolean)}, or if the source has no ResourceList: on later runs a few
+ * requests for changed resources are cheaper than a complete dump.
+ * </p>
  */
 public class SyncWorker implements RsConstants {
 
@@ -29,32 +57,41 @@ public class SyncWorker implements RsConstants {
 
     private static final int MAX_DOWNLOADS = Integer.MAX_VALUE;
     private static final int MAX_DOWNLOAD_RETRY = 3;
+    private static final int PARALLELISM = 1;
 
     private SitemapCollector sitemapCollector;
     private ResourceManager resourceManager;
     private VerificationPolicy verificationPolicy;
+    private HostPermits hostPermits;
+    private ExecutorMode executorMode;
+    private RetryPolicy retryPolicy;
+    private RetryPolicy runRetryPolicy;
 
     private int maxDownloads = MAX_DOWNLOADS;
     private int maxDownloadRetry = MAX_DOWNLOAD_RETRY;
+    private int parallelism = PARALLELISM;
     private boolean trialRun = false;
-
-    private int itemCount;
-    private int verifiedItems;
-    private int itemsDeleted;
-    private int itemsCreated;
-    private int itemsUpdated;
-    private int itemsRemain;
-    private int itemsNoAction; // change='deleted' and resource does not exists.
-    private int failedDeletions;
-    private int failedCreations;
-    private int failedUpdates;
-    private int failedRemains;
+    private boolean bootstrapFromDump = true;
+
+    private final AtomicInteger itemCount = new AtomicInteger();
+    private final AtomicInteger verifiedItems = new AtomicInteger();
+    private final AtomicInteger itemsDeleted = new AtomicInteger();
+    private final AtomicInteger itemsCreated = new AtomicInteger();
+    private final AtomicInteger itemsUpdated = new AtomicInteger();
+    private final AtomicInteger itemsRemain = new AtomicInteger();
+    private final AtomicInteger itemsNoAction = new AtomicInteger(); // change='deleted' and resource does not exists.
+    private final AtomicInteger failedDeletions = new AtomicInteger();
+    private final AtomicInteger failedCreations = new AtomicInteger();
+    private final AtomicInteger failedUpdates = new AtomicInteger();
+    private final AtomicInteger failedRemains = new AtomicInteger();
     private int totalFailures;
 
-    private int downloadCount;
+    private final AtomicInteger downloadCount = new AtomicInteger();
+    private int dumpPackagesIngested;
+    private int failedDumpPackages;
     private boolean syncComplete;
 
-    private int preventedActions;
+    private final AtomicInteger preventedActions = new AtomicInteger();
 
     public SyncWorker() {
 
@@ -114,6 +151,82 @@ public class SyncWorker implements RsConstants {
         return this;
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of items that will be synchronized concurrently. Default is 1: items are synchronized
+     * one after the other.
+     *
+     * @param parallelism number of concurrently synchronized items, should be at least 1
+     * @return <code>this</code> to enable method chaining
+     */
+    public SyncWorker withParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism cannot be less then 1.");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        if (executorMode == null) {
+            executorMode = ExecutorMode.PLATFORM;
+        }
+        return executorMode;
+    }
+
+    /**
+     * Set the kind of threads that synchronize items concurrently. Default is {@link ExecutorMode#PLATFORM}.
+     * Only used if parallelism is greater than 1.
+     *
+     * @param executorMode kind of threads
+     * @return <code>this</code> to enable method chaining
+     */
+    public SyncWorker withExecutorMode(ExecutorMode executorMode) {
+        this.executorMode = executorMode;
+        return this;
+    }
+
+    public HostPermits getHostPermits() {
+        if (hostPermits == null) {
+            hostPermits = new HostPermits(parallelism);
+        }
+        return hostPermits;
+    }
+
+    /**
+     * Set the permits that cap the number of concurrent actions per host. The same HostPermits can be shared
+     * by several SyncWorkers. If not set, the number of concurrent actions per host is only capped by
+     * {@link SyncWorker#getParallelism()}.
+     *
+     * @param hostPermits permits per host
+     * @return <code>this</code> to enable method chaining
+     */
+    public SyncWorker withHostPermits(HostPermits hostPermits) {
+        this.hostPermits = hostPermits;
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set the policy for retries of failed requests. Each run of {@link #synchronize(PathFinder, RsProperties)}
+     * gets its own retry budget, see {@link RetryPolicy#newRun()}. The policy is handed to the SitemapCollector
+     * and the ResourceManager. Retries per URI are recorded in the sync properties. Default is <code>null</code>:
+     * failed requests are not tried again.
+     *
+     * @param retryPolicy policy for retries, may be <code>null</code>
+     * @return <code>this</code> to enable method chaining
+     */
+    public SyncWorker withRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
     public boolean isTrialRun() {
         return trialRun;
     }
@@ -123,33 +236,59 @@ public class SyncWorker implements RsConstants {
         return this;
     }
 
+    public boolean isBootstrapFromDump() {
+        return bootstrapFromDump;
+    }
+
+    /**
+     * Set whether a resource set that was never fully synchronized is filled from the most recent ResourceDump,
+     * if that dump is at least as recent as the most recent ResourceList. Only resources that are missing or stale
+     * after ingestion of the dump are downloaded one by one. Default is <code>true</code>.
+     *
+     * @param bootstrapFromDump <code>true</code> to bootstrap a resource set from a ResourceDump
+     * @return <code>this</code> to enable method chaining
+     */
+    public SyncWorker withBootstrapFromDump(boolean bootstrapFromDump) {
+        this.bootstrapFromDump = bootstrapFromDump;
+        return this;
+    }
+
     public void synchronize(PathFinder pathFinder, RsProperties syncProps) {
         reset();
+        runRetryPolicy = retryPolicy == null ? null : retryPolicy.newRun();
+        getSitemapCollector().withRetryPolicy(runRetryPolicy);
+        getResourceManager().setRetryPolicy(runRetryPolicy);
         getResourceManager().setPathFinder(pathFinder);
-        syncLocalResources(pathFinder, syncProps);
+        try {
+            syncLocalResources(pathFinder, syncProps);
+        } finally {
+            getResourceManager().finish();
+        }
         report(pathFinder, syncProps);
     }
 
     private void reset() {
-        itemCount = 0;
-        verifiedItems = 0;
+        itemCount.set(0);
+        verifiedItems.set(0);
 
-        itemsCreated = 0;
-        itemsUpdated = 0;
-        itemsRemain = 0;
-        itemsDeleted = 0;
+        itemsCreated.set(0);
+        itemsUpdated.set(0);
+        itemsRemain.set(0);
+        itemsDeleted.set(0);
 
-        itemsNoAction = 0;
+        itemsNoAction.set(0);
 
-        failedCreations = 0;
-        failedUpdates = 0;
-        failedRemains = 0;
-        failedDeletions = 0;
+        failedCreations.set(0);
+        failedUpdates.set(0);
+        failedRemains.set(0);
+        failedDeletions.set(0);
         totalFailures = 0;
 
-        downloadCount = 0;
+        downloadCount.set(0);
+        dumpPackagesIngested = 0;
+        failedDumpPackages = 0;
 
-        preventedActions = 0;
+        preventedActions.set(0);
         syncComplete = false;
     }
 
@@ -160,61 +299,184 @@ public class SyncWorker implements RsConstants {
             logger.warn("Not synchronizing because of previous {} errors: {}",
               collector.countErrors(), pathFinder.getCapabilityListUri());
         } else {
+            if (useResourceDump(pathFinder, collector)) {
+                ingestDumpPackages(collector, collector.getResourceDumpPackages());
+            }
+            ingestDumpPackages(collector, collector.getChangeDumpPackages());
             if (collector.hasNewResourceList() && !trialRun) {
                 resourceManager.keepOnly(collector.getMostRecentItems().keySet());
             }
-            for (Map.Entry<URI, UrlItem> entry : collector.getMostRecentItems().entrySet()) {
-                syncItem(entry.getKey(), entry.getValue());
+            if (parallelism > 1) {
+                syncItemsConcurrently(collector.getMostRecentItems());
+            } else {
+                for (Map.Entry<URI, UrlItem> entry : collector.getMostRecentItems().entrySet()) {
+                    syncItem(entry.getKey(), entry.getValue());
+                }
             }
         }
-        totalFailures = failedCreations + failedUpdates + failedDeletions + failedRemains;
+        totalFailures = failedCreations.get() + failedUpdates.get() + failedDeletions.get() + failedRemains.get();
 
-        syncComplete = !trialRun && !collector.hasErrors() && preventedActions == 0 && totalFailures == 0;
+        syncComplete = !trialRun && !collector.hasErrors() && preventedActions.get() == 0 && totalFailures == 0
+          && failedDumpPackages == 0;
 
         logger.info("====> synchronized={}, new ResourceList={}, items={}, verified={}, " +
-            "failures={}, downloads={} [success/failures] " +
+            "failures={}, downloads={}, dump packages={}/{} [success/failures] " +
             "created={}/{}, updated={}/{}, remain={}/{}, deleted={}/{}, " +
             "no_action={}, trial run={}, resource set={}",
           syncComplete, collector.hasNewResourceList(), itemCount, verifiedItems, totalFailures, downloadCount,
-          itemsCreated,
+          dumpPackagesIngested, failedDumpPackages, itemsCreated,
           failedCreations, itemsUpdated,
           failedUpdates, itemsRemain, failedRemains,
           itemsDeleted, failedDeletions, itemsNoAction, trialRun, pathFinder.getCapabilityListUri());
     }
 
+    private boolean useResourceDump(PathFinder pathFinder, SitemapCollector collector) {
+        if (collector.getResourceDumpPackages().isEmpty()) {
+            return false;
+        }
+        ZonedDateTime dumpAt = collector.getUltimateResourceDumpAt();
+        ZonedDateTime listAt = collector.getUltimateResourceListAt();
+        if (dumpAt.isBefore(listAt)) {
+            logger.info("Not using resourceDump at {}, resourceList at {} is more recent: {}", dumpAt, listAt,
+              pathFinder.getCapabilityListUri());
+            return false;
+        }
+        if (bootstrapFromDump && pathFinder.getPrevSyncPropXmlFile() == null) {
+            logger.info("Bootstrapping from resourceDump at {}: {}", dumpAt, pathFinder.getCapabilityListUri());
+            return true;
+        }
+        // without resourceLists the resourceDump is the only complete record of the resources
+        return !listAt.isAfter(ZonedDateTime.parse(NULL_DATE));
+    }
+
+    private void ingestDumpPackages(SitemapCollector collector, Map<URI, UrlItem> packages) {
+        Map<URI, UrlItem> items = collector.getMostRecentItems();
+        for (Map.Entry<URI, UrlItem> entry : packages.entrySet()) {
+            URI packageUri = entry.getKey();
+            UrlItem packageItem = entry.getValue();
+            if (!acquireDownload(packageUri)) {
+                continue;
+            }
+            if (resourceManager.ingest(packageUri, packageItem,
+              item -> acceptManifestItem(items, packageItem, item, collector.getAsOfDateTime()))) {
+                dumpPackagesIngested++;
+            } else {
+                downloadCount.decrementAndGet();
+                failedDumpPackages++;
+            }
+        }
+    }
+
+    /**
+     * Merge an item of the manifest of a dump package with the most recent items. The resource of the item is
+     * only ingested if the item is the most recent item of the resource.
+     */
+    private boolean acceptManifestItem(Map<URI, UrlItem> items, UrlItem packageItem, UrlItem item,
+                                       ZonedDateTime asOfDateTime) {
+        Optional<URI> maybeUri = NormURI.normalize(item.getLoc());
+        Optional<RsMd> maybeRsMd = item.getMetadata();
+        if (!maybeUri.isPresent() || !maybeRsMd.isPresent()) {
+            logger.warn("Missing loc or rs:md on manifest item {} in package {}", item.getLoc(), packageItem.getLoc());
+            return false;
+        }
+        RsMd rsMd = maybeRsMd.get();
+        if (rsMd.getChange().isPresent()) {
+            // items of a changedump-manifest should have rs:datetime
+            if (!rsMd.getDateTime().isPresent() && packageItem.getRsMdFrom() != null) {
+                rsMd.withDateTime(packageItem.getRsMdFrom());
+            }
+            if (item.getRsMdDateTime() == null || !item.getRsMdDateTime().isAfter(asOfDateTime)) {
+                return false;
+            }
+        } else if (!rsMd.getAt().isPresent() && packageItem.getRsMdAt() != null) {
+            rsMd.withAt(packageItem.getRsMdAt());
+        }
+        URI normalizedURI = maybeUri.get();
+        UrlItem known = items.get(normalizedURI);
+        if (known != null && known.latest(item) != item) {
+            return false;
+        }
+        items.put(normalizedURI, item);
+        return true;
+    }
+
+    private void syncItemsConcurrently(Map<URI, UrlItem> items) {
+        logger.info("Synchronizing {} items with parallelism={}, permits per host={}, executor mode={}",
+          items.size(), parallelism, getHostPermits().getPermitsPerHost(), getExecutorMode());
+        ExecutorService executor = getExecutorMode().newExecutor(parallelism);
+        // keep the number of submitted but not yet finished items bounded.
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        AtomicReference<RuntimeException> firstError = new AtomicReference<>();
+        try {
+            for (Map.Entry<URI, UrlItem> entry : items.entrySet()) {
+                inFlight.acquire();
+                if (firstError.get() != null) {
+                    break;
+                }
+                executor.execute(() -> {
+                    URI normalizedURI = entry.getKey();
+                    try {
+                        getHostPermits().acquire(normalizedURI);
+                        try {
+                            syncItem(normalizedURI, entry.getValue());
+                        } finally {
+                            getHostPermits().release(normalizedURI);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException e) {
+                        logger.error("Unexpected error while synchronizing {}", normalizedURI, e);
+                        firstError.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while synchronizing " + items.size() + " items", e);
+        }
+        if (firstError.get() != null) {
+            throw firstError.get();
+        }
+    }
+
     private void syncItem(URI normalizedURI, UrlItem item) {
-        itemCount++;
+        int count = itemCount.incrementAndGet();
         String change = item.getMetadata().flatMap(RsMd::getChange).orElse(CH_REMAIN);
         boolean resourceExists = resourceManager.exists(normalizedURI);
 
-        logger.debug("------> {} {}, exists={}, normalizedURI={}", itemCount, change, resourceExists, normalizedURI);
+        logger.debug("------> {} {}, exists={}, normalizedURI={}", count, change, resourceExists, normalizedURI);
 
         if (CH_REMAIN.equalsIgnoreCase(change)) {
             if (verifyChange(normalizedURI, item, resourceExists)) {
-                itemsRemain++;
+                itemsRemain.incrementAndGet();
             } else {
-                failedRemains++;
+                failedRemains.incrementAndGet();
             }
         } else if (CH_CREATED.equalsIgnoreCase(change)) {
             if (verifyChange(normalizedURI, item, resourceExists)) {
-                itemsCreated++;
+                itemsCreated.incrementAndGet();
             } else {
-                failedCreations++;
+                failedCreations.incrementAndGet();
             }
         } else if (CH_UPDATED.equalsIgnoreCase(change)) {
             if (verifyChange(normalizedURI, item, resourceExists)) {
-                itemsUpdated++;
+                itemsUpdated.incrementAndGet();
             } else {
-                failedUpdates++;
+                failedUpdates.incrementAndGet();
             }
         } else if (CH_DELETED.equalsIgnoreCase(change) && resourceExists) {
             if (actionAllowed(normalizedURI) && resourceManager.delete(normalizedURI)) {
-                itemsDeleted++;
+                itemsDeleted.incrementAndGet();
             } else {
-                failedDeletions++;
+                failedDeletions.incrementAndGet();
             }
         } else if (CH_DELETED.equalsIgnoreCase(change) && !resourceExists) {
-            itemsNoAction++;
+            itemsNoAction.incrementAndGet();
         }
     }
 
@@ -225,35 +487,35 @@ public class SyncWorker implements RsConstants {
             if (verified) {
                 success = actionAllowed(normalizedURI) && resourceManager.keep(normalizedURI);
             } else {
-                success = actionAllowed(normalizedURI) && resourceManager.update(normalizedURI)
-                  && verifyAndUpdate(normalizedURI, item);
-                if (success) {
-                    downloadCount++;
-                }
+                success = download(normalizedURI, item, () -> resourceManager.update(normalizedURI, item));
             }
         } else { // resource does not exist
-            success = actionAllowed(normalizedURI) && resourceManager.create(normalizedURI)
-              && verifyAndUpdate(normalizedURI, item);
-            if (success) {
-                downloadCount++;
+            success = download(normalizedURI, item, () -> resourceManager.create(normalizedURI, item));
+        }
+        return success;
+    }
+
+    private boolean download(URI normalizedURI, UrlItem item, BooleanSupplier action) {
+        boolean success = false;
+        if (acquireDownload(normalizedURI)) {
+            success = action.getAsBoolean() && verifyAndUpdate(normalizedURI, item);
+            if (!success) {
+                downloadCount.decrementAndGet();
             }
         }
         return success;
     }
 
     private boolean verifyAndUpdate(URI normalizedURI, UrlItem item) {
+        // repeated downloads are part of the download that was acquired by the caller.
         boolean verified = false;
         for (int i = 0; i < getMaxDownloadRetry(); i++) {
             verified = doVerify(normalizedURI, item);
             if (verified) {
                 break;
             } else {
-                if (!actionAllowed(normalizedURI)) {
-                    break;
-                } else {
-                    logger.info("Repeating download. download count={}, uri={}", i, normalizedURI);
-                    resourceManager.update(normalizedURI);
-                }
+                logger.info("Repeating download. download count={}, uri={}", i, normalizedURI);
+                resourceManager.update(normalizedURI, item);
             }
         }
         return verified;
@@ -264,15 +526,40 @@ public class SyncWorker implements RsConstants {
         if (trialRun) {
             logger.debug("Trial run. No action on: {}", normalizedURI);
             allowed = false;
-            preventedActions++;
-        } else if (downloadCount >= maxDownloads) {
+            preventedActions.incrementAndGet();
+        } else if (downloadCount.get() >= maxDownloads) {
             logger.debug("Max downloads reached. No further action on: {}", normalizedURI);
             allowed = false;
-            preventedActions++;
+            preventedActions.incrementAndGet();
         }
         return allowed;
     }
 
+    /**
+     * Acquire one of the {@link SyncWorker#getMaxDownloads()} downloads. A download that was acquired but
+     * did not succeed should be given back by decrementing the downloadCount.
+     *
+     * @param normalizedURI the resource that will be downloaded
+     * @return <code>true</code> if the download may proceed, <code>false</code> otherwise
+     */
+    private boolean acquireDownload(URI normalizedURI) {
+        if (trialRun) {
+            logger.debug("Trial run. No action on: {}", normalizedURI);
+            preventedActions.incrementAndGet();
+            return false;
+        }
+        int count;
+        do {
+            count = downloadCount.get();
+            if (count >= maxDownloads) {
+                logger.debug("Max downloads reached. No further action on: {}", normalizedURI);
+                preventedActions.incrementAndGet();
+                return false;
+            }
+        } while (!downloadCount.compareAndSet(count, count + 1));
+        return true;
+    }
+
     private boolean doVerify(URI normalizedURI, UrlItem item) {
         VerificationPolicy policy = getVerificationPolicy();
         VerificationStatus stHash = VerificationStatus.not_verified;
@@ -307,16 +594,15 @@ public class SyncWorker implements RsConstants {
             }
         }
 
-        if (policy.repeatDownload(stHash, stLastMod, stSize)) {
-            boolean success = actionAllowed(normalizedURI) && resourceManager.update(normalizedURI);
-            if (success) {
-                downloadCount++;
+        if (policy.repeatDownload(stHash, stLastMod, stSize) && acquireDownload(normalizedURI)) {
+            if (!resourceManager.update(normalizedURI, item)) {
+                downloadCount.decrementAndGet();
             }
         }
 
         boolean verified = policy.isVerified(stHash, stLastMod, stSize);
         if (verified) {
-            verifiedItems++;
+            verifiedItems.incrementAndGet();
         }
         logger.debug("Verification status={}, Hash={}, LastMod={}, Size={}, uri={}",
           verified, stHash, stLastMod, stSize, normalizedURI);
@@ -333,24 +619,36 @@ public class SyncWorker implements RsConstants {
         syncProps.setInt(Sync.PROP_SW_MAX_DOWNLOADS, getMaxDownloads());
         syncProps.setInt(Sync.PROP_SW_MAX_DOWNLOAD_RETRY, getMaxDownloadRetry());
         syncProps.setBool(Sync.PROP_SW_TRIAL_RUN, isTrialRun());
+        syncProps.setBool(Sync.PROP_SW_BOOTSTRAP_FROM_DUMP, isBootstrapFromDump());
+        syncProps.setInt(Sync.PROP_SW_PARALLELISM, getParallelism());
         syncProps.setProperty(Sync.PROP_SW_SITEMAP_COLLECTOR, getSitemapCollector().getClass().getName());
         syncProps.setProperty(Sync.PROP_SW_RESOURCE_MANAGER, getResourceManager().getClass().getName());
         syncProps.setProperty(Sync.PROP_SW_VERIFICATION_POLICY, getVerificationPolicy().getClass().getName());
 
-        syncProps.setInt(Sync.PROP_SW_TOTAL_ITEMS, itemCount);
-        syncProps.setInt(Sync.PROP_SW_ITEMS_VERIFIED, verifiedItems);
-        syncProps.setInt(Sync.PROP_SW_ITEMS_DELETED, itemsDeleted);
-        syncProps.setInt(Sync.PROP_SW_ITEMS_CREATED, itemsCreated);
-        syncProps.setInt(Sync.PROP_SW_ITEMS_UPDATED, itemsUpdated);
-        syncProps.setInt(Sync.PROP_SW_ITEMS_REMAIN, itemsRemain);
-        syncProps.setInt(Sync.PROP_SW_ITEMS_NO_ACTION, itemsNoAction);
+        syncProps.setInt(Sync.PROP_SW_TOTAL_ITEMS, itemCount.get());
+        syncProps.setInt(Sync.PROP_SW_ITEMS_VERIFIED, verifiedItems.get());
+        syncProps.setInt(Sync.PROP_SW_ITEMS_DELETED, itemsDeleted.get());
+        syncProps.setInt(Sync.PROP_SW_ITEMS_CREATED, itemsCreated.get());
+        syncProps.setInt(Sync.PROP_SW_ITEMS_UPDATED, itemsUpdated.get());
+        syncProps.setInt(Sync.PROP_SW_ITEMS_REMAIN, itemsRemain.get());
+        syncProps.setInt(Sync.PROP_SW_ITEMS_NO_ACTION, itemsNoAction.get());
         syncProps.setInt(Sync.PROP_SW_TOTAL_FAILED_ITEMS, totalFailures);
-        syncProps.setInt(Sync.PROP_SW_FAILED_DELETIONS, failedDeletions);
-        syncProps.setInt(Sync.PROP_SW_FAILED_CREATIONS, failedCreations);
-        syncProps.setInt(Sync.PROP_SW_FAILED_UPDATES, failedUpdates);
-        syncProps.setInt(Sync.PROP_SW_FAILED_REMAINS, failedRemains);
-
-        syncProps.setInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT, downloadCount);
+        syncProps.setInt(Sync.PROP_SW_FAILED_DELETIONS, failedDeletions.get());
+        syncProps.setInt(Sync.PROP_SW_FAILED_CREATIONS, failedCreations.get());
+        syncProps.setInt(Sync.PROP_SW_FAILED_UPDATES, failedUpdates.get());
+        syncProps.setInt(Sync.PROP_SW_FAILED_REMAINS, failedRemains.get());
+
+        syncProps.setInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT, downloadCount.get());
+        syncProps.setInt(Sync.PROP_SW_DUMP_PACKAGES_INGESTED, dumpPackagesIngested);
+        syncProps.setInt(Sync.PROP_SW_FAILED_DUMP_PACKAGES, failedDumpPackages);
+
+        if (runRetryPolicy != null) {
+            syncProps.setInt(Sync.PROP_SW_TOTAL_RETRIES, runRetryPolicy.getTotalRetries());
+            syncProps.setInt(Sync.PROP_SW_RETRIES_LEFT, runRetryPolicy.getRetriesLeft());
+            for (Map.Entry<URI, Integer> entry : runRetryPolicy.getRetries().entrySet()) {
+                syncProps.setInt(Sync.PROP_SW_RETRIES + entry.getKey(), entry.getValue());
+            }
+        }
 
         try {
             File file = pathFinder.getSyncPropXmlFile();
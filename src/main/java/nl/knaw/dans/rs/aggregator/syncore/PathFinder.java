@@ -32,6 +32,8 @@ public class PathFinder {
     public static final String DIR_METADATA = "__MOR__";
     public static final String DIR_RESOURCES = "__SOR__";
     public static final String DIR_SYNC_PROPS = "__SYNC_PROPS__";
+    public static final String DIR_SYNC_STATE = "__SYNC_STATE__";
+    public static final String FILE_RESOURCE_INDEX = "__RESOURCE_INDEX__.dat";
 
     private static Logger logger = LoggerFactory.getLogger(PathFinder.class);
 
@@ -48,6 +50,7 @@ public class PathFinder {
     private final File metadataDirectory;
     private final File resourceDirectory;
     private final File syncPropDirectory;
+    private final File syncStateDirectory;
     private final File syncPropXmlFile;
     private final File prevSyncPropXmlFile;
     private final File capabilityListFile;
@@ -79,6 +82,7 @@ public class PathFinder {
         resourceDirectory = new File(setDirectory, DIR_RESOURCES);
         capabilityListFile = new File(metadataDirectory, fileName);
         syncPropDirectory = new File(setDirectory, DIR_SYNC_PROPS);
+        syncStateDirectory = new File(setDirectory, DIR_SYNC_STATE);
         String syncDate = ZonedDateTimeUtil.toFileSaveFormat(syncStart);
         syncPropXmlFile = new File(syncPropDirectory, syncDate + ".xml");
 
@@ -152,6 +156,14 @@ public class PathFinder {
         return syncPropDirectory;
     }
 
+    public File getSyncStateDirectory() {
+        return syncStateDirectory;
+    }
+
+    public File getResourceIndexFile() {
+        return new File(syncStateDirectory, FILE_RESOURCE_INDEX);
+    }
+
     public File getSyncPropXmlFile() {
         return syncPropXmlFile;
     }
@@ -186,6 +198,18 @@ public class PathFinder {
         return new File(metadataDirectory, restPath);
     }
 
+    /**
+     * Find the path for state that is kept between synchronisation runs about the sitemap or resource at
+     * the given <code>uri</code>. Callers should add their own extension to the returned path.
+     *
+     * @param uri the uri of a sitemap or resource
+     * @return path in the sync state directory
+     */
+    public File findSyncStateFilePath(@Nonnull URI uri) {
+        String restPath = extractPath(uri).replace(path, "");
+        return new File(syncStateDirectory, restPath);
+    }
+
     public File findResourceFilePath(@Nonnull URI uri) {
         return new File(resourceDirectory, extractPath(uri));
     }
@@ -1,9 +1,14 @@
 package nl.knaw.dans.rs.aggregator.syncore;
 
+import nl.knaw.dans.rs.aggregator.http.RetryPolicy;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+import org.apache.http.impl.client.CloseableHttpClient;
+
 import javax.annotation.Nonnull;
 import java.net.URI;
 import java.time.ZonedDateTime;
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * A ResourceManager manages resources and is capable of answering simple questions about the managed resources.
@@ -28,6 +33,36 @@ public interface ResourceManager {
      */
     void setPathFinder(PathFinder pathFinder);
 
+    /**
+     * Sets the httpClient that should be used by this ResourceManager if it retrieves resources over http.
+     * The httpClient is shared with other components, so the ResourceManager should not close it.
+     * The default implementation does nothing.
+     *
+     * @param httpClient the shared httpClient
+     */
+    default void setHttpClient(CloseableHttpClient httpClient) {
+        // ResourceManager may not need a httpClient
+    }
+
+    /**
+     * Sets the policy for retries of failed downloads in the current run. The policy is shared with other
+     * components of the run. The default implementation does nothing.
+     *
+     * @param retryPolicy policy for retries, may be <code>null</code> for no retries
+     */
+    default void setRetryPolicy(RetryPolicy retryPolicy) {
+        // ResourceManager may not download resources
+    }
+
+    /**
+     * Signals the end of the synchronisation of the current set of resources, which was started with
+     * {@link ResourceManager#setPathFinder(PathFinder)}. The ResourceManager may persist any state it keeps
+     * on the current set of resources. The default implementation does nothing.
+     */
+    default void finish() {
+        // ResourceManager may not keep state
+    }
+
     /**
      * Does the resource that is identified by the given <code>normalizedURI</code> exist in the resource store.
      *
@@ -97,6 +132,20 @@ public interface ResourceManager {
      */
     boolean create(@Nonnull URI normalizedURI);
 
+    /**
+     * Create the resource that is identified by the given <code>normalizedURI</code>, as described by the given
+     * <code>item</code>. A ResourceManager can use the metadata of the item, for instance to compute the hashes
+     * that will be verified while the resource is transferred. The default implementation delegates to
+     * {@link ResourceManager#create(URI)}.
+     *
+     * @param normalizedURI identifies the resource
+     * @param item          the item that describes the resource
+     * @return <code>true</code> if the operation succeeded, <code>false</code> otherwise
+     */
+    default boolean create(@Nonnull URI normalizedURI, @Nonnull UrlItem item) {
+        return create(normalizedURI);
+    }
+
     /**
      * Update the resource that is identified by the given <code>normalizedURI</code>. The resource was present but
      * was not up-to-date.
@@ -106,6 +155,37 @@ public interface ResourceManager {
      */
     boolean update(@Nonnull URI normalizedURI);
 
+    /**
+     * Update the resource that is identified by the given <code>normalizedURI</code>, as described by the given
+     * <code>item</code>. The default implementation delegates to {@link ResourceManager#update(URI)}.
+     *
+     * @param normalizedURI identifies the resource
+     * @param item          the item that describes the resource
+     * @return <code>true</code> if the operation succeeded, <code>false</code> otherwise
+     * @see ResourceManager#create(URI, UrlItem)
+     */
+    default boolean update(@Nonnull URI normalizedURI, @Nonnull UrlItem item) {
+        return update(normalizedURI);
+    }
+
+    /**
+     * Ingest the resources in the ResourceDump or ChangeDump package at <code>packageUri</code>, as described by
+     * the given <code>packageItem</code>. Every item of the manifest of the package is handed to the
+     * <code>itemFilter</code>; the ResourceManager should only ingest the resources of items that pass the filter,
+     * and only if they match length and hashes in their manifest item. Resources that are not ingested will be
+     * verified, and if needed created or updated, one by one. The default implementation ingests nothing and
+     * returns <code>false</code>.
+     *
+     * @param packageUri  location of the package
+     * @param packageItem the item in the dump that describes the package
+     * @param itemFilter  decides which items of the manifest are ingested
+     * @return <code>true</code> if the package and its manifest were read, <code>false</code> otherwise
+     */
+    default boolean ingest(@Nonnull URI packageUri, @Nonnull UrlItem packageItem,
+                           @Nonnull Predicate<UrlItem> itemFilter) {
+        return false;
+    }
+
     /**
      * Delete or remove the resource that is identified by the given <code>normalizedURI</code>. The resource
      * was present but was purged from the set of resources.
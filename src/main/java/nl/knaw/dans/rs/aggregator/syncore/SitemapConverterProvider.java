@@ -3,9 +3,11 @@ package nl.knaw.dans.rs.aggregator.syncore;
 import nl.knaw.dans.rs.aggregator.util.LambdaUtil;
 import nl.knaw.dans.rs.aggregator.xml.ResourceSyncContext;
 import nl.knaw.dans.rs.aggregator.xml.RsRoot;
+import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 
 import java.net.URI;
+import java.util.function.BiConsumer;
 
 /**
  * Implementations of this interface can provide a {@link java.util.function.BiFunction} converter that knows
@@ -21,6 +23,17 @@ public interface SitemapConverterProvider {
      */
     LambdaUtil.BiFunction_WithExceptions<URI, HttpResponse, RsRoot, Exception> getConverter();
 
+    /**
+     * Provide a function that prepares the request on a sitemap URI, for instance by adding headers for a
+     * conditional request. If a prepared request is answered with 304 (Not Modified), the converter will be
+     * called with that response. The default implementation does not prepare requests.
+     *
+     * @return function that prepares requests, or <code>null</code> if requests need no preparation
+     */
+    default BiConsumer<URI, HttpRequest> getRequestPreparer() {
+        return null;
+    }
+
     /**
      * Set the {@link PathFinder} that corresponds to the URI the provided converter is about to handle.
      *
@@ -10,13 +10,19 @@ public interface Sync {
     String PROP_CL_COUNT_INVALID_URIS = CL + "cr.invalid.uris";
     String PROP_CL_COUNT_ERROR_RESULTS = CL + "cr.error.results";
     String PROP_CL_COUNT_UNHNDLED_RESULTS = CL + "cr.unhandled.results";
+    String PROP_CL_COUNT_NOT_MODIFIED = CL + "cr.not.modified";
     String PROP_CL_COUNT_CAPABILITY_LISTS = CL + "cl.capability.lists";
     String PROP_CL_COUNT_RESOURCELIST_INDEXES = CL + "cl.resource.list.indexes";
     String PROP_CL_COUNT_CHANGELIST_INDEXES = CL + "cl.change.list.indexes";
     String PROP_CL_COUNT_RESOURCELISTS = CL + "cl.resource.lists";
     String PROP_CL_COUNT_CHANGELISTS = CL + "cl.change.lists";
+    String PROP_CL_COUNT_RESOURCEDUMPS = CL + "cl.resource.dumps";
+    String PROP_CL_COUNT_CHANGEDUMPS = CL + "cl.change.dumps";
+    String PROP_CL_COUNT_PRUNED_LISTS = CL + "cl.pruned.lists";
+    String PROP_CL_COUNT_DUMP_PACKAGES = CL + "cl.dump.packages";
     String PROP_CL_DATE_LATEST_RESOURCELIST = CL + "date.latest.resource.list";
     String PROP_CL_DATE_LATEST_CHANGELIST = CL + "date.latest.change.list";
+    String PROP_CL_DATE_LATEST_RESOURCEDUMP = CL + "date.latest.resource.dump";
     String PROP_CL_FOUND_NEW_RESOURCELIST = CL + "found.new.resourcelist";
     String PROP_CL_ITEMS_RECENT = CL + "items.recent";
     String PROP_CL_ITEMS_REMAINING = CL + "items.remaining";
@@ -34,6 +40,7 @@ public interface Sync {
     String PROP_SW_MAX_DOWNLOADS = SW + "a1.max.downloads";
     String PROP_SW_MAX_DOWNLOAD_RETRY = SW + "a2.max.download.retry";
     String PROP_SW_TRIAL_RUN = SW + "a3.trial.run";
+    String PROP_SW_PARALLELISM = SW + "a4.parallelism";
     String PROP_SW_SITEMAP_COLLECTOR = SW + "class.sitemap.collector";
     String PROP_SW_RESOURCE_MANAGER = SW + "class.resource.manager";
     String PROP_SW_VERIFICATION_POLICY = SW + "class.verification.policy";
@@ -50,4 +57,10 @@ public interface Sync {
     String PROP_SW_FAILED_UPDATES = SW + "failed.updates";
     String PROP_SW_FAILED_REMAINS = SW + "failed.remains";
     String PROP_SW_TOTAL_DOWNLOAD_COUNT = SW + "total.download.count";
+    String PROP_SW_BOOTSTRAP_FROM_DUMP = SW + "bootstrap.from.dump";
+    String PROP_SW_DUMP_PACKAGES_INGESTED = SW + "dump.packages.ingested";
+    String PROP_SW_FAILED_DUMP_PACKAGES = SW + "failed.dump.packages";
+    String PROP_SW_TOTAL_RETRIES = SW + "total.retries";
+    String PROP_SW_RETRIES_LEFT = SW + "retries.left";
+    String PROP_SW_RETRIES = SW + "retries."; // followed by the retried uri
 }
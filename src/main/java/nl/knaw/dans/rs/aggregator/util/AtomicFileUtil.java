@@ -0,0 +1,168 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.Predicate;
+
+/**
+ * Write files atomically: content is written to a temporary file next to the destination, which is then renamed
+ * to the destination. Readers of the destination see either the old or the new content, never a partial file.
+ * <p>
+ * With <code>fsync</code> the temporary file is forced to disk before the rename and the directory after it,
+ * so that the new content also survives a crash of the operating system.
+ * </p>
+ */
+public class AtomicFileUtil {
+
+    private static Logger logger = LoggerFactory.getLogger(AtomicFileUtil.class);
+
+    public static final String TEMP_EXTENSION = ".rsa-tmp";
+
+    /**
+     * Get the temporary file that content for <code>file</code> is written to.
+     *
+     * @param file the destination
+     * @return the temporary file, next to <code>file</code>
+     */
+    public static File getTempFile(@Nonnull File file) {
+        return new File(file.getParentFile(), file.getName() + TEMP_EXTENSION);
+    }
+
+    /**
+     * Write to a temporary file and move it to <code>file</code>. If <code>writer</code> fails, the temporary
+     * file is deleted and <code>file</code> is left as it was.
+     *
+     * @param file   the destination
+     * @param fsync  <code>true</code> to force the content to disk
+     * @param writer writes the content
+     * @throws IOException if the content could not be written or moved
+     */
+    public static void write(@Nonnull File file, boolean fsync,
+                             @Nonnull LambdaUtil.Consumer_WithExceptions<FileOutputStream, IOException> writer)
+      throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directories for " + file);
+        }
+        File tmp = getTempFile(file);
+        try {
+            try (FileOutputStream outstream = new FileOutputStream(tmp)) {
+                writer.accept(outstream);
+                if (fsync) {
+                    outstream.getFD().sync();
+                }
+            }
+            move(tmp, file, fsync);
+        } catch (IOException | RuntimeException e) {
+            if (tmp.exists() && !tmp.delete()) {
+                logger.warn("Could not delete {}", tmp);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Move a completely written <code>source</code> to <code>file</code>, replacing <code>file</code> if it
+     * exists. The move is atomic if the file system supports it.
+     *
+     * @param source the completely written file
+     * @param file   the destination
+     * @param fsync  <code>true</code> to force <code>source</code> to disk before the move and the directory of
+     *               <code>file</code> after it
+     * @throws IOException if the file could not be moved
+     */
+    public static void moveIntoPlace(@Nonnull File source, @Nonnull File file, boolean fsync) throws IOException {
+        if (fsync) {
+            try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        move(source, file, fsync);
+    }
+
+    private static void move(File source, File file, boolean fsync) throws IOException {
+        try {
+            Files.move(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            logger.debug("Atomic move not supported, moving {} to {}", source, file);
+            Files.move(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (fsync) {
+            syncDirectory(file.getAbsoluteFile().getParentFile());
+        }
+    }
+
+    private static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not all platforms can open a directory
+            logger.debug("Could not sync directory {}: {}", directory, e.toString());
+        }
+    }
+
+    /**
+     * Delete files with one of the given extensions under <code>directory</code>. Used to remove temporary
+     * files that were left behind by an interrupted run.
+     *
+     * @param directory  the directory to clean
+     * @param extensions extensions of the files to delete, for instance {@link #TEMP_EXTENSION}
+     * @return the number of deleted files
+     * @throws IOException if the directory could not be walked
+     */
+    public static int deleteTempFiles(@Nonnull File directory, String... extensions) throws IOException {
+        return deleteTempFiles(directory, file -> false, extensions);
+    }
+
+    /**
+     * Delete files with one of the given extensions under <code>directory</code>, unless <code>keep</code> accepts
+     * them. Used to remove temporary files that were left behind by an interrupted run.
+     *
+     * @param directory  the directory to clean
+     * @param keep       decides whether a file with one of the extensions is kept
+     * @param extensions extensions of the files to delete, for instance {@link #TEMP_EXTENSION}
+     * @return the number of deleted files
+     * @throws IOException if the directory could not be walked
+     */
+    public static int deleteTempFiles(@Nonnull File directory, @Nonnull Predicate<File> keep, String... extensions)
+      throws IOException {
+        if (!directory.isDirectory()) {
+            return 0;
+        }
+        int[] deleted = {0};
+        Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String name = file.getFileName().toString();
+                for (String extension : extensions) {
+                    if (name.endsWith(extension)) {
+                        if (keep.test(file.toFile())) {
+                            break;
+                        }
+                        Files.deleteIfExists(file);
+                        deleted[0]++;
+                        logger.debug("Deleted temporary file {}", file);
+                        break;
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return deleted[0];
+    }
+}
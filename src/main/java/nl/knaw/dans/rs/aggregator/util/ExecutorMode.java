@@ -0,0 +1,100 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selects the kind of threads that execute concurrent work.
+ * <p>
+ * {@link #PLATFORM} executes tasks on a fixed pool of platform threads. {@link #VIRTUAL} starts a virtual thread
+ * for each task. Virtual threads are cheap while they wait for I/O, which makes a high parallelism affordable.
+ * In both modes no more than the given parallelism of tasks run at the same time.
+ * </p>
+ */
+public enum ExecutorMode {
+
+    PLATFORM {
+        @Override
+        public ExecutorService newExecutor(int parallelism) {
+            return Executors.newFixedThreadPool(parallelism);
+        }
+    },
+
+    VIRTUAL {
+        @Override
+        public ExecutorService newExecutor(int parallelism) {
+            return new BoundedExecutor(Executors.newVirtualThreadPerTaskExecutor(), parallelism);
+        }
+    };
+
+    /**
+     * Create a new ExecutorService that runs at most <code>parallelism</code> tasks at the same time.
+     *
+     * @param parallelism maximum number of concurrently running tasks
+     * @return a new ExecutorService
+     */
+    public abstract ExecutorService newExecutor(int parallelism);
+
+    /**
+     * Starts each task right away on the delegate, where it waits for a permit before it runs.
+     */
+    private static class BoundedExecutor extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        BoundedExecutor(ExecutorService delegate, int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism cannot be less then 1.");
+            }
+            this.delegate = delegate;
+            this.permits = new Semaphore(parallelism);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -1,42 +1,77 @@
 package nl.knaw.dans.rs.aggregator.util;
 
 import javax.annotation.Nonnull;
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Compute the hash over inputStreams.
  */
 public class HashUtil {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     public static String computeHash(String algorithm, @Nonnull InputStream inputStream)
       throws NoSuchAlgorithmException, IOException {
+        return computeHashes(Collections.singleton(algorithm), inputStream).get(algorithm);
+    }
+
+    public static String computeHash(String algorithm, @Nonnull File file)
+      throws IOException, NoSuchAlgorithmException {
+        return computeHash(algorithm, new FileInputStream(file));
+    }
 
-        StringBuilder sb;
+    /**
+     * Compute hashes with several algorithms in one pass over the given inputStream. The inputStream is closed
+     * after reading.
+     *
+     * @param algorithms  algorithms to compute hashes with
+     * @param inputStream inputStream to read
+     * @return map of algorithm to hash, in the order of the given algorithms
+     * @throws NoSuchAlgorithmException if one of the algorithms is unknown
+     * @throws IOException for read errors
+     */
+    public static Map<String, String> computeHashes(@Nonnull Collection<String> algorithms,
+                                                    @Nonnull InputStream inputStream)
+      throws NoSuchAlgorithmException, IOException {
+        Map<String, String> hashes = new LinkedHashMap<>();
         try (InputStream ins = inputStream) {
-            MessageDigest digest = MessageDigest.getInstance(algorithm);
-            byte[] byteArray = new byte[1024];
-            int bytesCount = 0;
+            Map<String, MessageDigest> digests = new LinkedHashMap<>();
+            for (String algorithm : algorithms) {
+                digests.put(algorithm, MessageDigest.getInstance(algorithm));
+            }
+            byte[] byteArray = new byte[BUFFER_SIZE];
+            int bytesCount;
             while ((bytesCount = ins.read(byteArray)) != -1) {
-                digest.update(byteArray, 0, bytesCount);
+                for (MessageDigest digest : digests.values()) {
+                    digest.update(byteArray, 0, bytesCount);
+                }
             }
-            byte[] bytes = digest.digest();
-            sb = new StringBuilder();
-            for (byte aByte : bytes) {
-                sb.append(Integer.toString((aByte & 0xff) + 0x100, 16).substring(1));
+            for (Map.Entry<String, MessageDigest> entry : digests.entrySet()) {
+                hashes.put(entry.getKey(), toHex(entry.getValue().digest()));
             }
         }
-        return sb.toString();
+        return hashes;
     }
 
-    public static String computeHash(String algorithm, @Nonnull File file)
-      throws IOException, NoSuchAlgorithmException {
-        BufferedInputStream buff = new BufferedInputStream(new FileInputStream(file));
-        return computeHash(algorithm, buff);
+    public static Map<String, String> computeHashes(@Nonnull Collection<String> algorithms, @Nonnull File file)
+      throws NoSuchAlgorithmException, IOException {
+        return computeHashes(algorithms, new FileInputStream(file));
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte aByte : bytes) {
+            sb.append(Integer.toString((aByte & 0xff) + 0x100, 16).substring(1));
+        }
+        return sb.toString();
     }
 }
@@ -0,0 +1,52 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import java.net.URI;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the number of concurrent actions per host. The same HostPermits can be shared by several workers
+ * that act on the same hosts.
+ */
+public class HostPermits {
+
+    private final int permitsPerHost;
+    private final ConcurrentMap<String, Semaphore> semaphores = new ConcurrentHashMap<>();
+
+    public HostPermits(int permitsPerHost) {
+        if (permitsPerHost < 1) {
+            throw new IllegalArgumentException("Permits per host cannot be less then 1.");
+        }
+        this.permitsPerHost = permitsPerHost;
+    }
+
+    public int getPermitsPerHost() {
+        return permitsPerHost;
+    }
+
+    /**
+     * Acquire a permit for the host of the given <code>uri</code>, blocking until one is available.
+     *
+     * @param uri uri of the resource
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void acquire(URI uri) throws InterruptedException {
+        semaphoreFor(uri).acquire();
+    }
+
+    /**
+     * Release a permit for the host of the given <code>uri</code>.
+     *
+     * @param uri uri of the resource
+     */
+    public void release(URI uri) {
+        semaphoreFor(uri).release();
+    }
+
+    private Semaphore semaphoreFor(URI uri) {
+        String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+        return semaphores.computeIfAbsent(host + ":" + uri.getPort(), key -> new Semaphore(permitsPerHost));
+    }
+}
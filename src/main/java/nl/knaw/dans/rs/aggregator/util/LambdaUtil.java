@@ -17,6 +17,17 @@ public class LambdaUtil {
         R apply(T val) throws E;
     }
 
+    /**
+     * {@link java.util.function.Consumer} that may throw Exceptions.
+     *
+     * @param <T> the type of the argument to the consumer
+     * @param <E> the type of exception that may be thrown
+     */
+    @FunctionalInterface
+    public interface Consumer_WithExceptions<T, E extends Exception> {
+        void accept(T val) throws E;
+    }
+
     /**
      * {@link java.util.function.BiFunction} that may throw Exceptions.
      *
@@ -3,7 +3,6 @@ package nl.knaw.dans.rs.aggregator.util;
 import javax.annotation.Nonnull;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.time.ZonedDateTime;
 import java.util.Map;
@@ -51,16 +50,19 @@ public class RsProperties extends Properties {
         return "true".equals(value);
     }
 
+    /**
+     * Store these properties as xml in the given file. The file is replaced atomically, see
+     * {@link AtomicFileUtil#write(File, boolean, LambdaUtil.Consumer_WithExceptions)}.
+     *
+     * @param file    the file to store to
+     * @param comment a description of the properties
+     * @throws IOException if the properties could not be stored
+     */
     public void storeToXML(File file, String comment) throws IOException {
-        if (!file.getParentFile().exists()) {
-            if (!file.getParentFile().mkdirs()) {
-                throw new IOException("Cannot create directories for " + file);
-            }
-        }
-        try (FileOutputStream fos = new FileOutputStream(file)) {
+        AtomicFileUtil.write(file, false, outstream -> {
             keys();
-            super.storeToXML(fos, comment);
-        }
+            super.storeToXML(outstream, comment);
+        });
     }
 
     public synchronized void loadFromXML(File file) throws IOException {
@@ -0,0 +1,115 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Copy streams to files through NIO channels.
+ * <p>
+ * Without digests the content is handed to {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}.
+ * The source is a channel on an InputStream, so this is not a zero-copy transfer: the JDK still copies through a
+ * small heap buffer. With digests the content goes through a large direct buffer that is filled before it is
+ * written, so the file is written in a few large writes instead of many small ones. Direct buffers are pooled,
+ * because allocating them is expensive.
+ * </p>
+ */
+public class TransferUtil {
+
+    public static final int BUFFER_SIZE = 256 * 1024;
+
+    // maximum number of bytes handed to one call of transferFrom
+    private static final long TRANSFER_SIZE = 8L * 1024 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final BlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    /**
+     * Copy <code>instream</code> to <code>channel</code>, starting at <code>position</code>, while updating the
+     * given digests. The stream is read to its end but not closed. The position of the channel is kept at the end
+     * of the copied content, also when copying fails halfway, so that the channel can be truncated to what was
+     * copied.
+     *
+     * @param instream the stream to copy
+     * @param channel  the channel to copy to
+     * @param position position in the channel of the first byte
+     * @param digests  digests to update with the content, may be empty
+     * @return the number of bytes copied
+     * @throws IOException for read or write errors
+     */
+    public static long copy(@Nonnull InputStream instream, @Nonnull FileChannel channel, long position,
+                            @Nonnull Collection<MessageDigest> digests) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(instream);
+        channel.position(position);
+        if (digests.isEmpty()) {
+            return transfer(source, channel, position);
+        }
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            long total = 0L;
+            boolean eof = false;
+            while (!eof) {
+                buffer.clear();
+                // fill the buffer, so the file gets large writes
+                try {
+                    while (buffer.hasRemaining()) {
+                        if (source.read(buffer) == -1) {
+                            eof = true;
+                            break;
+                        }
+                    }
+                } catch (IOException e) {
+                    // keep what was received before the failure
+                    buffer.flip();
+                    write(buffer, channel);
+                    throw e;
+                }
+                buffer.flip();
+                for (MessageDigest digest : digests) {
+                    digest.update(buffer.duplicate());
+                }
+                total += write(buffer, channel);
+            }
+            return total;
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private static long write(ByteBuffer buffer, FileChannel channel) throws IOException {
+        long written = 0L;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        return written;
+    }
+
+    private static long transfer(ReadableByteChannel source, FileChannel channel, long position)
+      throws IOException {
+        long total = 0L;
+        long transferred;
+        // transferFrom returns 0 at the end of a blocking source and does not move the position of the channel
+        while ((transferred = channel.transferFrom(source, position + total, TRANSFER_SIZE)) > 0) {
+            total += transferred;
+            channel.position(position + total);
+        }
+        return total;
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = BUFFERS.poll();
+        return buffer == null ? ByteBuffer.allocateDirect(BUFFER_SIZE) : buffer;
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        BUFFERS.offer(buffer);
+    }
+}
@@ -9,15 +9,55 @@ import javax.xml.bind.Unmarshaller;
 /**
  * JAXBContext for marshalling and unmarshalling of ResourceSync documents.
  * This class uses the {@link ObjectFactory} class.
+ * <p>
+ * A ResourceSyncContext can be shared by concurrent readers. Marshallers and Unmarshallers are not thread-safe,
+ * but {@link #getMarshaller()} and {@link #getUnmarshaller()} hand out one instance per thread, which is reused
+ * by subsequent calls on the same thread. Threads that run a single task, like the virtual threads of
+ * {@link nl.knaw.dans.rs.aggregator.util.ExecutorMode#VIRTUAL}, therefore do not reuse them: each such task pays
+ * for creating a new instance, as it did before instances were cached.
+ * </p>
  */
 public class ResourceSyncContext {
 
     private final JAXBContext jaxbContext;
+    private final ThreadLocal<Marshaller> marshallers = new ThreadLocal<>();
+    private final ThreadLocal<Unmarshaller> unmarshallers = new ThreadLocal<>();
 
     public ResourceSyncContext() throws JAXBException {
         jaxbContext = JAXBContext.newInstance(ObjectFactory.class);
     }
 
+    /**
+     * Get the Marshaller of the current thread. Properties set on the returned Marshaller remain in effect for
+     * subsequent calls on the same thread.
+     *
+     * @return Marshaller of the current thread
+     * @throws JAXBException if a Marshaller could not be created
+     */
+    public Marshaller getMarshaller() throws JAXBException {
+        Marshaller marshaller = marshallers.get();
+        if (marshaller == null) {
+            marshaller = createMarshaller();
+            marshallers.set(marshaller);
+        }
+        return marshaller;
+    }
+
+    /**
+     * Get the Unmarshaller of the current thread.
+     *
+     * @return Unmarshaller of the current thread
+     * @throws JAXBException if an Unmarshaller could not be created
+     */
+    public Unmarshaller getUnmarshaller() throws JAXBException {
+        Unmarshaller unmarshaller = unmarshallers.get();
+        if (unmarshaller == null) {
+            unmarshaller = createUnmarshaller();
+            unmarshallers.set(unmarshaller);
+        }
+        return unmarshaller;
+    }
+
     public Marshaller createMarshaller() throws JAXBException {
         return jaxbContext.createMarshaller();
     }
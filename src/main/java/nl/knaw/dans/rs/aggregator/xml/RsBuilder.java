@@ -78,7 +78,7 @@ public class RsBuilder {
 
         JAXBElement<RsRoot> je = null;
         RsRoot rsRoot = null;
-        Unmarshaller unmarshaller = rsContext.createUnmarshaller();
+        Unmarshaller unmarshaller = rsContext.getUnmarshaller();
         if (file != null) {
             je = (JAXBElement<RsRoot>) unmarshaller.unmarshal(file);
             file = null;
@@ -203,7 +203,7 @@ public class RsBuilder {
      * @throws JAXBException for invalid input
      */
     public String toXml(RsRoot rsRoot, boolean formattedOutput) throws JAXBException {
-        Marshaller marshaller = rsContext.createMarshaller();
+        Marshaller marshaller = rsContext.getMarshaller();
         marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, formattedOutput);
         StringWriter writer = new StringWriter();
         marshaller.marshal(rsRoot, writer);
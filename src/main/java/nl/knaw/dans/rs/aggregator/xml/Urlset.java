@@ -4,6 +4,7 @@ package nl.knaw.dans.rs.aggregator.xml;
 import javax.annotation.Nonnull;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
 import java.util.List;
@@ -19,6 +20,9 @@ public class Urlset extends RsRoot<Urlset, UrlItem> {
     @XmlElement(name = "url", namespace = "http://www.sitemaps.org/schemas/sitemap/0.9")
     private List<UrlItem> urlList = new ArrayList<>();
 
+    @XmlTransient
+    private boolean headerOnly;
+
     protected Urlset() {
     }
 
@@ -30,4 +34,19 @@ public class Urlset extends RsRoot<Urlset, UrlItem> {
         return urlList;
     }
 
+    /**
+     * Is this Urlset only the header of a urlset document. A header-only Urlset has metadata and links, but its
+     * items were not read. They can be read from the document with a {@link UrlsetReader}.
+     *
+     * @return <code>true</code> if this Urlset is only a header, <code>false</code> otherwise
+     */
+    public boolean isHeaderOnly() {
+        return headerOnly;
+    }
+
+    public Urlset withHeaderOnly(boolean headerOnly) {
+        this.headerOnly = headerOnly;
+        return this;
+    }
+
 }
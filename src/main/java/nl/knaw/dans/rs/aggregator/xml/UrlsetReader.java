@@ -0,0 +1,356 @@
+package nl.knaw.dans.rs.aggregator.xml;
+
+import nl.knaw.dans.rs.aggregator.util.ZonedDateTimeUtil;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+/**
+ * Streaming reader for urlset documents. Only the header of the document, that is its <code>rs:md</code> and
+ * <code>rs:ln</code> elements, and the current {@link UrlItem} are held in memory, so memory use does not
+ * depend on the number of items in the document.
+ * <p>Example usage:</p>
+ * <pre>
+ *   try (UrlsetReader reader = new UrlsetReader(file)) {
+ *       if (reader.getUrlset().isPresent()) {
+ *           UrlItem item;
+ *           while ((item = reader.readItem()) != null) {
+ *               // do something with item
+ *           }
+ *       }
+ *   }
+ * </pre>
+ * <p>
+ * The header is read when the reader is constructed. If the document is not a urlset, the header is absent and
+ * no items will be read.
+ * </p>
+ * <p>
+ * Items with an <code>rs:md datetime</code> at or before a given date can be skipped with
+ * {@link #withSkipUpTo(ZonedDateTime)}. Skipped items are passed over without being parsed.
+ * </p>
+ */
+public class UrlsetReader implements Closeable {
+
+    private static final String NS_SITEMAP = "http://www.sitemaps.org/schemas/sitemap/0.9";
+    private static final String NS_RS = "http://www.openarchives.org/rs/terms/";
+
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+
+    private final InputStream inputStream;
+    private final XMLStreamReader xsr;
+    private final Urlset urlset;
+    private QName rootName;
+    private boolean atUrl;
+    private ZonedDateTime skipUpTo;
+    private int skippedCount;
+
+    /**
+     * Open a reader on the given file and read its header.
+     *
+     * @param file file with an xml-document
+     * @throws IOException if the file cannot be opened
+     * @throws XMLStreamException for invalid input
+     */
+    public UrlsetReader(File file) throws IOException, XMLStreamException {
+        this(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    /**
+     * Open a reader on the given inputStream and read its header. The inputStream is closed when this reader
+     * is closed.
+     *
+     * @param inputStream inputStream with an xml-document
+     * @throws XMLStreamException for invalid input
+     */
+    public UrlsetReader(InputStream inputStream) throws XMLStreamException {
+        this.inputStream = inputStream;
+        try {
+            xsr = xmlInputFactory.createXMLStreamReader(inputStream);
+            urlset = readHeader();
+        } catch (XMLStreamException | RuntimeException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the header of the urlset in the given file.
+     *
+     * @param file file with an xml-document
+     * @return Optional of a Urlset without items, empty if the document is not a urlset
+     * @throws IOException if the file cannot be opened
+     * @throws XMLStreamException for invalid input
+     */
+    public static Optional<Urlset> readHeader(File file) throws IOException, XMLStreamException {
+        try (UrlsetReader reader = new UrlsetReader(file)) {
+            return reader.getUrlset();
+        }
+    }
+
+    /**
+     * Get the name of the root element of the document.
+     *
+     * @return name of the root element, or <code>null</code> if the document has no root element
+     */
+    public QName getRootName() {
+        return rootName;
+    }
+
+    /**
+     * Get the header of the urlset: a Urlset with metadata and links, but without items.
+     *
+     * @return Optional of Urlset, empty if the document is not a urlset
+     */
+    public Optional<Urlset> getUrlset() {
+        return Optional.ofNullable(urlset);
+    }
+
+    /**
+     * Skip items with an <code>rs:md datetime</code> at or before the given date. Items without
+     * <code>rs:md datetime</code> are not skipped.
+     *
+     * @param skipUpTo skip items up to and including this date, may be <code>null</code> to skip nothing
+     * @return <code>this</code> to enable method chaining
+     */
+    public UrlsetReader withSkipUpTo(ZonedDateTime skipUpTo) {
+        this.skipUpTo = skipUpTo;
+        return this;
+    }
+
+    /**
+     * Get the number of items that were skipped so far.
+     *
+     * @return number of skipped items
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Read the next item of the urlset.
+     *
+     * @return the next item, or <code>null</code> if there are no more items
+     * @throws XMLStreamException for invalid input
+     */
+    public UrlItem readItem() throws XMLStreamException {
+        UrlItem item = null;
+        while (item == null) {
+            if (!atUrl && !nextUrl()) {
+                return null;
+            }
+            atUrl = false;
+            item = parseUrl();
+        }
+        return item;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xsr.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private Urlset readHeader() throws XMLStreamException {
+        while (xsr.hasNext() && xsr.next() != XMLStreamConstants.START_ELEMENT) {
+            // skip prolog
+        }
+        if (!xsr.isStartElement()) {
+            return null;
+        }
+        rootName = xsr.getName();
+        if (!rootName.equals(Urlset.QNAME)) {
+            return null;
+        }
+        RsMd rsMd = null;
+        Urlset header = new Urlset(new RsMd());
+        while (xsr.hasNext()) {
+            int event = xsr.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (isElement(NS_SITEMAP, "url")) {
+                    atUrl = true;
+                    break;
+                } else if (isElement(NS_RS, "md")) {
+                    rsMd = parseMd();
+                } else if (isElement(NS_RS, "ln")) {
+                    parseLn().ifPresent(header::addLink);
+                } else {
+                    skipElement();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        if (rsMd != null) {
+            header.withMetadata(rsMd);
+        }
+        return header;
+    }
+
+    private boolean nextUrl() throws XMLStreamException {
+        if (urlset == null) {
+            return false;
+        }
+        while (xsr.hasNext()) {
+            int event = xsr.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (isElement(NS_SITEMAP, "url")) {
+                    return true;
+                }
+                skipElement();
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                // end of urlset
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private UrlItem parseUrl() throws XMLStreamException {
+        String loc = null;
+        ZonedDateTime lastmod = null;
+        String changefreq = null;
+        RsMd rsMd = null;
+        UrlItem item = new UrlItem("");
+        while (xsr.hasNext()) {
+            int event = xsr.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (isElement(NS_SITEMAP, "loc")) {
+                    loc = xsr.getElementText().trim();
+                } else if (isElement(NS_SITEMAP, "lastmod")) {
+                    lastmod = ZonedDateTimeUtil.fromXmlString(xsr.getElementText().trim());
+                } else if (isElement(NS_SITEMAP, "changefreq")) {
+                    changefreq = xsr.getElementText().trim();
+                } else if (isElement(NS_RS, "md")) {
+                    if (isSkipped()) {
+                        // skip the rest of the url
+                        skipElement();
+                        skipElement();
+                        skippedCount++;
+                        return null;
+                    }
+                    rsMd = parseMd();
+                } else if (isElement(NS_RS, "ln")) {
+                    parseLn().ifPresent(item::addLink);
+                } else {
+                    skipElement();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        if (loc == null) {
+            throw new XMLStreamException("Missing element loc in url", xsr.getLocation());
+        }
+        return item.withLoc(loc)
+          .withLastmod(lastmod)
+          .withChangefreq(changefreq)
+          .withMetadata(rsMd);
+    }
+
+    private boolean isSkipped() {
+        if (skipUpTo == null) {
+            return false;
+        }
+        ZonedDateTime dateTime = dateTimeAttribute("datetime");
+        return dateTime != null && !dateTime.isAfter(skipUpTo);
+    }
+
+    private RsMd parseMd() throws XMLStreamException {
+        RsMd rsMd = new RsMd()
+          .withCapability(attribute("capability"))
+          .withAt(dateTimeAttribute("at"))
+          .withCompleted(dateTimeAttribute("completed"))
+          .withFrom(dateTimeAttribute("from"))
+          .withUntil(dateTimeAttribute("until"))
+          .withDateTime(dateTimeAttribute("datetime"))
+          .withChange(attribute("change"))
+          .withEncoding(attribute("encoding"))
+          .withHash(attribute("hash"))
+          .withLength(longAttribute("length"))
+          .withPath(attribute("path"))
+          .withType(attribute("type"));
+        skipElement();
+        return rsMd;
+    }
+
+    private Optional<RsLn> parseLn() throws XMLStreamException {
+        String rel = attribute("rel");
+        String href = attribute("href");
+        RsLn rsLn = null;
+        if (rel != null && href != null) {
+            String pri = attribute("pri");
+            rsLn = new RsLn(rel, href)
+              .withEncoding(attribute("encoding"))
+              .withHash(attribute("hash"))
+              .withLength(longAttribute("length"))
+              .withModified(dateTimeAttribute("modified"))
+              .withPath(attribute("path"))
+              .withPri(pri == null ? null : Integer.valueOf(pri.trim()))
+              .withType(attribute("type"));
+        }
+        skipElement();
+        return Optional.ofNullable(rsLn);
+    }
+
+    private String attribute(String localName) {
+        return xsr.getAttributeValue(null, localName);
+    }
+
+    private ZonedDateTime dateTimeAttribute(String localName) {
+        String value = attribute(localName);
+        return value == null ? null : ZonedDateTimeUtil.fromXmlString(value.trim());
+    }
+
+    private Long longAttribute(String localName) {
+        String value = attribute(localName);
+        return value == null ? null : Long.valueOf(value.trim());
+    }
+
+    private boolean isElement(String namespace, String localName) {
+        return localName.equals(xsr.getLocalName()) && namespace.equals(xsr.getNamespaceURI());
+    }
+
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && xsr.hasNext()) {
+            int event = xsr.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            // closing after failure
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
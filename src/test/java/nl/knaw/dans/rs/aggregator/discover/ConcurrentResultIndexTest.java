@@ -0,0 +1,76 @@
+package nl.knaw.dans.rs.aggregator.discover;
+
+import nl.knaw.dans.rs.aggregator.http.Result;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class ConcurrentResultIndexTest {
+
+    private static final int THREADS = 8;
+    private static final int URIS = 1000;
+
+    @Test
+    public void testConcurrentClaimAndAdd() throws Exception {
+        ConcurrentResultIndex index = new ConcurrentResultIndex();
+        Result<?> parent = new Result<>(URI.create("http://example.com/parent.xml"));
+        AtomicInteger claims = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < URIS; i++) {
+                    String uri = "http://example.com/doc" + i + ".xml";
+                    if (!index.containsOrReserve(uri)) {
+                        claims.incrementAndGet();
+                        Result<?> result = new Result<>(URI.create(uri));
+                        index.add(result);
+                        parent.addChild(result);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertThat(claims.get(), equalTo(URIS));
+        assertThat(index.getResultMap().size(), equalTo(URIS));
+        assertThat(index.getCount(), equalTo(URIS));
+        assertThat(parent.getChildren().size(), equalTo(URIS));
+
+        Set<Integer> ordinals = new HashSet<>();
+        for (Result<?> result : index.getResultMap().values()) {
+            ordinals.add(result.getOrdinal());
+            assertThat(result.getParents().containsKey(parent.getUri()), is(true));
+        }
+        assertThat(ordinals.size(), equalTo(URIS));
+        assertThat(index.containsOrReserve("http://example.com/doc1.xml"), is(true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddAfterMerge() throws Exception {
+        ResultIndex index = new ConcurrentResultIndex().merge(new ResultIndex());
+        index.add(new Result<>(URI.create("http://example.com/doc.xml")));
+    }
+}
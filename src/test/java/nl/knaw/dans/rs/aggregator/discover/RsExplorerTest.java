@@ -5,6 +5,7 @@ import nl.knaw.dans.rs.aggregator.http.RemoteException;
 import nl.knaw.dans.rs.aggregator.http.Result;
 import nl.knaw.dans.rs.aggregator.xml.RsMd;
 import nl.knaw.dans.rs.aggregator.xml.RsRoot;
+import nl.knaw.dans.rs.aggregator.xml.Urlset;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.mockserver.matchers.Times;
@@ -13,6 +14,8 @@ import org.mockserver.model.HttpResponse;
 
 import javax.xml.bind.JAXBException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
@@ -124,6 +127,125 @@ public class RsExplorerTest extends AbstractRemoteTest {
           equalTo("resourcedump"));
     }
 
+    @Test
+    public void exploreBreadthFirst() throws Exception {
+        int changeListCount = 20;
+        String capabilityListPath = "/bfs/capabilitylist.xml";
+        String indexPath = "/bfs/changelist-index.xml";
+        respond(capabilityListPath, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+          "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:md capability=\"capabilitylist\"/>\n" +
+          "  <url><loc>" + composePath(indexPath) + "</loc><rs:md capability=\"changelist\"/></url>\n" +
+          "</urlset>");
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+          "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:md capability=\"changelist\"/>\n" +
+          "  <rs:ln rel=\"up\" href=\"" + composePath(capabilityListPath) + "\"/>\n");
+        for (int i = 0; i < changeListCount; i++) {
+            String changeListPath = "/bfs/changelist" + i + ".xml";
+            sb.append("  <sitemap><loc>").append(composePath(changeListPath)).append("</loc></sitemap>\n");
+            respond(changeListPath, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+              "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+              "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+              "  <rs:md capability=\"changelist\" from=\"2013-01-0" + (i % 9 + 1) + "T00:00:00Z\"/>\n" +
+              "  <rs:ln rel=\"up\" href=\"" + composePath(capabilityListPath) + "\"/>\n" +
+              "  <rs:ln rel=\"index\" href=\"" + composePath(indexPath) + "\"/>\n" +
+              "  <url><loc>http://example.com/res" + i + "</loc><rs:md change=\"updated\"/></url>\n" +
+              "</urlset>");
+        }
+        respond(indexPath, sb.append("</sitemapindex>").toString());
+
+        RsExplorer explorer = new RsExplorer(getHttpclient(), getRsContext())
+          .withParallelism(4);
+        ResultIndex index = new ResultIndex();
+        Result<RsRoot> result = explorer.explore(composeUri(capabilityListPath), index);
+
+        assertThat(result.getUri(), equalTo(composeUri(capabilityListPath)));
+        assertThat(index.getResultMap().size(), equalTo(changeListCount + 2));
+        for (Result<?> r : index.getResultMap().values()) {
+            assertThat(r.getUri().toString(), r.getErrors().isEmpty(), is(true));
+        }
+        Result<?> indexResult = result.getChildren().get(composeUri(indexPath));
+        assertThat(indexResult.getChildren().size(), equalTo(changeListCount));
+        assertThat(indexResult.getParents().containsKey(composeUri(capabilityListPath)), is(true));
+        assertThat(index.getResultMap().get(composeUri(indexPath)).getOrdinal(), equalTo(1));
+    }
+
+    @Test
+    public void notifyResultListener() throws Exception {
+        notifyResultListener("/listener-dfs", 1);
+        notifyResultListener("/listener-bfs", 4);
+    }
+
+    private void notifyResultListener(String base, int parallelism) throws Exception {
+        int changeListCount = 3;
+        String capabilityListPath = base + "/capabilitylist.xml";
+        String indexPath = base + "/changelist-index.xml";
+        respond(capabilityListPath, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+          "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:md capability=\"capabilitylist\"/>\n" +
+          "  <url><loc>" + composePath(indexPath) + "</loc><rs:md capability=\"changelist\"/></url>\n" +
+          "</urlset>");
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+          "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:md capability=\"changelist\"/>\n");
+        for (int i = 0; i < changeListCount; i++) {
+            String changeListPath = base + "/changelist" + i + ".xml";
+            sb.append("  <sitemap><loc>").append(composePath(changeListPath)).append("</loc></sitemap>\n");
+            respond(changeListPath, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+              "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+              "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+              "  <rs:md capability=\"changelist\" from=\"2013-01-01T00:00:00Z\"/>\n" +
+              "  <url><loc>http://example.com/res" + i + "</loc><rs:md change=\"updated\"/></url>\n" +
+              "</urlset>");
+        }
+        respond(indexPath, sb.append("</sitemapindex>").toString());
+
+        List<Result<RsRoot>> notified = new ArrayList<>();
+        RsExplorer explorer = new RsExplorer(getHttpclient(), getRsContext())
+          .withParallelism(parallelism)
+          .withResultListener(result -> {
+              notified.add(result);
+              // drop the items of change lists, the explorer does not need them
+              if ("changelist".equals(result.getContent().map(RsRoot::getMetadata)
+                                            .flatMap(RsMd::getCapability).orElse(""))
+                && result.getContent().get() instanceof Urlset) {
+                  result.accept(new Urlset(result.getContent().get().getMetadata()).withHeaderOnly(true));
+              }
+          });
+        ResultIndex index = new ResultIndex();
+        explorer.explore(composeUri(capabilityListPath), index);
+
+        assertThat(notified.size(), equalTo(changeListCount + 2));
+        assertThat(notified.get(0).getUri(), equalTo(composeUri(capabilityListPath)));
+        for (Result<RsRoot> r : notified) {
+            assertThat(index.getResultMap().get(r.getUri()), is(r));
+            assertThat(r.getUri().toString(), r.getErrors().isEmpty(), is(true));
+        }
+        Result<?> indexResult = index.getResultMap().get(composeUri(indexPath));
+        assertThat(indexResult.getChildren().size(), equalTo(changeListCount));
+        for (Result<?> child : indexResult.getChildren().values()) {
+            assertThat(((Urlset) child.getContent().get()).getItemList().isEmpty(), is(true));
+        }
+    }
+
+    private void respond(String path, String body) {
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(1))
+
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withBody(body)
+          );
+    }
+
     @Ignore("Noisy error log")
     @Test
     public void findInvalidSitemapDocument() throws Exception {
@@ -0,0 +1,137 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import nl.knaw.dans.rs.aggregator.util.AtomicFileUtil;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.Delay;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class AsyncResourceReaderTest extends AbstractRemoteTest {
+
+    private static HttpClientPool pool;
+
+    @BeforeClass
+    public static void initializePool() {
+        pool = new HttpClientPool();
+        pool.setIoThreadCount(2);
+        pool.setMaxTotal(200);
+        pool.setMaxPerRoute(200);
+    }
+
+    @AfterClass
+    public static void closePool() throws Exception {
+        pool.close();
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        String path = "/async/fox.txt";
+        String body = "The quick brown fox jumps over the lazy dog";
+        respond(path, 200, body, 0);
+
+        File file = new File("target/test-output/asyncreader/fox.txt");
+        Result<File> result = new AsyncResourceReader(pool.getHttpAsyncClient())
+          .read(composeUri(path), file, Collections.singleton("md5"))
+          .get(10, TimeUnit.SECONDS);
+
+        assertThat(result.getErrors().isEmpty(), is(true));
+        assertThat(result.getStatusCode(), is(200));
+        assertThat(result.getContent().get(), equalTo(file));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo(body));
+        assertThat(result.getContentLength(), equalTo((long) body.length()));
+        assertThat(result.getDigests().get("md5"), equalTo("9e107d9d372bb6826bd81d3542a419d6"));
+    }
+
+    @Test
+    public void testVerifierRejectsDownload() throws Exception {
+        String path = "/async/tampered.txt";
+        respond(path, 200, "tampered content", 0);
+
+        File file = new File("target/test-output/asyncreader/tampered.txt");
+        FileUtils.writeStringToFile(file, "previous content", StandardCharsets.UTF_8);
+        Result<File> result = new AsyncResourceReader(pool.getHttpAsyncClient())
+          .read(composeUri(path), file, Collections.singleton("md5"),
+            download -> "9e107d9d372bb6826bd81d3542a419d6".equals(download.getDigests().get("md5")))
+          .get(10, TimeUnit.SECONDS);
+
+        assertThat(result.getStatusCode(), is(200));
+        assertThat(result.getContent().isPresent(), is(false));
+        assertThat(result.getErrors().get(0), instanceOf(IOException.class));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo("previous content"));
+        assertThat(AtomicFileUtil.getTempFile(file).exists(), is(false));
+    }
+
+    @Test
+    public void testReadAnd404() throws Exception {
+        String path = "/async/not_found.txt";
+        respond(path, 404, "Not Found", 0);
+
+        File file = new File("target/test-output/asyncreader/not_found.txt");
+        FileUtils.writeStringToFile(file, "previous content", StandardCharsets.UTF_8);
+        Result<File> result = new AsyncResourceReader(pool.getHttpAsyncClient())
+          .read(composeUri(path), file)
+          .get(10, TimeUnit.SECONDS);
+
+        assertThat(result.getStatusCode(), is(404));
+        assertThat(result.getContent().isPresent(), is(false));
+        assertThat(result.getErrors().get(0), instanceOf(RemoteException.class));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo("previous content"));
+    }
+
+    @Test
+    public void testManyTransfersInFlight() throws Exception {
+        int transfers = 50;
+        long delay = 500;
+        AsyncResourceReader reader = new AsyncResourceReader(pool.getHttpAsyncClient());
+        List<CompletableFuture<Result<File>>> futures = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < transfers; i++) {
+            String path = "/async/slow/" + i + ".txt";
+            respond(path, 200, "resource " + i, delay);
+            futures.add(reader.read(composeUri(path), new File("target/test-output/asyncreader/slow/" + i + ".txt")));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+
+        for (CompletableFuture<Result<File>> future : futures) {
+            assertThat(future.get().getErrors().isEmpty(), is(true));
+            assertThat(future.get().getContent().isPresent(), is(true));
+        }
+        // two I/O threads; one transfer at a time would take transfers * delay
+        assertThat(elapsed, lessThan(transfers * delay / 4));
+    }
+
+    private void respond(String path, int statusCode, String body, long delay) {
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(1))
+
+          .respond(HttpResponse.response()
+                               .withStatusCode(statusCode)
+                               .withHeader("Content-Type", "text/plain; utf-8")
+                               .withBody(body)
+                               .withDelay(new Delay(TimeUnit.MILLISECONDS, delay))
+          );
+    }
+}
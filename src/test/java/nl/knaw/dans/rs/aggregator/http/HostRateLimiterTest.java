@@ -0,0 +1,128 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import org.apache.http.client.utils.DateUtils;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+
+public class HostRateLimiterTest {
+
+    private static final String HOST = "example.com:-1";
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(20);
+
+    @Test
+    public void testBurstThenRate() throws Exception {
+        HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setInitialRate(20);
+        limiter.setBurst(3);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire(HOST);
+        }
+        assertThat(elapsedMillis(start), lessThan(40L));
+
+        // 4 more requests at 20 per second
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire(HOST);
+        }
+        assertThat(elapsedMillis(start), greaterThanOrEqualTo(180L));
+    }
+
+    @Test
+    public void testAdditiveIncreaseMultiplicativeDecrease() throws Exception {
+        HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setInitialRate(10);
+        limiter.setMaxRate(12);
+        limiter.setDecreaseInterval(0);
+
+        // 10 successful requests at 10 per second: one second worth of requests
+        for (int i = 0; i < 10; i++) {
+            limiter.onResponse(HOST, 200, null, LATENCY);
+        }
+        assertThat(limiter.getRate(HOST), closeTo(11.0, 0.1));
+        for (int i = 0; i < 100; i++) {
+            limiter.onResponse(HOST, 200, null, LATENCY);
+        }
+        assertThat(limiter.getRate(HOST), equalTo(12.0));
+
+        limiter.onResponse(HOST, 429, null, LATENCY);
+        assertThat(limiter.getRate(HOST), equalTo(6.0));
+        limiter.onResponse(HOST, 503, null, LATENCY);
+        assertThat(limiter.getRate(HOST), equalTo(3.0));
+        limiter.onFailure(HOST);
+        assertThat(limiter.getRate(HOST), equalTo(1.5));
+
+        // other hosts are not affected
+        assertThat(limiter.getRate("other.com:-1"), equalTo(10.0));
+    }
+
+    @Test
+    public void testDecreaseOncePerInterval() throws Exception {
+        HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setInitialRate(16);
+        limiter.setDecreaseInterval(60000);
+
+        for (int i = 0; i < 5; i++) {
+            limiter.onResponse(HOST, 429, null, LATENCY);
+        }
+        assertThat(limiter.getRate(HOST), equalTo(8.0));
+    }
+
+    @Test
+    public void testRisingLatency() throws Exception {
+        HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setInitialRate(16);
+        limiter.setDecreaseInterval(0);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.onResponse(HOST, 200, null, LATENCY);
+        }
+        double rate = limiter.getRate(HOST);
+        assertThat(rate, greaterThan(16.0));
+
+        for (int i = 0; i < 10; i++) {
+            limiter.onResponse(HOST, 200, null, LATENCY * 20);
+        }
+        assertThat(limiter.getRate(HOST), lessThan(rate / 2));
+    }
+
+    @Test
+    public void testRetryAfter() throws Exception {
+        HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setInitialRate(100);
+
+        limiter.onResponse(HOST, 503, "1", LATENCY);
+        long start = System.nanoTime();
+        limiter.acquire(HOST);
+        assertThat(elapsedMillis(start), greaterThanOrEqualTo(900L));
+
+        assertThat(HostRateLimiter.parseRetryAfter("120"), equalTo(120000L));
+        String httpDate = DateUtils.formatDate(new Date(System.currentTimeMillis() + 60000));
+        assertThat((double) HostRateLimiter.parseRetryAfter(httpDate), closeTo(60000, 2000));
+        assertThat(HostRateLimiter.parseRetryAfter("soon"), equalTo(-1L));
+    }
+
+    @Test
+    public void testMaxRetryAfter() throws Exception {
+        HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setMaxRetryAfter(100);
+
+        limiter.onResponse(HOST, 429, "3600", LATENCY);
+        long start = System.nanoTime();
+        limiter.acquire(HOST);
+        assertThat(elapsedMillis(start), lessThan(1000L));
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
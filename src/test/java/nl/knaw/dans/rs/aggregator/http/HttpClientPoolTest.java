@@ -0,0 +1,154 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import org.apache.http.pool.PoolStats;
+import org.junit.Test;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class HttpClientPoolTest extends AbstractRemoteTest {
+
+    @Test
+    public void testConcurrentReadsShareThePool() throws Exception {
+        String path = "/pool/resource.txt";
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path))
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withBody("pooled"));
+
+        HttpClientPool pool = new HttpClientPool();
+        pool.setMaxTotal(10);
+        pool.setMaxPerRoute(4);
+        assertThat(pool.getTotalStats().getLeased(), is(0));
+
+        ResourceReader reader = new ResourceReader(pool.getHttpClient());
+        URI uri = composeUri(path);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Result<File>>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            File file = new File("target/test-output/pool/resource" + i + ".txt");
+            futures.add(executor.submit(() -> reader.read(uri, file)));
+        }
+        for (Future<Result<File>> future : futures) {
+            Result<File> result = future.get();
+            assertThat(result.getErrors().isEmpty(), is(true));
+            assertThat(result.getStatusCode(), is(200));
+        }
+        executor.shutdown();
+
+        PoolStats totalStats = pool.getTotalStats();
+        assertThat(totalStats.getLeased(), is(0));
+        assertThat(totalStats.getAvailable(), greaterThan(0));
+        assertThat(totalStats.getAvailable(), lessThanOrEqualTo(4));
+        assertThat(totalStats.getMax(), is(10));
+
+        Map<String, PoolStats> routeStats = pool.getRouteStats();
+        assertThat(routeStats.size(), is(1));
+        assertThat(routeStats.get("http://localhost:" + getPort()).getMax(), is(4));
+
+        pool.close();
+        assertThat(pool.getTotalStats().getAvailable(), is(0));
+    }
+
+    @Test
+    public void testRateLimiterHonoursRetryAfter() throws Exception {
+        String path = "/pool/limited.txt";
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(429)
+                               .withHeader("Retry-After", "1"));
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path))
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withBody("limited"));
+
+        HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setInitialRate(20);
+        HttpClientPool pool = new HttpClientPool();
+        pool.setRateLimiter(limiter);
+        ResourceReader reader = new ResourceReader(pool.getHttpClient());
+        URI uri = composeUri(path);
+        String host = "localhost:" + getPort();
+
+        Result<File> result = reader.read(uri, new File("target/test-output/pool/limited.txt"));
+        assertThat(result.getStatusCode(), is(429));
+        assertThat(limiter.getRate(host), is(10.0));
+
+        long start = System.nanoTime();
+        result = reader.read(uri, new File("target/test-output/pool/limited.txt"));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertThat(result.getStatusCode(), is(200));
+        assertThat(elapsed, greaterThanOrEqualTo(900L));
+        assertThat(limiter.getRate(host), greaterThan(10.0));
+
+        pool.close();
+    }
+
+    @Test
+    public void testAsyncClientIsRateLimited() throws Exception {
+        String path = "/pool/async-limited.txt";
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(429)
+                               .withHeader("Retry-After", "1"));
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path))
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withBody("limited"));
+
+        HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setInitialRate(20);
+        HttpClientPool pool = new HttpClientPool();
+        pool.setRateLimiter(limiter);
+        AsyncResourceReader reader = new AsyncResourceReader(pool.getHttpAsyncClient());
+        URI uri = composeUri(path);
+        String host = "localhost:" + getPort();
+        File file = new File("target/test-output/pool/async-limited.txt");
+
+        Result<File> result = reader.read(uri, file).get(10, TimeUnit.SECONDS);
+        assertThat(result.getStatusCode(), is(429));
+        assertThat(limiter.getRate(host), is(10.0));
+
+        long start = System.nanoTime();
+        result = reader.read(uri, file).get(10, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertThat(result.getStatusCode(), is(200));
+        assertThat(elapsed, greaterThanOrEqualTo(900L));
+        assertThat(limiter.getRate(host), greaterThan(10.0));
+
+        pool.close();
+    }
+}
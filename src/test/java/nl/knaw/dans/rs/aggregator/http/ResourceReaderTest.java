@@ -1,12 +1,17 @@
 package nl.knaw.dans.rs.aggregator.http;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 import org.mockserver.matchers.Times;
+import org.mockserver.model.ConnectionOptions;
 import org.mockserver.model.HttpRequest;
 import org.mockserver.model.HttpResponse;
 
 import java.io.File;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.instanceOf;
@@ -49,6 +54,35 @@ public class ResourceReaderTest extends AbstractRemoteTest {
         assertThat(file, equalTo(file2));
     }
 
+    @Test
+    public void testReadWithDigests() throws Exception {
+        String path = "/rsserv/digest.txt";
+        URI uri = composeUri(path);
+        byte[] body = "The quick brown fox jumps over the lazy dog".getBytes();
+
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(1))
+
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withHeader("Content-Type", "text/plain; utf-8")
+                               .withBody(body)
+          );
+
+        ResourceReader rsReader = new ResourceReader(getHttpclient());
+        File file = new File("target/test-output/rsreader/digest.txt");
+        Result<File> result = rsReader.read(uri, file, Arrays.asList("MD5", "sha-256"));
+
+        assertThat(result.getContent().isPresent(), is(true));
+        assertThat(result.getContentLength(), equalTo((long) body.length));
+        assertThat(result.getDigests().get("md5"), equalTo("9e107d9d372bb6826bd81d3542a419d6"));
+        assertThat(result.getDigests().get("sha-256"),
+          equalTo("d7a8fbb307d7809469ca9abcb0082e4f8d5651e46d3cdb762d02d0bf37c9e592"));
+    }
+
     @Test
     public void testReadAnd404() throws Exception {
         String path = "/rsserv/nice.txt";
@@ -100,4 +134,218 @@ public class ResourceReaderTest extends AbstractRemoteTest {
         assertThat(result.getContent().isPresent(), is(false));
     }
 
+
+    @Test
+    public void testReadWithRetries() throws Exception {
+        String path = "/rsserv/flaky.txt";
+        URI uri = composeUri(path);
+        byte[] body = "The quick brown fox jumps over the lazy dog".getBytes();
+
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(2))
+          .respond(HttpResponse.response()
+                               .withStatusCode(503));
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withBody(body));
+
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setBaseDelay(10);
+        ResourceReader rsReader = new ResourceReader(getHttpclient());
+        rsReader.setRetryPolicy(retryPolicy);
+        File file = new File("target/test-output/rsreader/flaky.txt");
+        Result<File> result = rsReader.read(uri, file, Arrays.asList("md5"));
+
+        assertThat(result.getErrors().isEmpty(), is(true));
+        assertThat(result.getStatusCode(), is(200));
+        assertThat(result.getRetryCount(), is(2));
+        assertThat(result.getDigests().get("md5"), equalTo("9e107d9d372bb6826bd81d3542a419d6"));
+        assertThat(retryPolicy.getRetries().get(uri), is(2));
+        assertThat(retryPolicy.getRetriesLeft(), is(98));
+    }
+
+    @Test
+    public void testReadGivesUpAfterMaxAttempts() throws Exception {
+        String path = "/rsserv/down.txt";
+        URI uri = composeUri(path);
+
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path))
+          .respond(HttpResponse.response()
+                               .withStatusCode(502));
+
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setBaseDelay(10);
+        retryPolicy.setMaxAttempts(2);
+        ResourceReader rsReader = new ResourceReader(getHttpclient());
+        rsReader.setRetryPolicy(retryPolicy);
+        Result<File> result = rsReader.read(uri, new File("target/test-output/rsreader/down.txt"));
+
+        assertThat(result.getStatusCode(), is(502));
+        assertThat(result.lastError(), instanceOf(RemoteException.class));
+        assertThat(result.getRetryCount(), is(1));
+    }
+
+    @Test
+    public void testResumeBrokenDownload() throws Exception {
+        String path = "/rsserv/large.txt";
+        URI uri = composeUri(path);
+        String body = "The quick brown fox jumps over the lazy dog";
+        int broken = 20;
+
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path)
+                           .withHeader("Range", "bytes=" + broken + "-")
+                           .withHeader("If-Range", "\"v1\""),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(206)
+                               .withHeader("ETag", "\"v1\"")
+                               .withHeader("Content-Range",
+                                 "bytes " + broken + "-" + (body.length() - 1) + "/" + body.length())
+                               .withBody(body.substring(broken)));
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withHeader("ETag", "\"v1\"")
+                               .withBody(body.substring(0, broken))
+                               .withConnectionOptions(ConnectionOptions.connectionOptions()
+                                                                       .withContentLengthHeaderOverride(body.length())
+                                                                       .withCloseSocket(true)));
+
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setBaseDelay(10);
+        ResourceReader rsReader = new ResourceReader(getHttpclient());
+        rsReader.setRetryPolicy(retryPolicy);
+        File file = new File("target/test-output/rsreader/large.txt");
+        file.delete();
+        Result<File> result = rsReader.read(uri, file, Arrays.asList("md5"));
+
+        assertThat(result.getErrors().isEmpty(), is(true));
+        assertThat(result.getStatusCode(), is(206));
+        assertThat(result.getRetryCount(), is(1));
+        assertThat(result.getContentLength(), equalTo((long) body.length()));
+        assertThat(result.getDigests().get("md5"), equalTo("9e107d9d372bb6826bd81d3542a419d6"));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo(body));
+        assertThat(ResourceReader.getPartFile(file).exists(), is(false));
+    }
+
+    @Test
+    public void testResumeAfterRestart() throws Exception {
+        String path = "/rsserv/restart.txt";
+        URI uri = composeUri(path);
+        String body = "The quick brown fox jumps over the lazy dog";
+        int broken = 20;
+
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path)
+                           .withHeader("Range", "bytes=" + broken + "-")
+                           .withHeader("If-Range", "\"v1\""),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(206)
+                               .withHeader("ETag", "\"v1\"")
+                               .withHeader("Content-Range",
+                                 "bytes " + broken + "-" + (body.length() - 1) + "/" + body.length())
+                               .withBody(body.substring(broken)));
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withHeader("ETag", "\"v1\"")
+                               .withBody(body.substring(0, broken))
+                               .withConnectionOptions(ConnectionOptions.connectionOptions()
+                                                                       .withContentLengthHeaderOverride(body.length())
+                                                                       .withCloseSocket(true)));
+
+        File file = new File("target/test-output/rsreader/restart.txt");
+        file.delete();
+        File partFile = ResourceReader.getPartFile(file);
+        Result<File> result = new ResourceReader(getHttpclient()).read(uri, file, Arrays.asList("md5"));
+        assertThat(result.hasErrors(), is(true));
+        assertThat(partFile.length(), equalTo((long) broken));
+        assertThat(ResourceReader.isResumable(partFile), is(true));
+        assertThat(ResourceReader.isResumable(ResourceReader.getValidatorFile(partFile)), is(true));
+
+        // another ResourceReader, as after a restart, resumes the download
+        result = new ResourceReader(getHttpclient()).read(uri, file, Arrays.asList("md5"));
+        assertThat(result.getErrors().isEmpty(), is(true));
+        assertThat(result.getStatusCode(), is(206));
+        assertThat(result.getDigests().get("md5"), equalTo("9e107d9d372bb6826bd81d3542a419d6"));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo(body));
+        assertThat(partFile.exists(), is(false));
+        assertThat(ResourceReader.getValidatorFile(partFile).exists(), is(false));
+    }
+
+    @Test
+    public void testRejectedDownloadIsNotMovedIntoPlace() throws Exception {
+        String path = "/rsserv/rejected.txt";
+        URI uri = composeUri(path);
+
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withBody("new content"));
+
+        ResourceReader rsReader = new ResourceReader(getHttpclient());
+        File file = new File("target/test-output/rsreader/rejected.txt");
+        FileUtils.writeStringToFile(file, "old content", StandardCharsets.UTF_8);
+        Result<File> result = rsReader.read(uri, file, Collections.emptySet(), downloaded -> false);
+
+        assertThat(result.getContent().isPresent(), is(false));
+        assertThat(result.hasErrors(), is(true));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo("old content"));
+        assertThat(ResourceReader.getPartFile(file).exists(), is(false));
+    }
+
+    @Test
+    public void testReadReplacesLongerFile() throws Exception {
+        String path = "/rsserv/replaced.txt";
+        URI uri = composeUri(path);
+        byte[] body = "The quick brown fox jumps over the lazy dog".getBytes();
+
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withBody(body));
+
+        ResourceReader rsReader = new ResourceReader(getHttpclient());
+        File file = new File("target/test-output/rsreader/replaced.txt");
+        FileUtils.writeStringToFile(file, "a much longer old content that should not remain after the download",
+          StandardCharsets.UTF_8);
+        Result<File> result = rsReader.read(uri, file, Arrays.asList("md5"));
+
+        assertThat(result.getErrors().isEmpty(), is(true));
+        assertThat(file.length(), equalTo((long) body.length));
+        assertThat(result.getDigests().get("md5"), equalTo("9e107d9d372bb6826bd81d3542a419d6"));
+    }
 }
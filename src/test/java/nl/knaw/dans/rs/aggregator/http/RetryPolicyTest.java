@@ -0,0 +1,99 @@
+package nl.knaw.dans.rs.aggregator.http;
+
+import org.hamcrest.Matcher;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class RetryPolicyTest {
+
+    private static final URI URI_1 = URI.create("http://example.com/1");
+    private static final URI URI_2 = URI.create("http://example.com/2");
+
+    @Test
+    public void testRetryable() throws Exception {
+        RetryPolicy policy = new RetryPolicy();
+
+        assertThat(policy.isRetryable(new Result<>(URI_1)), is(false));
+        assertThat(policy.isRetryable(failed(503)), is(true));
+        assertThat(policy.isRetryable(failed(404)), is(false));
+        assertThat(policy.isRetryable(failed(new SocketTimeoutException("Read timed out"))), is(true));
+        assertThat(policy.isRetryable(failed(new RuntimeException(new java.net.SocketException("Connection reset")))),
+          is(true));
+        assertThat(policy.isRetryable(failed(new IOException("Disk full"))), is(false));
+
+        policy.setRetryableStatusCodes(Collections.singleton(429));
+        policy.setRetryableExceptions(Collections.singletonList(IOException.class));
+        assertThat(policy.isRetryable(failed(503)), is(false));
+        assertThat(policy.isRetryable(failed(429)), is(true));
+        assertThat(policy.isRetryable(failed(new IOException("Disk full"))), is(true));
+    }
+
+    @Test
+    public void testExponentialDelayWithJitter() throws Exception {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(10);
+        policy.setBaseDelay(100);
+        policy.setMaxDelay(1000);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(policy.retryDelay(URI_1, failed(503), 1), between(0L, 100L));
+            assertThat(policy.retryDelay(URI_1, failed(503), 3), between(0L, 400L));
+            assertThat(policy.retryDelay(URI_1, failed(503), 9), between(0L, 1000L));
+        }
+        assertThat(policy.retryDelay(URI_1, failed(503), 10), is(-1L));
+        assertThat(policy.retryDelay(URI_1, failed(404), 1), is(-1L));
+        assertThat(policy.getRetries().get(URI_1), is(60));
+    }
+
+    @Test
+    public void testRetryBudget() throws Exception {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setRetryBudget(3);
+        policy.setMaxAttempts(2);
+        policy.setBaseDelay(0);
+
+        assertThat(policy.retryDelay(URI_1, failed(503), 1), is(0L));
+        assertThat(policy.retryDelay(URI_1, failed(503), 2), is(-1L));
+        assertThat(policy.retryDelay(URI_2, failed(503), 1), is(0L));
+        assertThat(policy.retryDelay(URI_2, failed(503), 1), is(0L));
+        assertThat(policy.getRetriesLeft(), is(0));
+        assertThat(policy.retryDelay(URI_1, failed(503), 1), is(-1L));
+
+        assertThat(policy.getRetries().get(URI_1), is(1));
+        assertThat(policy.getRetries().get(URI_2), is(2));
+        assertThat(policy.getTotalRetries(), is(3));
+
+        RetryPolicy nextRun = policy.newRun();
+        assertThat(nextRun.getRetriesLeft(), is(3));
+        assertThat(nextRun.getTotalRetries(), is(0));
+        assertThat(nextRun.getBaseDelay(), is(0L));
+    }
+
+    private static Matcher<Long> between(long min, long max) {
+        return both(greaterThanOrEqualTo(min)).and(lessThanOrEqualTo(max));
+    }
+
+    private static Result<?> failed(int statusCode) {
+        Result<?> result = new Result<>(URI_1);
+        result.setStatusCode(statusCode);
+        result.addError(new RemoteException(statusCode, "", URI_1));
+        return result;
+    }
+
+    private static Result<?> failed(Throwable error) {
+        Result<?> result = new Result<>(URI_1);
+        result.addError(error);
+        return result;
+    }
+}
@@ -131,6 +131,35 @@ public class RsDocumentReaderTest extends AbstractRemoteTest {
         assertThat(result.getErrors().size(), is(0));
     }
 
+    @Test
+    public void testNotModifiedOnConditionalRequest() throws Exception {
+        String path = "/rsserv/conditional/capabilitylist.xml";
+        URI uri = composeUri(path);
+
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(2))
+
+          .respond(HttpResponse.response()
+                               .withStatusCode(304)
+          );
+
+        RsDocumentReader reader = new RsDocumentReader(getHttpclient(), getRsContext());
+        reader.setRequestPreparer((u, request) -> request.setHeader("If-None-Match", "\"v1\""));
+        Result<RsRoot> result = reader.read(uri);
+        assertThat(result.getStatusCode(), is(304));
+        assertThat(result.getErrors().isEmpty(), is(true));
+
+        // a 304 to a request that was not conditional is an error, preparer or not
+        reader.setRequestPreparer((u, request) -> request.setHeader("Accept", "application/xml"));
+        result = reader.read(uri);
+        assertThat(result.getStatusCode(), is(304));
+        assertThat(result.getErrors().size(), is(1));
+        assertThat(result.getErrors().get(0), instanceOf(RemoteException.class));
+    }
+
     private String createCapabilityList() {
         return
           "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
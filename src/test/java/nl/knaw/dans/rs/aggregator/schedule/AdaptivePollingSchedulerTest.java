@@ -0,0 +1,190 @@
+package nl.knaw.dans.rs.aggregator.schedule;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class AdaptivePollingSchedulerTest {
+
+    private static final URI BUSY = URI.create("http://example.com/busy/capabilitylist.xml");
+    private static final URI QUIET = URI.create("http://example.com/quiet/capabilitylist.xml");
+
+    @Test
+    public void testNextInterval() throws Exception {
+        AdaptivePollingScheduler scheduler = new AdaptivePollingScheduler();
+        scheduler.setMinInterval(1);
+        scheduler.setMaxInterval(16);
+        scheduler.setTargetChanges(10);
+
+        // the interval in which the source makes 10 changes
+        assertThat(scheduler.nextInterval(4000, 4000, 20), equalTo(2000L));
+        assertThat(scheduler.nextInterval(4000, 4000, 8), equalTo(5000L));
+        assertThat(scheduler.nextInterval(4000, 6000, 20), equalTo(3000L));
+        // at most halved or doubled per poll
+        assertThat(scheduler.nextInterval(4000, 4000, 100), equalTo(2000L));
+        assertThat(scheduler.nextInterval(4000, 4000, 1), equalTo(8000L));
+        assertThat(scheduler.nextInterval(4000, 4000, 0), equalTo(8000L));
+        // within minimum and maximum
+        assertThat(scheduler.nextInterval(1500, 1500, 100), equalTo(1000L));
+        assertThat(scheduler.nextInterval(16000, 16000, 0), equalTo(16000L));
+    }
+
+    @Test
+    public void testNextDelay() throws Exception {
+        AdaptivePollingScheduler scheduler = new AdaptivePollingScheduler();
+
+        assertThat(scheduler.nextDelay(8000, 0), equalTo(8000L));
+        assertThat(scheduler.nextDelay(8000, 3000), equalTo(5000L));
+        assertThat(scheduler.nextDelay(8000, 8000), equalTo(0L));
+        assertThat(scheduler.nextDelay(8000, 20000), equalTo(0L));
+    }
+
+    @Test
+    public void testIntervalFollowsRateOfChange() throws Exception {
+        TestPollingJob job = new TestPollingJob();
+        ManualScheduler manual = new ManualScheduler(job.nanos);
+        AdaptivePollingScheduler scheduler = new AdaptivePollingScheduler() {
+            @Override
+            ScheduledExecutorService newScheduler() {
+                return manual;
+            }
+        };
+        scheduler.setMinInterval(1);
+        scheduler.setInitialInterval(4);
+        scheduler.setMaxInterval(16);
+        scheduler.setTargetChanges(10);
+        scheduler.ticker = job.nanos::get;
+
+        scheduler.schedule(job);
+        try {
+            // busy makes 5 changes per second and is polled every 2 seconds. quiet polls take 3 seconds.
+            manual.runUntil(TimeUnit.SECONDS.toNanos(60));
+            assertThat(scheduler.getInterval(BUSY), equalTo(Duration.ofSeconds(2)));
+            assertThat(scheduler.getInterval(QUIET), equalTo(Duration.ofSeconds(16)));
+            assertThat(manual.delays.get(QUIET), equalTo(13000L));
+
+            // busy slows down to 1 change per second: the interval doubles up to 10 seconds
+            job.busyRate = 1;
+            manual.runUntil(TimeUnit.SECONDS.toNanos(62));
+            assertThat(scheduler.getInterval(BUSY), equalTo(Duration.ofSeconds(4)));
+            manual.runUntil(TimeUnit.SECONDS.toNanos(66));
+            assertThat(scheduler.getInterval(BUSY), equalTo(Duration.ofSeconds(8)));
+            manual.runUntil(TimeUnit.SECONDS.toNanos(74));
+            assertThat(scheduler.getInterval(BUSY), equalTo(Duration.ofSeconds(10)));
+
+            // a poll that takes longer than the interval is followed by the next poll right away
+            job.quietPollDuration = TimeUnit.SECONDS.toNanos(20);
+            manual.runUntil(TimeUnit.SECONDS.toNanos(100));
+            assertThat(manual.delays.get(QUIET), equalTo(0L));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequiresPollingJob() throws Exception {
+        new AdaptivePollingScheduler().schedule(() -> { });
+    }
+
+    /**
+     * Runs planned polls one by one, in order of time, on a clock of its own.
+     */
+    private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+        private final AtomicLong nanos;
+        private final PriorityQueue<Task> tasks = new PriorityQueue<>(
+          Comparator.comparingLong((Task task) -> task.due).thenComparingLong(task -> task.sequence));
+        private final Map<URI, Long> delays = new HashMap<>();
+        private long sequence;
+        private URI polling;
+
+        ManualScheduler(AtomicLong nanos) {
+            super(1);
+            this.nanos = nanos;
+        }
+
+        void runUntil(long time) {
+            while (!tasks.isEmpty() && tasks.peek().due <= time) {
+                Task task = tasks.poll();
+                nanos.set(Math.max(nanos.get(), task.due));
+                polling = task.source;
+                task.command.run();
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            // sources are handed to execute in the order of the job
+            URI source = tasks.size() == 0 ? BUSY : QUIET;
+            tasks.add(new Task(nanos.get(), sequence++, source, command));
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            delays.put(polling, unit.toMillis(delay));
+            tasks.add(new Task(nanos.get() + unit.toNanos(delay), sequence++, polling, command));
+            return null;
+        }
+    }
+
+    private static class Task {
+        private final long due;
+        private final long sequence;
+        private final URI source;
+        private final Runnable command;
+
+        Task(long due, long sequence, URI source, Runnable command) {
+            this.due = due;
+            this.sequence = sequence;
+            this.source = source;
+            this.command = command;
+        }
+    }
+
+    private static class TestPollingJob implements PollingJob {
+
+        private final AtomicLong nanos = new AtomicLong();
+        private final Map<URI, Integer> polls = new HashMap<>();
+        private long lastBusyPoll;
+        private int busyRate = 5;
+        private long quietPollDuration = TimeUnit.SECONDS.toNanos(3);
+
+        @Override
+        public List<URI> getSources() {
+            return Arrays.asList(BUSY, QUIET);
+        }
+
+        @Override
+        public int poll(URI source) {
+            polls.merge(source, 1, Integer::sum);
+            if (source.equals(BUSY)) {
+                long seconds = TimeUnit.NANOSECONDS.toSeconds(nanos.get() - lastBusyPoll);
+                lastBusyPoll = nanos.get();
+                // the first poll finds a backlog
+                return polls.get(BUSY) == 1 ? 100 : (int) (busyRate * seconds);
+            }
+            nanos.addAndGet(quietPollDuration);
+            return 0;
+        }
+
+        @Override
+        public void execute() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
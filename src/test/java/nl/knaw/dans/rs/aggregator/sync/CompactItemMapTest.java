@@ -0,0 +1,94 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.xml.RsLn;
+import nl.knaw.dans.rs.aggregator.xml.RsMd;
+import nl.knaw.dans.rs.aggregator.xml.UrlItem;
+import org.junit.Test;
+
+import java.net.URI;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class CompactItemMapTest {
+
+    @Test
+    public void testRoundTrip() {
+        ZonedDateTime lastmod = ZonedDateTime.parse("2017-01-02T03:04:05.678+02:00");
+        ZonedDateTime datetime = ZonedDateTime.parse("2017-01-03T00:00:00Z");
+        URI uri = URI.create("http://example.com/a");
+        UrlItem item = new UrlItem("http://example.com/a")
+          .withLastmod(lastmod)
+          .withChangefreq("daily")
+          .withMetadata(new RsMd().withChange("updated").withHash("md5:1584abdf8ebdc9802ac0c6a7402c03b6")
+            .withLength(8876L).withType("text/html").withDateTime(datetime))
+          .addLink(new RsLn("alternate", "http://example.com/a.pdf"));
+
+        Map<URI, UrlItem> map = new CompactItemMap();
+        map.put(uri, item);
+        UrlItem copy = map.get(uri);
+
+        assertThat(copy.getLoc(), equalTo("http://example.com/a"));
+        assertThat(copy.getLastmod().get().toInstant(), equalTo(lastmod.toInstant()));
+        assertThat(copy.getLastmod().get().getOffset(), equalTo(lastmod.getOffset()));
+        assertThat(copy.getChangefreq().get(), equalTo("daily"));
+        RsMd rsMd = copy.getMetadata().get();
+        assertThat(rsMd.getChange().get(), equalTo("updated"));
+        assertThat(rsMd.getHash().get(), equalTo("md5:1584abdf8ebdc9802ac0c6a7402c03b6"));
+        assertThat(rsMd.getLength().get(), equalTo(8876L));
+        assertThat(rsMd.getType().get(), equalTo("text/html"));
+        assertThat(rsMd.getDateTime().get().toInstant(), equalTo(datetime.toInstant()));
+        assertThat(rsMd.getAt().isPresent(), is(false));
+        assertThat(copy.getLinkList().get(0).getHref(), equalTo("http://example.com/a.pdf"));
+
+        assertThat(map.get(URI.create("http://example.com/b")), nullValue());
+        assertThat(map.containsKey(uri), is(true));
+        assertThat(map.keySet().contains(uri), is(true));
+    }
+
+    @Test
+    public void testSubMillisecondPrecision() {
+        URI uri = URI.create("http://example.com/a");
+        ZonedDateTime earlier = ZonedDateTime.parse("2017-01-01T00:00:00.0001Z");
+        ZonedDateTime later = ZonedDateTime.parse("2017-01-01T00:00:00.0002Z");
+        Map<URI, UrlItem> compact = new CompactItemMap();
+        Map<URI, UrlItem> hashMap = new HashMap<>();
+        // the later item comes first, so it only stays if the two are told apart
+        for (ZonedDateTime zdt : new ZonedDateTime[] {later, earlier}) {
+            UrlItem item = new UrlItem(uri.toString())
+              .withMetadata(new RsMd().withChange(zdt == later ? "deleted" : "updated").withDateTime(zdt));
+            compact.merge(uri, item, UrlItem::latest);
+            hashMap.merge(uri, item, UrlItem::latest);
+        }
+        assertThat(compact.get(uri).getRsMdDateTime(), equalTo(hashMap.get(uri).getRsMdDateTime()));
+        assertThat(compact.get(uri).getMetadata().get().getChange().get(), equalTo("deleted"));
+    }
+
+    @Test
+    public void testMergeLikeHashMap() {
+        Map<URI, UrlItem> compact = new CompactItemMap();
+        Map<URI, UrlItem> hashMap = new HashMap<>();
+        ZonedDateTime start = ZonedDateTime.parse("2017-01-01T00:00:00Z");
+        for (int i = 0; i < 1000; i++) {
+            URI uri = URI.create("http://example.com/" + (i % 100));
+            UrlItem item = new UrlItem(uri.toString())
+              .withMetadata(new RsMd().withChange(i % 3 == 0 ? "created" : "updated")
+                .withDateTime(start.plusMinutes((i * 37) % 1000)));
+            compact.merge(uri, item, UrlItem::latest);
+            hashMap.merge(uri, item, UrlItem::latest);
+        }
+        assertThat(compact.size(), equalTo(hashMap.size()));
+        for (Map.Entry<URI, UrlItem> entry : compact.entrySet()) {
+            UrlItem expected = hashMap.get(entry.getKey());
+            assertThat(entry.getValue().getRsMdDateTime().toInstant(),
+              equalTo(expected.getRsMdDateTime().toInstant()));
+            assertThat(entry.getValue().getMetadata().get().getChange(),
+              equalTo(expected.getMetadata().get().getChange()));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.util.HashUtil;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class DumpPackageExtractorTest {
+
+    private static File baseDir = new File("target/test-output/dumppackageextractor");
+
+    private DumpPackageExtractor extractor;
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(baseDir);
+        baseDir.mkdirs();
+        extractor = new DumpPackageExtractor(uri -> new File(baseDir, uri.getPath()))
+          .withHashAlgorithms(Collections.singletonList("sha1"))
+          .withStagingDirectory(baseDir);
+    }
+
+    @Test
+    public void testExtract() throws Exception {
+        String manifest = createManifest(
+          item("res1", "content of res1", "content of res1"),
+          item("res2", "content of res2", "content of res2"),
+          item("res3", "content of res3", "tampered content of res3"));
+        // res1 precedes the manifest and is staged
+        byte[] zip = createZip(
+          "resources/res1", "content of res1",
+          DumpPackageExtractor.MANIFEST, manifest,
+          "resources/res2", "content of res2",
+          "resources/res3", "tampered content of res3",
+          "resources/unknown", "not in manifest");
+
+        Map<URI, Map<String, String>> extracted = new HashMap<>();
+        int count = extractor.extract(new ByteArrayInputStream(zip), item -> true, extracted::put);
+
+        assertThat(count, is(2));
+        assertThat(read("/set/res1"), equalTo("content of res1"));
+        assertThat(read("/set/res2"), equalTo("content of res2"));
+        assertThat(new File(baseDir, "set/res3").exists(), is(false));
+        assertThat(new File(baseDir, "set/unknown").exists(), is(false));
+        Map<String, String> digests = extracted.get(URI.create("http://example.com/set/res2"));
+        assertThat(digests.get("md5"), equalTo(md5("content of res2")));
+        assertThat(digests.get("sha1"), equalTo(HashUtil.computeHash("sha1",
+          new ByteArrayInputStream("content of res2".getBytes(StandardCharsets.UTF_8)))));
+        // no temporary files left behind
+        assertThat(baseDir.listFiles((dir, name) -> name.endsWith(".rsa-tmp")), arrayWithSize(0));
+        assertThat(new File(baseDir, "set").listFiles(), arrayWithSize(2));
+    }
+
+    @Test
+    public void testItemFilter() throws Exception {
+        String manifest = createManifest(
+          item("res1", "content of res1", "content of res1"),
+          item("res2", "content of res2", "content of res2"));
+        byte[] zip = createZip(
+          DumpPackageExtractor.MANIFEST, manifest,
+          "resources/res1", "content of res1",
+          "resources/res2", "content of res2");
+
+        int count = extractor.extract(new ByteArrayInputStream(zip), item -> item.getLoc().endsWith("res2"),
+          (uri, digests) -> { });
+
+        assertThat(count, is(1));
+        assertThat(new File(baseDir, "set/res1").exists(), is(false));
+        assertThat(read("/set/res2"), equalTo("content of res2"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testPackageWithoutManifest() throws Exception {
+        byte[] zip = createZip("resources/res1", "content of res1");
+        extractor.extract(new ByteArrayInputStream(zip), item -> true, (uri, digests) -> { });
+    }
+
+    private String read(String path) throws IOException {
+        return FileUtils.readFileToString(new File(baseDir, path), StandardCharsets.UTF_8);
+    }
+
+    private static String item(String name, String content, String bitstream) throws Exception {
+        return "  <url>\n" +
+          "      <loc>http://example.com/set/" + name + "</loc>\n" +
+          "      <rs:md hash=\"md5:" + md5(content) + "\" length=\"" + bitstream.length() + "\"" +
+          " path=\"/resources/" + name + "\"/>\n" +
+          "  </url>\n";
+    }
+
+    private static String createManifest(String... items) {
+        return "<?xml version='1.0' encoding='UTF-8'?>\n" +
+          "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:md capability=\"resourcedump-manifest\" at=\"2017-01-03T09:00:00Z\"/>\n" +
+          String.join("", items) +
+          "</urlset>\n";
+    }
+
+    private static byte[] createZip(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipOutputStream zout = new ZipOutputStream(baos)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zout.putNextEntry(new ZipEntry(namesAndContents[i]));
+                zout.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private static String md5(String content) throws Exception {
+        return HashUtil.computeHash("md5", new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+}
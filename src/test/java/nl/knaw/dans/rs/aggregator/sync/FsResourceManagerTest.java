@@ -0,0 +1,156 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
+import nl.knaw.dans.rs.aggregator.syncore.VerificationStatus;
+import nl.knaw.dans.rs.aggregator.util.HashUtil;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class FsResourceManagerTest {
+
+    private static String baseDir = "target/test-output/fsresourcemanager";
+    private static URI capabilityListUri = URI.create("http://example.com/set/capabilitylist.xml");
+
+    private URI uri = URI.create("http://example.com/set/resource1.txt");
+    private File resourceFile;
+    private String md5;
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(new File(baseDir));
+        PathFinder pathFinder = new PathFinder(baseDir, capabilityListUri);
+        resourceFile = pathFinder.findResourceFilePath(uri);
+        FileUtils.writeStringToFile(resourceFile, "content of resource1", StandardCharsets.UTF_8);
+        md5 = HashUtil.computeHash("md5", resourceFile);
+    }
+
+    @Test
+    public void testVerificationIsKeptInIndex() throws Exception {
+        PathFinder pathFinder = new PathFinder(baseDir, capabilityListUri);
+        FsResourceManager resourceManager = new FsResourceManager();
+        resourceManager.setPathFinder(pathFinder);
+        assertThat(resourceManager.exists(uri), is(true));
+        assertThat(resourceManager.verifyHash(uri, "md5", md5), equalTo(VerificationStatus.verification_success));
+        assertThat(resourceManager.verifySize(uri, resourceFile.length()),
+          equalTo(VerificationStatus.verification_success));
+        resourceManager.finish();
+
+        LocalResourceIndex index = LocalResourceIndex.load(pathFinder.getResourceIndexFile());
+        LocalResourceIndex.Entry entry = index.get(uri);
+        assertThat(entry, notNullValue());
+        assertThat(entry.getHash("MD5"), equalTo(md5));
+        assertThat(entry.getLength(), equalTo(resourceFile.length()));
+        assertThat(entry.getLastModified(), equalTo(resourceFile.lastModified()));
+
+        // a file removed behind our back is noticed
+        FileUtils.forceDelete(resourceFile);
+        resourceManager.setPathFinder(new PathFinder(baseDir, capabilityListUri));
+        assertThat(resourceManager.exists(uri), is(false));
+        resourceManager.finish();
+        assertThat(LocalResourceIndex.load(pathFinder.getResourceIndexFile()).get(uri), nullValue());
+    }
+
+    @Test
+    public void testTrustResourceIndex() throws Exception {
+        PathFinder pathFinder = new PathFinder(baseDir, capabilityListUri);
+        FsResourceManager resourceManager = new FsResourceManager();
+        resourceManager.setTrustResourceIndex(true);
+        resourceManager.setPathFinder(pathFinder);
+        assertThat(resourceManager.verifySize(uri, resourceFile.length()),
+          equalTo(VerificationStatus.verification_success));
+        resourceManager.finish();
+
+        // a trusted index answers, even if the file was removed behind our back
+        long length = resourceFile.length();
+        FileUtils.forceDelete(resourceFile);
+        resourceManager.setPathFinder(new PathFinder(baseDir, capabilityListUri));
+        assertThat(resourceManager.exists(uri), is(true));
+        assertThat(resourceManager.verifySize(uri, length), equalTo(VerificationStatus.verification_success));
+    }
+
+    @Test
+    public void testIndexFollowsChanges() throws Exception {
+        PathFinder pathFinder = new PathFinder(baseDir, capabilityListUri);
+        FsResourceManager resourceManager = new FsResourceManager();
+        resourceManager.setPathFinder(pathFinder);
+        assertThat(resourceManager.verifyHash(uri, "md5", md5), equalTo(VerificationStatus.verification_success));
+
+        resourceManager.delete(uri);
+        assertThat(resourceManager.exists(uri), is(false));
+
+        FileUtils.writeStringToFile(resourceFile, "content of resource1", StandardCharsets.UTF_8);
+        assertThat(resourceManager.exists(uri), is(true));
+        resourceManager.keepOnly(Collections.emptySet());
+        resourceManager.finish();
+        assertThat(resourceFile.exists(), is(false));
+        assertThat(LocalResourceIndex.load(pathFinder.getResourceIndexFile()).size(), equalTo(0));
+    }
+
+    @Test
+    public void testHashesComputedInOnePassAndReused() throws Exception {
+        PathFinder pathFinder = new PathFinder(baseDir, capabilityListUri);
+        FsResourceManager resourceManager = new FsResourceManager();
+        resourceManager.setHashAlgorithms(Arrays.asList("md5", "sha-256"));
+        resourceManager.setPathFinder(pathFinder);
+        assertThat(resourceManager.verifyHash(uri, "md5", md5), equalTo(VerificationStatus.verification_success));
+        resourceManager.finish();
+
+        String sha256 = HashUtil.computeHash("sha-256", resourceFile);
+        LocalResourceIndex.Entry entry = LocalResourceIndex.load(pathFinder.getResourceIndexFile()).get(uri);
+        assertThat(entry.getHash("sha-256"), equalTo(sha256));
+        Object fileKey = Files.readAttributes(resourceFile.toPath(), BasicFileAttributes.class).fileKey();
+        assertThat(entry.getFileKey(), equalTo(fileKey == null ? null : fileKey.toString()));
+
+        // unchanged file: hash comes from the index
+        resourceManager.setPathFinder(pathFinder);
+        assertThat(resourceManager.verifyHash(uri, "sha-256", sha256),
+          equalTo(VerificationStatus.verification_success));
+
+        // changed file: hash is computed again
+        FileUtils.writeStringToFile(resourceFile, "other content", StandardCharsets.UTF_8);
+        assertThat(resourceManager.verifyHash(uri, "sha-256", sha256),
+          equalTo(VerificationStatus.verification_failure));
+        resourceManager.finish();
+    }
+
+    @Test
+    public void testCachedHashIsCheckedOnDisk() throws Exception {
+        PathFinder pathFinder = new PathFinder(baseDir, capabilityListUri);
+        FsResourceManager resourceManager = new FsResourceManager();
+        resourceManager.setTrustResourceIndex(true);
+        resourceManager.setPathFinder(pathFinder);
+        assertThat(resourceManager.verifyHash(uri, "md5", md5), equalTo(VerificationStatus.verification_success));
+
+        // same length, other content and last modified time: the cached hash is not used, even if trusted
+        FileUtils.writeStringToFile(resourceFile, "CONTENT OF RESOURCE1", StandardCharsets.UTF_8);
+        resourceFile.setLastModified(resourceFile.lastModified() - 10000);
+        assertThat(resourceManager.verifyHash(uri, "md5", md5), equalTo(VerificationStatus.verification_failure));
+        resourceManager.finish();
+    }
+
+    @Test
+    public void testWithoutIndex() throws Exception {
+        PathFinder pathFinder = new PathFinder(baseDir, capabilityListUri);
+        FsResourceManager resourceManager = new FsResourceManager();
+        resourceManager.setResourceIndexEnabled(false);
+        resourceManager.setPathFinder(pathFinder);
+        assertThat(resourceManager.verifyHash(uri, "md5", md5), equalTo(VerificationStatus.verification_success));
+        resourceManager.finish();
+        assertThat(pathFinder.getResourceIndexFile().exists(), is(false));
+    }
+}
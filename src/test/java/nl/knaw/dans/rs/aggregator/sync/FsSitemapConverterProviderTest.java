@@ -0,0 +1,266 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.discover.ResultIndex;
+import nl.knaw.dans.rs.aggregator.discover.RsExplorer;
+import nl.knaw.dans.rs.aggregator.http.AbstractRemoteTest;
+import nl.knaw.dans.rs.aggregator.http.Result;
+import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
+import nl.knaw.dans.rs.aggregator.xml.RsRoot;
+import nl.knaw.dans.rs.aggregator.xml.Urlset;
+import nl.knaw.dans.rs.aggregator.xml.UrlsetReader;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+public class FsSitemapConverterProviderTest extends AbstractRemoteTest {
+
+    private static final String BASE_DIRECTORY = "target/test-output/converterprovider";
+
+    @Test
+    public void testConditionalRequest() throws Exception {
+        FileUtils.deleteDirectory(new File(BASE_DIRECTORY));
+        String path = "/conditional/resourcelist.xml";
+        String etag = "\"v1\"";
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path)
+                           .withHeader("If-None-Match", etag))
+          .respond(HttpResponse.response()
+                               .withStatusCode(304)
+                               .withHeader("ETag", etag));
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path))
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withHeader("ETag", etag)
+                               .withHeader("Last-Modified", "Tue, 03 Jan 2017 09:00:00 GMT")
+                               .withBody(createResourceList()));
+
+        URI uri = composeUri(path);
+        PathFinder pathFinder = new PathFinder(BASE_DIRECTORY, composeUri("/conditional/capabilitylist.xml"));
+        FsSitemapConverterProvider provider = new FsSitemapConverterProvider();
+        provider.withResourceSyncContext(getRsContext());
+        provider.setPathFinder(pathFinder);
+        RsExplorer explorer = new RsExplorer(getHttpclient(), getRsContext())
+          .withConverter(provider.getConverter())
+          .withRequestPreparer(provider.getRequestPreparer());
+
+        Result<RsRoot> result = explorer.explore(uri, new ResultIndex());
+        assertThat(result.getStatusCode(), is(200));
+        assertThat(result.getErrors().isEmpty(), is(true));
+        assertThat(new File(pathFinder.findSyncStateFilePath(uri).getPath() + ".validators.xml").exists(), is(true));
+
+        result = explorer.explore(uri, new ResultIndex());
+        assertThat(result.getStatusCode(), is(304));
+        assertThat(result.getErrors().isEmpty(), is(true));
+        assertThat(result.getContent().isPresent(), is(true));
+        assertThat(result.getContent().get(), instanceOf(Urlset.class));
+        Urlset urlset = (Urlset) result.getContent().get();
+        assertThat(urlset.isHeaderOnly(), is(true));
+        int count = 0;
+        try (UrlsetReader reader = new UrlsetReader(pathFinder.findMetadataFilePath(uri))) {
+            while (reader.readItem() != null) {
+                count++;
+            }
+        }
+        assertThat(count, is(2));
+
+        // without the sitemap on disk the request is unconditional.
+        assertThat(pathFinder.findMetadataFilePath(uri).delete(), is(true));
+        result = explorer.explore(uri, new ResultIndex());
+        assertThat(result.getStatusCode(), is(200));
+        assertThat(pathFinder.findMetadataFilePath(uri).exists(), is(true));
+    }
+
+    @Test
+    public void testTailRequest() throws Exception {
+        FileUtils.deleteDirectory(new File(BASE_DIRECTORY));
+        String path = "/tail/changelist.xml";
+        String v1 = createChangeList(1);
+        String v2 = createChangeList(2);
+        String v3 = createChangeList(3);
+        String v4 = createChangeList(4);
+        String v5 = createChangeList(5);
+        // the tail repeats the 64 bytes before the closing tag of the urlset on disk
+        int start = v1.lastIndexOf("</urlset>") - 64;
+        respondTail(path, start, v2.substring(start), v2.length(), "\"v2\"");
+        respondAll(path, v1, "\"v1\"");
+
+        URI uri = composeUri(path);
+        PathFinder pathFinder = new PathFinder(BASE_DIRECTORY, composeUri("/tail/capabilitylist.xml"));
+        FsSitemapConverterProvider provider = new FsSitemapConverterProvider();
+        provider.withResourceSyncContext(getRsContext());
+        provider.setPathFinder(pathFinder);
+        RsExplorer explorer = new RsExplorer(getHttpclient(), getRsContext())
+          .withConverter(provider.getConverter())
+          .withRequestPreparer(provider.getRequestPreparer());
+        File file = pathFinder.findMetadataFilePath(uri);
+
+        Result<RsRoot> result = explorer.explore(uri, new ResultIndex());
+        assertThat(result.getStatusCode(), is(200));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo(v1));
+
+        result = explorer.explore(uri, new ResultIndex());
+        assertThat(result.getStatusCode(), is(206));
+        assertThat(result.getErrors().isEmpty(), is(true));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo(v2));
+
+        // a tail that does not match the sitemap on disk is rejected and the whole sitemap is requested again
+        start = v2.lastIndexOf("</urlset>") - 64;
+        respondTail(path, start, v3.substring(start).replace("updated", "created"), v3.length(), "\"v3\"");
+        respondAll(path, v3, "\"v3\"");
+        result = explorer.explore(uri, new ResultIndex());
+        assertThat(result.getStatusCode(), is(200));
+        assertThat(result.getErrors().isEmpty(), is(true));
+        assertThat(result.getRetryCount(), is(1));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo(v3));
+
+        // a tail request that fails leaves the validators on disk alone and is made again next time
+        File validatorsFile = new File(pathFinder.findSyncStateFilePath(uri).getPath() + ".validators.xml");
+        String validators = FileUtils.readFileToString(validatorsFile, StandardCharsets.UTF_8);
+        start = v3.lastIndexOf("</urlset>") - 64;
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path)
+                           .withHeader("Range", "bytes=" + start + "-"),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(503));
+        result = explorer.explore(uri, new ResultIndex());
+        assertThat(result.getErrors().isEmpty(), is(false));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo(v3));
+        assertThat(FileUtils.readFileToString(validatorsFile, StandardCharsets.UTF_8), equalTo(validators));
+
+        respondTail(path, start, v4.substring(start), v4.length(), "\"v4\"");
+        result = explorer.explore(uri, new ResultIndex());
+        assertThat(result.getStatusCode(), is(206));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo(v4));
+
+        // if the whole sitemap cannot be requested after a tail that does not match, the next request asks for it
+        start = v4.lastIndexOf("</urlset>") - 64;
+        respondTail(path, start, v5.substring(start).replace("updated", "created"), v5.length(), "\"v5\"");
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(503));
+        result = explorer.explore(uri, new ResultIndex());
+        assertThat(result.getStatusCode(), is(503));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo(v4));
+
+        respondAll(path, v5, "\"v5\"");
+        result = explorer.explore(uri, new ResultIndex());
+        assertThat(result.getStatusCode(), is(200));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo(v5));
+        getMockServer().verify(HttpRequest.request().withPath(path), VerificationTimes.exactly(9));
+        getMockServer().verify(HttpRequest.request().withPath(path).withHeader("Range", "bytes=.*"),
+          VerificationTimes.exactly(5));
+    }
+
+    @Test
+    public void testTailRequestOnClosedChangeList() throws Exception {
+        FileUtils.deleteDirectory(new File(BASE_DIRECTORY));
+        String path = "/tail/closed/changelist.xml";
+        String open = createChangeList(1);
+        // closing the changelist adds an until attribute to the header, which shifts all items on the source
+        String closed = createChangeList(2, "2017-01-04T00:00:00Z");
+        respondAll(path, open, "\"v1\"");
+
+        URI uri = composeUri(path);
+        PathFinder pathFinder = new PathFinder(BASE_DIRECTORY, composeUri("/tail/closed/capabilitylist.xml"));
+        FsSitemapConverterProvider provider = new FsSitemapConverterProvider();
+        provider.withResourceSyncContext(getRsContext());
+        provider.setPathFinder(pathFinder);
+        RsExplorer explorer = new RsExplorer(getHttpclient(), getRsContext())
+          .withConverter(provider.getConverter())
+          .withRequestPreparer(provider.getRequestPreparer());
+        File file = pathFinder.findMetadataFilePath(uri);
+
+        Result<RsRoot> result = explorer.explore(uri, new ResultIndex());
+        assertThat(result.getStatusCode(), is(200));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo(open));
+
+        int start = open.lastIndexOf("</urlset>") - 64;
+        respondTail(path, start, closed.substring(start), closed.length(), "\"v2\"");
+        respondAll(path, closed, "\"v2\"");
+        result = explorer.explore(uri, new ResultIndex());
+        assertThat(result.getErrors().isEmpty(), is(true));
+        assertThat(result.getContent().isPresent(), is(true));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo(closed));
+        Urlset urlset = (Urlset) result.getContent().get();
+        assertThat(urlset.getMetadata().getUntil().isPresent(), is(true));
+        assertThat(result.getRetryCount(), is(1));
+        getMockServer().verify(HttpRequest.request().withPath(path), VerificationTimes.exactly(3));
+    }
+
+    private void respondAll(String path, String body, String etag) {
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withHeader("ETag", etag)
+                               .withBody(body));
+    }
+
+    private void respondTail(String path, int start, String tail, int length, String etag) {
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path)
+                           .withHeader("Range", "bytes=" + start + "-"),
+            Times.exactly(1))
+          .respond(HttpResponse.response()
+                               .withStatusCode(206)
+                               .withHeader("ETag", etag)
+                               .withHeader("Content-Range", "bytes " + start + "-" + (length - 1) + "/" + length)
+                               .withBody(tail));
+    }
+
+    private String createChangeList(int count) {
+        return createChangeList(count, null);
+    }
+
+    private String createChangeList(int count, String until) {
+        StringBuilder sb = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n" +
+          "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:md capability=\"changelist\" from=\"2017-01-03T00:00:00Z\"" +
+          (until == null ? "" : " until=\"" + until + "\"") + "/>\n");
+        for (int i = 1; i <= count; i++) {
+            sb.append("  <url><loc>").append(composePath("/tail/res" + i + ".txt")).append("</loc>")
+              .append("<rs:md change=\"updated\" datetime=\"2017-01-03T0").append(i).append(":00:00Z\"/></url>\n");
+        }
+        return sb.append("</urlset>\n").toString();
+    }
+
+    private String createResourceList() {
+        return "<?xml version='1.0' encoding='UTF-8'?>\n" +
+          "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:md capability=\"resourcelist\" at=\"2017-01-03T09:00:00Z\"/>\n" +
+          "  <url><loc>" + composePath("/conditional/resource1.txt") + "</loc></url>\n" +
+          "  <url><loc>" + composePath("/conditional/resource2.txt") + "</loc></url>\n" +
+          "</urlset>\n";
+    }
+}
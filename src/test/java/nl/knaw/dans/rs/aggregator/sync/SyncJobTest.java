@@ -0,0 +1,372 @@
+package nl.knaw.dans.rs.aggregator.sync;
+
+import nl.knaw.dans.rs.aggregator.http.AbstractRemoteTest;
+import nl.knaw.dans.rs.aggregator.http.HttpClientPool;
+import nl.knaw.dans.rs.aggregator.http.RetryPolicy;
+import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
+import nl.knaw.dans.rs.aggregator.syncore.Sync;
+import nl.knaw.dans.rs.aggregator.util.ExecutorMode;
+import nl.knaw.dans.rs.aggregator.util.HashUtil;
+import nl.knaw.dans.rs.aggregator.util.RsProperties;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.BinaryBody;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SyncJobTest extends AbstractRemoteTest {
+
+    private static final String BASE_DIRECTORY = "target/test-output/syncjob";
+
+    @Test
+    public void synchronizeConcurrently() throws Exception {
+        SyncJob syncJob = new SyncJob();
+        syncJob.setHttpClient(getHttpclient());
+        syncJob.setExplorerParallelism(2);
+        synchronizeAndVerify(syncJob, BASE_DIRECTORY);
+    }
+
+    @Test
+    public void synchronizeWithVirtualThreads() throws Exception {
+        HttpClientPool httpClientPool = new HttpClientPool();
+        httpClientPool.setMaxPerRoute(20);
+        SyncJob syncJob = new SyncJob();
+        syncJob.setHttpClientPool(httpClientPool);
+        syncJob.setExplorerParallelism(2);
+        syncJob.setParallelism(4);
+        syncJob.setExecutorMode(ExecutorMode.VIRTUAL);
+        try {
+            synchronizeAndVerify(syncJob, BASE_DIRECTORY + "-virtual");
+        } finally {
+            httpClientPool.close();
+        }
+    }
+
+    @Test
+    public void synchronizeWithRetries() throws Exception {
+        String baseDirectory = BASE_DIRECTORY + "-retry";
+        FileUtils.deleteDirectory(new File(baseDirectory));
+        for (String path : new String[] {"/retry/resourcelist.xml", "/retry/resource1.txt"}) {
+            getMockServer()
+              .when(HttpRequest.request()
+                               .withMethod("GET")
+                               .withPath(path),
+                Times.exactly(1))
+              .respond(HttpResponse.response()
+                                   .withStatusCode(503));
+        }
+        URI uri = expectResourceSet("retry");
+
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setBaseDelay(10);
+        SyncJob syncJob = new SyncJob();
+        syncJob.setHttpClient(getHttpclient());
+        syncJob.setRsContext(getRsContext());
+        syncJob.setVerificationPolicy(new NoVerificationPolicy());
+        syncJob.setBaseDirectory(baseDirectory);
+        syncJob.setRetryPolicy(retryPolicy);
+        syncJob.synchronize(Collections.singletonList(uri));
+
+        PathFinder pathFinder = new PathFinder(baseDirectory, uri);
+        RsProperties syncProps = new RsProperties();
+        syncProps.loadFromXML(pathFinder.getPrevSyncPropXmlFile());
+        assertThat(syncProps.getBool(Sync.PROP_SW_FULLY_SYNCHRONIZED), is(true));
+        assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT), is(2));
+        assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_RETRIES), is(2));
+        assertThat(syncProps.getInt(Sync.PROP_SW_RETRIES_LEFT), is(98));
+        assertThat(syncProps.getInt(Sync.PROP_SW_RETRIES + uri.resolve("resourcelist.xml")), is(1));
+        assertThat(syncProps.getInt(Sync.PROP_SW_RETRIES + uri.resolve("resource1.txt")), is(1));
+        // the template policy of the job is not used up
+        assertThat(retryPolicy.getRetriesLeft(), is(100));
+    }
+
+    @Test
+    public void synchronizeResourceDump() throws Exception {
+        String baseDirectory = BASE_DIRECTORY + "-dump";
+        URI uri = expectDumpSet("dump", "2017-01-03T09:00:00Z", "resourcedump");
+
+        SyncJob syncJob = new SyncJob();
+        syncJob.setBootstrapFromDump(false);
+        RsProperties syncProps = synchronizeDumpSet(syncJob, baseDirectory, uri);
+
+        // without a resourceList the resourceDump is used, also if not bootstrapping
+        assertThat(syncProps.getBool(Sync.PROP_SW_FULLY_SYNCHRONIZED), is(true));
+        assertThat(syncProps.getInt(Sync.PROP_CL_COUNT_RESOURCEDUMPS), is(1));
+        assertThat(syncProps.getInt(Sync.PROP_CL_COUNT_DUMP_PACKAGES), is(1));
+        assertThat(syncProps.getInt(Sync.PROP_SW_DUMP_PACKAGES_INGESTED), is(1));
+        assertThat(syncProps.getInt(Sync.PROP_SW_ITEMS_REMAIN), is(2));
+        assertThat(syncProps.getInt(Sync.PROP_SW_ITEMS_VERIFIED), is(2));
+        // the package and resource2
+        assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT), is(2));
+    }
+
+    @Test
+    public void synchronizeBootstrapFromDump() throws Exception {
+        String baseDirectory = BASE_DIRECTORY + "-bootstrap";
+        URI uri = expectDumpSet("bootstrap", "2017-01-03T09:00:00Z", "resourcelist", "resourcedump");
+
+        RsProperties syncProps = synchronizeDumpSet(new SyncJob(), baseDirectory, uri);
+
+        assertThat(syncProps.getBool(Sync.PROP_SW_FULLY_SYNCHRONIZED), is(true));
+        assertThat(syncProps.getInt(Sync.PROP_SW_DUMP_PACKAGES_INGESTED), is(1));
+        assertThat(syncProps.getInt(Sync.PROP_SW_ITEMS_REMAIN), is(2));
+        // the package and resource2, which is not in the package
+        assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT), is(2));
+        getMockServer().verify(HttpRequest.request().withPath("/bootstrap/resource1.txt"),
+          VerificationTimes.exactly(0));
+    }
+
+    @Test
+    public void synchronizeWithOlderResourceDump() throws Exception {
+        String baseDirectory = BASE_DIRECTORY + "-olderdump";
+        URI uri = expectDumpSet("olderdump", "2017-01-02T09:00:00Z", "resourcelist", "resourcedump");
+        expect("/olderdump/resource1.txt", "This is resource1 of olderdump");
+
+        // items of the resourceList have no metadata to verify
+        SyncJob syncJob = new SyncJob();
+        syncJob.setVerificationPolicy(new NoVerificationPolicy());
+        RsProperties syncProps = synchronizeDumpSet(syncJob, baseDirectory, uri);
+
+        assertThat(syncProps.getBool(Sync.PROP_SW_FULLY_SYNCHRONIZED), is(true));
+        assertThat(syncProps.getInt(Sync.PROP_SW_DUMP_PACKAGES_INGESTED), is(0));
+        assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT), is(2));
+        getMockServer().verify(HttpRequest.request().withPath("/olderdump/package1.zip"),
+          VerificationTimes.exactly(0));
+    }
+
+    @Test
+    public void synchronizePrunesOldChangeLists() throws Exception {
+        String baseDirectory = BASE_DIRECTORY + "-prune";
+        FileUtils.deleteDirectory(new File(baseDirectory));
+        String set = "prune";
+        expect("/" + set + "/capabilitylist.xml", createCapabilityList(set, "resourcelist", "changelist"));
+        expect("/" + set + "/resourcelist.xml", createResourceList(set));
+        expect("/" + set + "/description.txt", "Description of " + set);
+        expect("/" + set + "/resource1.txt", "This is resource1 of " + set);
+        expect("/" + set + "/resource2.txt", "This is resource2 of " + set);
+        expect("/" + set + "/changelist.xml", "<?xml version='1.0' encoding='UTF-8'?>\n" +
+          "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:md capability=\"changelist\"/>\n" +
+          "  <sitemap>\n" +
+          "      <loc>" + composePath("/" + set + "/changelist1.xml") + "</loc>\n" +
+          "      <rs:md from=\"2017-01-04T00:00:00Z\" until=\"2017-01-05T00:00:00Z\"/>\n" +
+          "  </sitemap>\n" +
+          "  <sitemap>\n" +
+          "      <loc>" + composePath("/" + set + "/changelist2.xml") + "</loc>\n" +
+          "      <rs:md from=\"2017-01-05T00:00:00Z\"/>\n" +
+          "  </sitemap>\n" +
+          "</sitemapindex>\n");
+        expect("/" + set + "/changelist1.xml", createChangeList(set, "2017-01-04T00:00:00Z", "resource1.txt"));
+        expect("/" + set + "/changelist2.xml", createChangeList(set, "2017-01-05T00:00:00Z", "resource2.txt"));
+        URI uri = composeUri("/" + set + "/capabilitylist.xml");
+
+        SyncJob syncJob = new SyncJob();
+        syncJob.setHttpClient(getHttpclient());
+        syncJob.setRsContext(getRsContext());
+        syncJob.setVerificationPolicy(new NoVerificationPolicy());
+        syncJob.setBaseDirectory(baseDirectory);
+        syncJob.synchronize(Collections.singletonList(uri));
+        // the second run only looks at changes after the first run
+        syncJob.synchronize(Collections.singletonList(uri));
+
+        PathFinder pathFinder = new PathFinder(baseDirectory, uri);
+        RsProperties syncProps = new RsProperties();
+        syncProps.loadFromXML(pathFinder.getPrevSyncPropXmlFile());
+        assertThat(syncProps.getBool(Sync.PROP_SW_FULLY_SYNCHRONIZED), is(true));
+        assertThat(syncProps.getInt(Sync.PROP_CL_COUNT_PRUNED_LISTS), is(1));
+        assertThat(syncProps.getDateTime(Sync.PROP_CL_DATE_LATEST_CHANGELIST).toInstant(),
+          is(Instant.parse("2017-01-05T00:00:00Z")));
+        // the closed changeList is not fetched again, the open changeList is
+        getMockServer().verify(HttpRequest.request().withPath("/" + set + "/changelist1.xml"),
+          VerificationTimes.exactly(1));
+        getMockServer().verify(HttpRequest.request().withPath("/" + set + "/changelist2.xml"),
+          VerificationTimes.exactly(2));
+    }
+
+    private URI expectDumpSet(String set, String dumpAt, String... capabilities) throws Exception {
+        expect("/" + set + "/capabilitylist.xml", createCapabilityList(set, capabilities));
+        expect("/" + set + "/resourcelist.xml", createResourceList(set));
+        expect("/" + set + "/resourcedump.xml", createResourceDump(set, dumpAt));
+        expect("/" + set + "/description.txt", "Description of " + set);
+        // resource2 is in the manifest, but not in the package
+        expect("/" + set + "/resource2.txt", "This is resource2 of " + set);
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath("/" + set + "/package1.zip"))
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withBody(BinaryBody.binary(createDumpPackage(set))));
+        return composeUri("/" + set + "/capabilitylist.xml");
+    }
+
+    private RsProperties synchronizeDumpSet(SyncJob syncJob, String baseDirectory, URI uri) throws Exception {
+        FileUtils.deleteDirectory(new File(baseDirectory));
+        syncJob.setHttpClient(getHttpclient());
+        syncJob.setRsContext(getRsContext());
+        syncJob.setBaseDirectory(baseDirectory);
+        syncJob.synchronize(Collections.singletonList(uri));
+
+        PathFinder pathFinder = new PathFinder(baseDirectory, uri);
+        String set = uri.getPath().split("/")[1];
+        for (int i = 1; i <= 2; i++) {
+            File file = pathFinder.findResourceFilePath(uri.resolve("resource" + i + ".txt"));
+            assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8),
+              is("This is resource" + i + " of " + set));
+        }
+        RsProperties syncProps = new RsProperties();
+        syncProps.loadFromXML(pathFinder.getPrevSyncPropXmlFile());
+        return syncProps;
+    }
+
+    private void synchronizeAndVerify(SyncJob syncJob, String baseDirectory) throws Exception {
+        FileUtils.deleteDirectory(new File(baseDirectory));
+        List<URI> uriList = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            uriList.add(expectResourceSet("set" + i));
+        }
+
+        syncJob.setRsContext(getRsContext());
+        syncJob.setVerificationPolicy(new NoVerificationPolicy());
+        syncJob.setBaseDirectory(baseDirectory);
+        syncJob.setMaxConcurrentSets(3);
+        syncJob.synchronize(uriList);
+
+        for (URI uri : uriList) {
+            PathFinder pathFinder = new PathFinder(baseDirectory, uri);
+            for (int i = 1; i <= 2; i++) {
+                URI resourceUri = uri.resolve("resource" + i + ".txt");
+                assertThat(pathFinder.findResourceFilePath(resourceUri).exists(), is(true));
+            }
+
+            RsProperties syncProps = new RsProperties();
+            syncProps.loadFromXML(pathFinder.getPrevSyncPropXmlFile());
+            assertThat(syncProps.getBool(Sync.PROP_SW_FULLY_SYNCHRONIZED), is(true));
+            assertThat(syncProps.getInt(Sync.PROP_SW_ITEMS_REMAIN), is(2));
+            assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT), is(2));
+        }
+    }
+
+    private URI expectResourceSet(String set) {
+        expect("/" + set + "/capabilitylist.xml", createCapabilityList(set));
+        expect("/" + set + "/resourcelist.xml", createResourceList(set));
+        expect("/" + set + "/description.txt", "Description of " + set);
+        expect("/" + set + "/resource1.txt", "This is resource1 of " + set);
+        expect("/" + set + "/resource2.txt", "This is resource2 of " + set);
+        return composeUri("/" + set + "/capabilitylist.xml");
+    }
+
+    private void expect(String path, String body) {
+        getMockServer()
+          .when(HttpRequest.request()
+                           .withMethod("GET")
+                           .withPath(path))
+          .respond(HttpResponse.response()
+                               .withStatusCode(200)
+                               .withBody(body));
+    }
+
+    private String createCapabilityList(String set) {
+        return createCapabilityList(set, "resourcelist");
+    }
+
+    private String createCapabilityList(String set, String... capabilities) {
+        StringBuilder sb = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n" +
+          "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:ln rel=\"describedby\" href=\"" + composePath("/" + set + "/description.txt") + "\"\n" +
+          "         type=\"text/plain\"/>\n" +
+          "  <rs:md capability=\"capabilitylist\"/>\n");
+        for (String capability : capabilities) {
+            sb.append("  <url>\n")
+              .append("      <loc>").append(composePath("/" + set + "/" + capability + ".xml")).append("</loc>\n")
+              .append("      <rs:md capability=\"").append(capability).append("\"/>\n")
+              .append("  </url>\n");
+        }
+        return sb.append("</urlset>\n").toString();
+    }
+
+    private String createResourceList(String set) {
+        return "<?xml version='1.0' encoding='UTF-8'?>\n" +
+          "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:ln rel=\"up\" href=\"" + composePath("/" + set + "/capabilitylist.xml") + "\"/>\n" +
+          "  <rs:md capability=\"resourcelist\" at=\"2017-01-03T09:00:00Z\" completed=\"2017-01-03T09:01:00Z\"/>\n" +
+          "  <url>\n" +
+          "      <loc>" + composePath("/" + set + "/resource1.txt") + "</loc>\n" +
+          "  </url>\n" +
+          "  <url>\n" +
+          "      <loc>" + composePath("/" + set + "/resource2.txt") + "</loc>\n" +
+          "  </url>\n" +
+          "</urlset>\n";
+    }
+
+    private String createChangeList(String set, String from, String resource) {
+        return "<?xml version='1.0' encoding='UTF-8'?>\n" +
+          "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:ln rel=\"index\" href=\"" + composePath("/" + set + "/changelist.xml") + "\"/>\n" +
+          "  <rs:md capability=\"changelist\" from=\"" + from + "\"/>\n" +
+          "  <url>\n" +
+          "      <loc>" + composePath("/" + set + "/" + resource) + "</loc>\n" +
+          "      <rs:md change=\"updated\" datetime=\"" + from.replace("T00", "T10") + "\"/>\n" +
+          "  </url>\n" +
+          "</urlset>\n";
+    }
+
+    private String createResourceDump(String set, String at) {
+        return "<?xml version='1.0' encoding='UTF-8'?>\n" +
+          "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:ln rel=\"up\" href=\"" + composePath("/" + set + "/capabilitylist.xml") + "\"/>\n" +
+          "  <rs:md capability=\"resourcedump\" at=\"" + at + "\"/>\n" +
+          "  <url>\n" +
+          "      <loc>" + composePath("/" + set + "/package1.zip") + "</loc>\n" +
+          "      <rs:md type=\"application/zip\"/>\n" +
+          "  </url>\n" +
+          "</urlset>\n";
+    }
+
+    private byte[] createDumpPackage(String set) throws Exception {
+        StringBuilder manifest = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n" +
+          "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:md capability=\"resourcedump-manifest\" at=\"2017-01-03T09:00:00Z\"/>\n");
+        for (int i = 1; i <= 2; i++) {
+            byte[] content = ("This is resource" + i + " of " + set).getBytes(StandardCharsets.UTF_8);
+            String md5 = HashUtil.computeHash("md5", new ByteArrayInputStream(content));
+            manifest.append("  <url>\n")
+                    .append("      <loc>").append(composePath("/" + set + "/resource" + i + ".txt")).append("</loc>\n")
+                    .append("      <rs:md hash=\"md5:").append(md5).append("\" length=\"").append(content.length)
+                    .append("\" path=\"/resources/resource").append(i).append(".txt\"/>\n")
+                    .append("  </url>\n");
+        }
+        manifest.append("</urlset>\n");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipOutputStream zout = new ZipOutputStream(baos)) {
+            zout.putNextEntry(new ZipEntry(DumpPackageExtractor.MANIFEST));
+            zout.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+            zout.putNextEntry(new ZipEntry("resources/resource1.txt"));
+            zout.write(("This is resource1 of " + set).getBytes(StandardCharsets.UTF_8));
+        }
+        return baos.toByteArray();
+    }
+}
@@ -1,15 +1,27 @@
 package nl.knaw.dans.rs.aggregator.sync;
 
+import nl.knaw.dans.rs.aggregator.syncore.PathFinder;
+import nl.knaw.dans.rs.aggregator.syncore.ResourceManager;
+import nl.knaw.dans.rs.aggregator.syncore.Sync;
+import nl.knaw.dans.rs.aggregator.syncore.VerificationStatus;
+import nl.knaw.dans.rs.aggregator.util.HostPermits;
+import nl.knaw.dans.rs.aggregator.util.RsProperties;
 import nl.knaw.dans.rs.aggregator.xml.RsMd;
 import nl.knaw.dans.rs.aggregator.xml.UrlItem;
 import org.junit.Test;
 
+import javax.annotation.Nonnull;
+import java.net.URI;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.core.IsEqual.equalTo;
 
 /**
@@ -43,4 +55,120 @@ public class SyncWorkerTest {
         assertThat(map.get("abc"), equalTo(item2));
 
     }
+
+    @Test
+    public void testConcurrentSynchronization() {
+        Map<URI, UrlItem> items = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            String loc = "http://example.com/set1/resource" + i + ".txt";
+            items.put(URI.create(loc), new UrlItem(loc).withMetadata(new RsMd().withChange("created")));
+        }
+        SitemapCollector collector = new SitemapCollector() {
+            @Override
+            public void collectSitemaps(PathFinder pathFinder, RsProperties syncProps) {
+                // items are given
+            }
+
+            @Override
+            public boolean hasErrors() {
+                return false;
+            }
+
+            @Override
+            public boolean hasNewResourceList() {
+                return false;
+            }
+
+            @Override
+            public Map<URI, UrlItem> getMostRecentItems() {
+                return items;
+            }
+        };
+        CountingResourceManager resourceManager = new CountingResourceManager();
+        SyncWorker syncWorker = new SyncWorker()
+          .withSitemapCollector(collector)
+          .withResourceManager(resourceManager)
+          .withVerificationPolicy(new NoVerificationPolicy())
+          .withMaxDownloads(100)
+          .withParallelism(8)
+          .withHostPermits(new HostPermits(4));
+        PathFinder pathFinder = new PathFinder("target/test-output/syncworker",
+          URI.create("http://example.com/set1/capabilitylist.xml"));
+        RsProperties syncProps = new RsProperties();
+
+        syncWorker.synchronize(pathFinder, syncProps);
+
+        assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_ITEMS), is(500));
+        assertThat(syncProps.getInt(Sync.PROP_SW_TOTAL_DOWNLOAD_COUNT), is(100));
+        assertThat(syncProps.getInt(Sync.PROP_SW_ITEMS_CREATED), is(100));
+        assertThat(syncProps.getInt(Sync.PROP_SW_FAILED_CREATIONS), is(400));
+        assertThat(resourceManager.created.get(), is(100));
+        assertThat(resourceManager.maxConcurrent.get(), lessThanOrEqualTo(4));
+        assertThat(syncProps.getBool(Sync.PROP_SW_FULLY_SYNCHRONIZED), is(false));
+    }
+
+    private static class CountingResourceManager implements ResourceManager {
+
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        @Override
+        public void setPathFinder(PathFinder pathFinder) {
+        }
+
+        @Override
+        public boolean exists(@Nonnull URI normalizedURI) {
+            return false;
+        }
+
+        @Override
+        public VerificationStatus verifyHash(@Nonnull URI normalizedURI, @Nonnull String algorithm, @Nonnull String hash) {
+            return VerificationStatus.not_verified;
+        }
+
+        @Override
+        public VerificationStatus verifyLastModified(@Nonnull URI normalizedURI, @Nonnull ZonedDateTime lastModified) {
+            return VerificationStatus.not_verified;
+        }
+
+        @Override
+        public VerificationStatus verifySize(@Nonnull URI normalizedURI, long size) {
+            return VerificationStatus.not_verified;
+        }
+
+        @Override
+        public boolean keepOnly(@Nonnull Set<URI> normalizedURIs) {
+            return true;
+        }
+
+        @Override
+        public boolean keep(@Nonnull URI normalizedURI) {
+            return true;
+        }
+
+        @Override
+        public boolean create(@Nonnull URI normalizedURI) {
+            int current = concurrent.incrementAndGet();
+            maxConcurrent.accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            created.incrementAndGet();
+            concurrent.decrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean update(@Nonnull URI normalizedURI) {
+            return true;
+        }
+
+        @Override
+        public boolean delete(@Nonnull URI normalizedURI) {
+            return true;
+        }
+    }
 }
@@ -0,0 +1,89 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import nl.knaw.dans.rs.aggregator.http.ResourceReader;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+public class AtomicFileUtilTest {
+
+    private static File baseDir = new File("target/test-output/atomicfileutil");
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(baseDir);
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        File file = new File(baseDir, "sub/file.txt");
+        AtomicFileUtil.write(file, true, out -> out.write("first".getBytes(StandardCharsets.UTF_8)));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo("first"));
+
+        AtomicFileUtil.write(file, false, out -> out.write("second".getBytes(StandardCharsets.UTF_8)));
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo("second"));
+        assertThat(AtomicFileUtil.getTempFile(file).exists(), is(false));
+    }
+
+    @Test
+    public void testFailedWriteLeavesFileUntouched() throws Exception {
+        File file = new File(baseDir, "file.txt");
+        FileUtils.writeStringToFile(file, "old content", StandardCharsets.UTF_8);
+        try {
+            AtomicFileUtil.write(file, false, out -> {
+                out.write("partial".getBytes(StandardCharsets.UTF_8));
+                throw new IOException("broken transfer");
+            });
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), equalTo("broken transfer"));
+        }
+        assertThat(FileUtils.readFileToString(file, StandardCharsets.UTF_8), equalTo("old content"));
+        assertThat(AtomicFileUtil.getTempFile(file).exists(), is(false));
+    }
+
+    @Test
+    public void testDeleteTempFiles() throws Exception {
+        File file = new File(baseDir, "a/b/file.txt");
+        FileUtils.writeStringToFile(file, "content", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(AtomicFileUtil.getTempFile(file), "stale", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(baseDir, "other.part"), "stale", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(baseDir, "resource.tmp"), "resource", StandardCharsets.UTF_8);
+
+        assertThat(AtomicFileUtil.deleteTempFiles(baseDir, AtomicFileUtil.TEMP_EXTENSION, ".part"), is(2));
+        assertThat(file.exists(), is(true));
+        assertThat(AtomicFileUtil.getTempFile(file).exists(), is(false));
+        assertThat(new File(baseDir, "other.part").exists(), is(false));
+        assertThat(new File(baseDir, "resource.tmp").exists(), is(true));
+        assertThat(AtomicFileUtil.deleteTempFiles(new File(baseDir, "missing"), AtomicFileUtil.TEMP_EXTENSION),
+          is(0));
+    }
+
+    @Test
+    public void testKeepResumableFiles() throws Exception {
+        File part = new File(baseDir, "a/resource.txt" + ResourceReader.PART_EXTENSION);
+        File orphan = new File(baseDir, "a/orphan.txt" + ResourceReader.PART_EXTENSION);
+        File validator = ResourceReader.getValidatorFile(part);
+        File orphanValidator = new File(baseDir, "a/gone.txt" + ResourceReader.VALIDATOR_EXTENSION);
+        FileUtils.writeStringToFile(part, "partial", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(validator, "\"v1\"", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(orphan, "partial", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(orphanValidator, "\"v1\"", StandardCharsets.UTF_8);
+
+        assertThat(AtomicFileUtil.deleteTempFiles(baseDir, ResourceReader::isResumable,
+          ResourceReader.PART_EXTENSION, ResourceReader.VALIDATOR_EXTENSION), is(2));
+        assertThat(part.exists(), is(true));
+        assertThat(validator.exists(), is(true));
+        assertThat(orphan.exists(), is(false));
+        assertThat(orphanValidator.exists(), is(false));
+    }
+}
@@ -0,0 +1,57 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class ExecutorModeTest {
+
+    @Test
+    public void testVirtualExecutorIsBounded() throws Exception {
+        int parallelism = 3;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger virtual = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+
+        ExecutorService executor = ExecutorMode.VIRTUAL.newExecutor(parallelism);
+        for (int i = 0; i < 30; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                if (Thread.currentThread().isVirtual()) {
+                    virtual.incrementAndGet();
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.incrementAndGet();
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS), is(true));
+
+        assertThat(done.get(), equalTo(30));
+        assertThat(virtual.get(), equalTo(30));
+        assertThat(maxRunning.get(), lessThanOrEqualTo(parallelism));
+    }
+
+    @Test
+    public void testSubmitOnVirtualExecutor() throws Exception {
+        ExecutorService executor = ExecutorMode.VIRTUAL.newExecutor(1);
+        try {
+            assertThat(executor.submit(() -> "done").get(10, TimeUnit.SECONDS), equalTo("done"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
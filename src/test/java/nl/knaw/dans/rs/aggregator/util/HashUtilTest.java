@@ -0,0 +1,29 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+public class HashUtilTest {
+
+    @Test
+    public void testComputeHashes() throws Exception {
+        byte[] content = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+        Map<String, String> hashes = HashUtil.computeHashes(Arrays.asList("md5", "sha1", "sha-256"),
+          new ByteArrayInputStream(content));
+
+        assertThat(hashes.keySet(), contains("md5", "sha1", "sha-256"));
+        assertThat(hashes.get("md5"), equalTo("9e107d9d372bb6826bd81d3542a419d6"));
+        assertThat(hashes.get("sha1"), equalTo("2fd4e1c67a2d28fced849ee1bb76e7391b93eb12"));
+        assertThat(hashes.get("sha-256"),
+          equalTo("d7a8fbb307d7809469ca9abcb0082e4f8d5651e46d3cdb762d02d0bf37c9e592"));
+        assertThat(HashUtil.computeHash("md5", new ByteArrayInputStream(content)), equalTo(hashes.get("md5")));
+    }
+}
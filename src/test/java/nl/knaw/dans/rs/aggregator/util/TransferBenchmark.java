@@ -0,0 +1,150 @@
+package nl.knaw.dans.rs.aggregator.util;
+
+import com.sun.net.httpserver.HttpServer;
+import nl.knaw.dans.rs.aggregator.http.HttpClientPool;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing http response bodies to disk with the 8 KB byte[] loop against {@link TransferUtil}, with and
+ * without computing an md5 digest. Bodies come from a local http server in the same JVM, so the network does not
+ * dominate. Next to the throughput, the cpu time of the benchmark thread per GB transferred is printed after each
+ * iteration. Run with the main method from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+
+    private static final int BODY_SIZE = 32 * 1024 * 1024;
+
+    @Param({"false", "true"})
+    private boolean digest;
+
+    private HttpServer server;
+    private CloseableHttpClient httpClient;
+    private URI uri;
+    private File file;
+    private ThreadMXBean threadMXBean;
+    private long cpuStart;
+    private long bytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] body = new byte[BODY_SIZE];
+        new Random(42).nextBytes(body);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/body", exchange -> {
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/body");
+        httpClient = new HttpClientPool().getHttpClient();
+        file = File.createTempFile("transfer", ".bin");
+        threadMXBean = ManagementFactory.getThreadMXBean();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        httpClient.close();
+        server.stop(0);
+        file.delete();
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        bytes = 0;
+        cpuStart = threadMXBean.getCurrentThreadCpuTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        double gigabytes = bytes / (1024.0 * 1024 * 1024);
+        double cpuMillis = (threadMXBean.getCurrentThreadCpuTime() - cpuStart) / 1e6;
+        System.out.printf("%ncpu per GB: %.0f ms%n", cpuMillis / gigabytes);
+    }
+
+    @Benchmark
+    public long byteArrayLoop() throws Exception {
+        List<MessageDigest> digests = digests();
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(uri));
+             InputStream instream = response.getEntity().getContent();
+             OutputStream outstream = new FileOutputStream(file)) {
+            byte[] buffer = new byte[8 * 1024];
+            int bytesRead;
+            long total = 0L;
+            while ((bytesRead = instream.read(buffer)) != -1) {
+                outstream.write(buffer, 0, bytesRead);
+                for (MessageDigest digest : digests) {
+                    digest.update(buffer, 0, bytesRead);
+                }
+                total += bytesRead;
+            }
+            bytes += total;
+            return total;
+        }
+    }
+
+    @Benchmark
+    public long transferUtil() throws Exception {
+        List<MessageDigest> digests = digests();
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(uri));
+             InputStream instream = response.getEntity().getContent();
+             FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+               StandardOpenOption.TRUNCATE_EXISTING)) {
+            long total = TransferUtil.copy(instream, channel, 0L, digests);
+            bytes += total;
+            return total;
+        }
+    }
+
+    private List<MessageDigest> digests() throws Exception {
+        return digest ? Collections.singletonList(MessageDigest.getInstance("md5")) : Collections.emptyList();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+          .include(TransferBenchmark.class.getSimpleName())
+          .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,69 @@
+package nl.knaw.dans.rs.aggregator.xml;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.xml.bind.JAXBElement;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares unmarshalling of a small sitemap with a new Unmarshaller per document against the Unmarshaller that
+ * {@link ResourceSyncContext} keeps per thread. Run with the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ResourceSyncContextBenchmark {
+
+    private ResourceSyncContext rsContext;
+    private String xml;
+
+    @Setup
+    public void setUp() throws Exception {
+        rsContext = new ResourceSyncContext();
+        Urlset urlset = new Urlset(new RsMd("capabilitylist"))
+          .addLink(new RsLn("up", "http://example.com/.well-known/resourcesync"))
+          .addItem(new UrlItem("http://example.com/resourcelist.xml").withMetadata(new RsMd("resourcelist")))
+          .addItem(new UrlItem("http://example.com/changelist.xml").withMetadata(new RsMd("changelist")));
+        xml = new RsBuilder(rsContext).toXml(urlset, false);
+    }
+
+    @Benchmark
+    public Object newUnmarshaller() throws Exception {
+        return ((JAXBElement<?>) rsContext.createUnmarshaller().unmarshal(new StringReader(xml))).getValue();
+    }
+
+    @Benchmark
+    public Object threadUnmarshaller() throws Exception {
+        return ((JAXBElement<?>) rsContext.getUnmarshaller().unmarshal(new StringReader(xml))).getValue();
+    }
+
+    @Benchmark
+    public Object rsBuilder() throws Exception {
+        return new RsBuilder(rsContext).setReader(new StringReader(xml)).build().orElse(null);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+          .include(ResourceSyncContextBenchmark.class.getSimpleName())
+          .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,51 @@
+package nl.knaw.dans.rs.aggregator.xml;
+
+import org.junit.Test;
+
+import javax.xml.bind.Unmarshaller;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class ResourceSyncContextTest {
+
+    @Test
+    public void testUnmarshallerPerThread() throws Exception {
+        ResourceSyncContext rsContext = new ResourceSyncContext();
+        Unmarshaller unmarshaller = rsContext.getUnmarshaller();
+        assertThat(rsContext.getUnmarshaller(), sameInstance(unmarshaller));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Unmarshaller other = executor.submit(rsContext::getUnmarshaller).get();
+        executor.shutdown();
+        assertThat(other, not(sameInstance(unmarshaller)));
+    }
+
+    @Test
+    public void testConcurrentBuild() throws Exception {
+        ResourceSyncContext rsContext = new ResourceSyncContext();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String loc = "http://example.com/resource" + i;
+            futures.add(executor.submit(() -> {
+                RsBuilder rsBuilder = new RsBuilder(rsContext);
+                String xml = rsBuilder.toXml(new Urlset(new RsMd("resourcelist")).addItem(new UrlItem(loc)), false);
+                Urlset urlset = (Urlset) rsBuilder.setReader(new StringReader(xml)).build().orElse(null);
+                return urlset.getItemList().get(0).getLoc();
+            }));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertThat(futures.get(i).get(), equalTo("http://example.com/resource" + i));
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,156 @@
+package nl.knaw.dans.rs.aggregator.xml;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class UrlsetReaderTest {
+
+    @Test
+    public void testReadEqualsUnmarshal() throws Exception {
+        RsBuilder rsBuilder = new RsBuilder(new ResourceSyncContext());
+        String xml = rsBuilder.toXml(createUrlset(), true);
+
+        Urlset streamed;
+        try (UrlsetReader reader = new UrlsetReader(IOUtils.toInputStream(xml, StandardCharsets.UTF_8))) {
+            assertThat(reader.getRootName(), equalTo(Urlset.QNAME));
+            streamed = reader.getUrlset().orElse(null);
+            UrlItem item;
+            while ((item = reader.readItem()) != null) {
+                streamed.addItem(item);
+            }
+            assertThat(reader.readItem(), nullValue());
+        }
+
+        assertThat(rsBuilder.toXml(streamed, true), equalTo(xml));
+    }
+
+    @Test
+    public void testReadSitemapindex() throws Exception {
+        String xml = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+          "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:md capability=\"resourcelist\" at=\"2017-01-03T09:00:00Z\"/>\n" +
+          "  <sitemap><loc>http://example.com/resourcelist1.xml</loc></sitemap>\n" +
+          "</sitemapindex>\n";
+        try (UrlsetReader reader = new UrlsetReader(IOUtils.toInputStream(xml, StandardCharsets.UTF_8))) {
+            assertThat(reader.getRootName(), equalTo(Sitemapindex.QNAME));
+            assertThat(reader.getUrlset().isPresent(), is(false));
+            assertThat(reader.readItem(), nullValue());
+        }
+    }
+
+    @Test
+    public void testSkipUpTo() throws Exception {
+        String xml = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+          "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+          "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+          "  <rs:md capability=\"changelist\" from=\"2017-01-03T00:00:00Z\"/>\n" +
+          "  <url><loc>http://example.com/res1</loc>" +
+          "<rs:md change=\"created\" datetime=\"2017-01-03T09:00:00Z\"/><rs:ln rel=\"duplicate\" href=\"x\"/></url>\n" +
+          "  <url><loc>http://example.com/res2</loc>" +
+          "<rs:md change=\"updated\" datetime=\"2017-01-03T10:00:00Z\"/></url>\n" +
+          "  <url><loc>http://example.com/res3</loc><rs:md change=\"updated\"/></url>\n" +
+          "  <url><loc>http://example.com/res4</loc>" +
+          "<rs:md change=\"deleted\" datetime=\"2017-01-03T11:00:00Z\"/></url>\n" +
+          "</urlset>\n";
+        ZonedDateTime skipUpTo = ZonedDateTime.of(2017, 1, 3, 10, 0, 0, 0, ZoneOffset.UTC);
+        try (UrlsetReader reader = new UrlsetReader(IOUtils.toInputStream(xml, StandardCharsets.UTF_8))
+          .withSkipUpTo(skipUpTo)) {
+            // items without datetime are not skipped
+            assertThat(reader.readItem().getLoc(), equalTo("http://example.com/res3"));
+            assertThat(reader.readItem().getLoc(), equalTo("http://example.com/res4"));
+            assertThat(reader.readItem(), nullValue());
+            assertThat(reader.getSkippedCount(), is(2));
+        }
+    }
+
+    @Test
+    public void testStreamLargeUrlset() throws Exception {
+        File file = new File("target/test-output/urlsetreader/large-resourcelist.xml");
+        file.getParentFile().mkdirs();
+        int count = 50000;
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write("<?xml version='1.0' encoding='UTF-8'?>\n" +
+              "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n" +
+              "        xmlns:rs=\"http://www.openarchives.org/rs/terms/\">\n" +
+              "  <rs:ln rel=\"up\" href=\"http://example.com/capabilitylist.xml\"/>\n" +
+              "  <rs:md capability=\"resourcelist\" at=\"2017-01-03T09:00:00Z\"/>\n");
+            for (int i = 0; i < count; i++) {
+                writer.write("  <url><loc>http://example.com/res" + i + "</loc>" +
+                  "<lastmod>2017-01-02T13:00:00Z</lastmod>" +
+                  "<rs:md hash=\"md5:1584abdf8ebdc9802ac0c6a7402c03b6\" length=\"" + i + "\"/></url>\n");
+            }
+            writer.write("</urlset>\n");
+        }
+
+        int read = 0;
+        long totalLength = 0;
+        try (UrlsetReader reader = new UrlsetReader(file)) {
+            Urlset header = reader.getUrlset().orElse(null);
+            assertThat(header.getMetadata().getCapability().orElse(""), equalTo("resourcelist"));
+            assertThat(header.getHref("up"), equalTo("http://example.com/capabilitylist.xml"));
+            UrlItem item;
+            while ((item = reader.readItem()) != null) {
+                assertThat(item.getLoc(), equalTo("http://example.com/res" + read));
+                totalLength += item.getMetadata().flatMap(RsMd::getLength).orElse(0L);
+                read++;
+            }
+            assertThat(header.getItemList().isEmpty(), is(true));
+        }
+        assertThat(read, is(count));
+        assertThat(totalLength, is((long) count * (count - 1) / 2));
+    }
+
+    private Urlset createUrlset() {
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        RsMd rsMd = new RsMd("changelist")
+          .withFrom(now)
+          .withUntil(now);
+
+        RsMd urlRsMd = new RsMd()
+          .withDateTime(now)
+          .withChange("updated")
+          .withEncoding("encoding")
+          .withHash("md5:1584abdf8ebdc9802ac0c6a7402c03b6")
+          .withLength(2L)
+          .withPath("another/path")
+          .withType("text/plain");
+
+        RsLn urlLink1 = new RsLn("describedby", "http://example.com/info_about_set1_of_resources.xml")
+          .withEncoding("UTF-8")
+          .withHash("md5:1584abdf8ebdc9802ac0c6a7402c03b6")
+          .withLength(1000L)
+          .withModified(now)
+          .withPath("foo/bar")
+          .withPri(1)
+          .withType("application/xml");
+
+        UrlItem url1 = new UrlItem("http://example.com/res1")
+          .withLastmod(now)
+          .withChangefreq("daily")
+          .withMetadata(urlRsMd)
+          .addLink(urlLink1)
+          .addLink(new RsLn("duplicate", "http://also.com/res1"));
+
+        UrlItem url2 = new UrlItem("http://example.com/res2");
+
+        return new Urlset(rsMd)
+          .addLink(new RsLn("up", "http://example.com/capabilitylist.xml"))
+          .addItem(url1)
+          .addItem(url2);
+    }
+}